@@ -27,6 +27,18 @@ import java.util.Map;
  */
 @SuppressWarnings("unused")
 public interface Listener {
+    /**
+     * Returns the events that this listener wants to receive
+     * By default, a listener receives only the events whose callbacks it overrides:
+     * events that no listener wants are not built at all.
+     * Override this method to subscribe to an explicit set of events or to filter them by chat or by message type.
+     *
+     * @return a non-null subscription
+     */
+    default ListenerSubscription subscription() {
+        return ListenerSubscription.of(this);
+    }
+
     /**
      * Called when the socket sends a node to Whatsapp
      *
@@ -0,0 +1,169 @@
+package it.auties.whatsapp.api;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The constants of this enumerated type describe the events that a {@link Listener} can subscribe to
+ */
+public enum ListenerEvent {
+    /**
+     * {@link Listener#onNodeSent(Whatsapp, it.auties.whatsapp.model.node.Node)}
+     */
+    NODE_SENT("onNodeSent"),
+    /**
+     * {@link Listener#onNodeReceived(Whatsapp, it.auties.whatsapp.model.node.Node)}
+     */
+    NODE_RECEIVED("onNodeReceived"),
+    /**
+     * {@link Listener#onLoggedIn(Whatsapp)}
+     */
+    LOGGED_IN("onLoggedIn"),
+    /**
+     * {@link Listener#onMetadata(Whatsapp, java.util.Map)}
+     */
+    METADATA("onMetadata"),
+    /**
+     * {@link Listener#onDisconnected(Whatsapp, DisconnectReason)}
+     */
+    DISCONNECTED("onDisconnected"),
+    /**
+     * {@link Listener#onAction(Whatsapp, it.auties.whatsapp.model.action.Action, it.auties.whatsapp.model.info.MessageIndexInfo)}
+     */
+    ACTION("onAction"),
+    /**
+     * {@link Listener#onSetting(Whatsapp, it.auties.whatsapp.model.setting.Setting)}
+     */
+    SETTING("onSetting"),
+    /**
+     * {@link Listener#onFeatures(Whatsapp, java.util.List)}
+     */
+    FEATURES("onFeatures"),
+    /**
+     * {@link Listener#onContacts(Whatsapp, java.util.Collection)}
+     */
+    CONTACTS("onContacts"),
+    /**
+     * {@link Listener#onContactPresence(Whatsapp, it.auties.whatsapp.model.chat.Chat, it.auties.whatsapp.model.jid.JidProvider)}
+     */
+    CONTACT_PRESENCE("onContactPresence"),
+    /**
+     * {@link Listener#onChats(Whatsapp, java.util.Collection)}
+     */
+    CHATS("onChats"),
+    /**
+     * {@link Listener#onNewsletters(Whatsapp, java.util.Collection)}
+     */
+    NEWSLETTERS("onNewsletters"),
+    /**
+     * {@link Listener#onChatMessagesSync(Whatsapp, it.auties.whatsapp.model.chat.Chat, boolean)}
+     */
+    CHAT_MESSAGES_SYNC("onChatMessagesSync"),
+    /**
+     * {@link Listener#onHistorySyncProgress(Whatsapp, int, boolean)}
+     */
+    HISTORY_SYNC_PROGRESS("onHistorySyncProgress"),
+    /**
+     * {@link Listener#onNewMessage(Whatsapp, it.auties.whatsapp.model.info.MessageInfo)}
+     */
+    NEW_MESSAGE("onNewMessage"),
+    /**
+     * {@link Listener#onMessageDeleted(Whatsapp, it.auties.whatsapp.model.info.MessageInfo, boolean)}
+     */
+    MESSAGE_DELETED("onMessageDeleted"),
+    /**
+     * {@link Listener#onMessageStatus(Whatsapp, it.auties.whatsapp.model.info.MessageInfo)}
+     */
+    MESSAGE_STATUS("onMessageStatus"),
+    /**
+     * {@link Listener#onStatus(Whatsapp, java.util.Collection)}
+     */
+    STATUS("onStatus"),
+    /**
+     * {@link Listener#onNewStatus(Whatsapp, it.auties.whatsapp.model.info.ChatMessageInfo)}
+     */
+    NEW_STATUS("onNewStatus"),
+    /**
+     * {@link Listener#onMessageReply(Whatsapp, it.auties.whatsapp.model.info.ChatMessageInfo, it.auties.whatsapp.model.info.QuotedMessageInfo)}
+     */
+    MESSAGE_REPLY("onMessageReply"),
+    /**
+     * {@link Listener#onGroupPictureChanged(Whatsapp, it.auties.whatsapp.model.chat.Chat)}
+     */
+    GROUP_PICTURE_CHANGED("onGroupPictureChanged"),
+    /**
+     * {@link Listener#onProfilePictureChanged(Whatsapp, it.auties.whatsapp.model.contact.Contact)}
+     */
+    PROFILE_PICTURE_CHANGED("onProfilePictureChanged"),
+    /**
+     * {@link Listener#onAboutChanged(Whatsapp, String, String)}
+     */
+    ABOUT_CHANGED("onAboutChanged"),
+    /**
+     * {@link Listener#onNameChanged(Whatsapp, String, String)}
+     */
+    NAME_CHANGED("onNameChanged"),
+    /**
+     * {@link Listener#onLocaleChanged(Whatsapp, it.auties.whatsapp.model.mobile.CountryLocale, it.auties.whatsapp.model.mobile.CountryLocale)}
+     */
+    LOCALE_CHANGED("onLocaleChanged"),
+    /**
+     * {@link Listener#onContactBlocked(Whatsapp, it.auties.whatsapp.model.contact.Contact)}
+     */
+    CONTACT_BLOCKED("onContactBlocked"),
+    /**
+     * {@link Listener#onNewContact(Whatsapp, it.auties.whatsapp.model.contact.Contact)}
+     */
+    NEW_CONTACT("onNewContact"),
+    /**
+     * {@link Listener#onPrivacySettingChanged(Whatsapp, it.auties.whatsapp.model.privacy.PrivacySettingEntry, it.auties.whatsapp.model.privacy.PrivacySettingEntry)}
+     */
+    PRIVACY_SETTING_CHANGED("onPrivacySettingChanged"),
+    /**
+     * {@link Listener#onLinkedDevices(Whatsapp, java.util.Collection)}
+     */
+    LINKED_DEVICES("onLinkedDevices"),
+    /**
+     * {@link Listener#onRegistrationCode(Whatsapp, long)}
+     */
+    REGISTRATION_CODE("onRegistrationCode"),
+    /**
+     * {@link Listener#onCall(Whatsapp, it.auties.whatsapp.model.call.Call)}
+     */
+    CALL("onCall");
+
+    private final String methodName;
+
+    ListenerEvent(String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * Returns the events whose callbacks are overridden by a type of listener
+     *
+     * @param type the type of the listener
+     * @return a non-null immutable set
+     */
+    public static Set<ListenerEvent> overriddenBy(Class<? extends Listener> type) {
+        var result = EnumSet.noneOf(ListenerEvent.class);
+        for (var method : Listener.class.getMethods()) {
+            if (method.isDefault() && isOverridden(type, method)) {
+                Arrays.stream(values())
+                        .filter(event -> event.methodName.equals(method.getName()))
+                        .forEach(result::add);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static boolean isOverridden(Class<?> type, Method method) {
+        try {
+            return type.getMethod(method.getName(), method.getParameterTypes()).getDeclaringClass() != Listener.class;
+        } catch (NoSuchMethodException exception) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package it.auties.whatsapp.api;
+
+/**
+ * The constants of this enumerated type describe what happens when an event is dispatched to a listener whose queue is full
+ */
+public enum ListenerOverflowPolicy {
+    /**
+     * The thread that dispatches the event waits until the listener has room for it, for at most {@link it.auties.whatsapp.controller.Store#listenerBlockTimeout()}
+     * If the listener doesn't make room in time, the event is queued anyway, over the capacity of the queue, so that it's never lost
+     * Events dispatched from inside a listener are never blocked, so that a listener can't deadlock itself
+     */
+    BLOCK,
+
+    /**
+     * The event is discarded
+     */
+    DROP,
+
+    /**
+     * The event replaces a pending event of the same kind, if it's a snapshot like the list of chats or the progress of the history sync
+     * Any other event waits as with {@link ListenerOverflowPolicy#BLOCK}
+     */
+    COALESCE
+}
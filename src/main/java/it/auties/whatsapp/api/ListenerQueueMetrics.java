@@ -0,0 +1,14 @@
+package it.auties.whatsapp.api;
+
+/**
+ * A snapshot of the queue of events of a listener
+ *
+ * @param depth      the number of events waiting to be handled by the listener
+ * @param capacity   the maximum number of events that can wait before the overflow policy applies
+ * @param dispatched the number of events handled by the listener
+ * @param dropped    the number of events discarded because the queue was full
+ * @param coalesced  the number of events that replaced a pending event of the same kind
+ */
+public record ListenerQueueMetrics(int depth, int capacity, long dispatched, long dropped, long coalesced) {
+
+}
@@ -0,0 +1,117 @@
+package it.auties.whatsapp.api;
+
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.jid.JidProvider;
+import it.auties.whatsapp.model.message.model.Message;
+
+import java.util.*;
+
+/**
+ * The events that a {@link Listener} wants to receive
+ *
+ * @param events       the events to receive
+ * @param chats        the chats whose events should be received, or an empty set to receive the events of every chat
+ * @param messageTypes the types of messages whose events should be received, or an empty set to receive every type
+ */
+public record ListenerSubscription(Set<ListenerEvent> events, Set<Jid> chats, Set<Message.Type> messageTypes) {
+    private static final ListenerSubscription ALL = new ListenerSubscription(EnumSet.allOf(ListenerEvent.class), Set.of(), Set.of());
+    // Discovering the events of a listener requires reflection, so it's done once per class
+    private static final ClassValue<ListenerSubscription> DISCOVERED = new ClassValue<>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected ListenerSubscription computeValue(Class<?> type) {
+            return new ListenerSubscription(ListenerEvent.overriddenBy((Class<? extends Listener>) type), Set.of(), Set.of());
+        }
+    };
+
+    public ListenerSubscription {
+        events = Collections.unmodifiableSet(events.isEmpty() ? EnumSet.noneOf(ListenerEvent.class) : EnumSet.copyOf(events));
+        chats = Set.copyOf(chats);
+        messageTypes = Collections.unmodifiableSet(messageTypes.isEmpty() ? EnumSet.noneOf(Message.Type.class) : EnumSet.copyOf(messageTypes));
+    }
+
+    /**
+     * Returns a subscription to every event
+     *
+     * @return a non-null subscription
+     */
+    public static ListenerSubscription all() {
+        return ALL;
+    }
+
+    /**
+     * Returns a subscription to the events whose callbacks are overridden by a listener
+     *
+     * @param listener the listener
+     * @return a non-null subscription
+     */
+    public static ListenerSubscription of(Listener listener) {
+        return DISCOVERED.get(listener.getClass());
+    }
+
+    /**
+     * Returns a subscription to the provided events
+     *
+     * @param events the events
+     * @return a non-null subscription
+     */
+    public static ListenerSubscription of(ListenerEvent... events) {
+        return new ListenerSubscription(Set.of(events), Set.of(), Set.of());
+    }
+
+    /**
+     * Returns a copy of this subscription that only receives the events of the provided chats
+     *
+     * @param chats the chats
+     * @return a non-null subscription
+     */
+    public ListenerSubscription withChats(JidProvider... chats) {
+        var jids = Arrays.stream(chats)
+                .map(chat -> chat.toJid().toSimpleJid())
+                .toList();
+        return new ListenerSubscription(events, new HashSet<>(jids), messageTypes);
+    }
+
+    /**
+     * Returns a copy of this subscription that only receives the events of messages of the provided types
+     *
+     * @param messageTypes the types of messages
+     * @return a non-null subscription
+     */
+    public ListenerSubscription withMessageTypes(Message.Type... messageTypes) {
+        return new ListenerSubscription(events, chats, Set.of(messageTypes));
+    }
+
+    /**
+     * Returns whether this subscription receives an event
+     *
+     * @param event the event
+     * @return a boolean
+     */
+    public boolean accepts(ListenerEvent event) {
+        return events.contains(event);
+    }
+
+    /**
+     * Returns whether this subscription receives an event
+     *
+     * @param event   the event
+     * @param chat    the chat that the event regards, can be null
+     * @param message the message that the event regards, can be null
+     * @return a boolean
+     */
+    public boolean accepts(ListenerEvent event, Jid chat, MessageInfo<?> message) {
+        if (!events.contains(event)) {
+            return false;
+        }
+
+        if (chat != null && !chats.isEmpty() && !chats.contains(chat.toSimpleJid())) {
+            return false;
+        }
+
+        return message == null
+                || messageTypes.isEmpty()
+                || messageTypes.contains(message.message().type());
+    }
+}
@@ -0,0 +1,16 @@
+package it.auties.whatsapp.api;
+
+import it.auties.whatsapp.model.info.MessageInfo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A batch of messages sent through {@link Whatsapp#sendMessages(java.util.Collection)}
+ *
+ * @param messages   a future for each message, in the same order as the requests, that completes when the message is sent
+ * @param completion a future that completes with the stats of the batch when all of its messages are done
+ */
+public record MessageBatch(List<CompletableFuture<MessageInfo<?>>> messages, CompletableFuture<MessageBatchStats> completion) {
+
+}
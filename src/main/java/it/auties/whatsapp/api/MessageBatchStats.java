@@ -0,0 +1,23 @@
+package it.auties.whatsapp.api;
+
+import java.time.Duration;
+
+/**
+ * The outcome of a batch of messages sent through {@link Whatsapp#sendMessages(java.util.Collection)}
+ *
+ * @param total   the number of messages in the batch
+ * @param sent    the number of messages that were sent
+ * @param failed  the number of messages that couldn't be sent
+ * @param elapsed the time between the start of the batch and the completion of its last message
+ */
+public record MessageBatchStats(int total, int sent, int failed, Duration elapsed) {
+    /**
+     * Returns the number of messages sent per second
+     *
+     * @return a non-negative number
+     */
+    public double messagesPerSecond() {
+        var nanos = elapsed.toNanos();
+        return nanos == 0 ? 0 : sent * 1_000_000_000D / nanos;
+    }
+}
@@ -5,6 +5,8 @@ import it.auties.whatsapp.controller.Store;
 import it.auties.whatsapp.model.signal.auth.UserAgent.ReleaseChannel;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Executor;
 
 @SuppressWarnings("unused")
 public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOptionsBuilder, WebOptionsBuilder {
@@ -110,4 +112,127 @@ public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOp
         store.setCheckPatchMacs(checkPatchMacs);
         return (T) this;
     }
+
+    /**
+     * Sets the maximum number of events that can wait to be handled by each listener
+     * By default, it's set to 1024
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T listenerQueueCapacity(int listenerQueueCapacity) {
+        store.setListenerQueueCapacity(listenerQueueCapacity);
+        return (T) this;
+    }
+
+    /**
+     * Sets what happens when an event is dispatched to a listener whose queue is full
+     * By default, the dispatching thread waits, for at most {@link #listenerBlockTimeout(Duration)}
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T listenerOverflowPolicy(ListenerOverflowPolicy listenerOverflowPolicy) {
+        store.setListenerOverflowPolicy(listenerOverflowPolicy);
+        return (T) this;
+    }
+
+    /**
+     * Sets how long the thread that dispatches an event can wait for a listener whose queue is full: when it expires, the event is queued over the capacity of the queue
+     * The socket isn't read while that thread waits, so a listener that waits for a response of the socket can't block it forever
+     * By default, it's set to one second
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T listenerBlockTimeout(Duration listenerBlockTimeout) {
+        store.setListenerBlockTimeout(listenerBlockTimeout);
+        return (T) this;
+    }
+
+    /**
+     * Sets how long receipts for the same chat wait to be sent together as a single node
+     * By default, it's set to 100 milliseconds: a zero window sends every receipt on its own
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T receiptBatchWindow(Duration receiptBatchWindow) {
+        store.setReceiptBatchWindow(receiptBatchWindow);
+        return (T) this;
+    }
+
+    /**
+     * Sets the maximum number of messages acknowledged by a single receipt: a batch that reaches it is sent immediately
+     * By default, it's set to 256
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T maxReceiptBatchSize(int maxReceiptBatchSize) {
+        store.setMaxReceiptBatchSize(maxReceiptBatchSize);
+        return (T) this;
+    }
+
+    /**
+     * Sets how long the metadata of a group or community is cached: changes reported by group notifications invalidate it earlier
+     * By default, it's set to 24 hours: a zero ttl disables the cache
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T chatMetadataTtl(Duration chatMetadataTtl) {
+        store.setChatMetadataTtl(chatMetadataTtl);
+        return (T) this;
+    }
+
+    /**
+     * Sets whether the cached metadata of groups and communities should be serialized with the session, so that it isn't queried again after a restart
+     * By default, it's not serialized
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T persistChatMetadata(boolean persistChatMetadata) {
+        store.setPersistChatMetadata(persistChatMetadata);
+        return (T) this;
+    }
+
+    /**
+     * Sets the number of selector loops that serve the raw socket connections used by the mobile api
+     * Sessions configured with the same number share the same loops
+     * By default, there is one loop per core
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T socketSelectors(int socketSelectors) {
+        store.setSocketSelectors(socketSelectors);
+        return (T) this;
+    }
+
+    /**
+     * Sets the executor used by the HTTP clients that upload and download medias and metadata for this session
+     * By default, each client uses its own executor
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T httpExecutor(Executor httpExecutor) {
+        store.setHttpExecutor(httpExecutor);
+        return (T) this;
+    }
+
+    /**
+     * Sets the maximum number of HTTP requests of this session that can be in flight at the same time: extra requests wait for one of the others to complete
+     * A streamed download counts as in flight until its stream is read completely or closed
+     * By default, it's set to 64
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T maxConcurrentHttpRequests(int maxConcurrentHttpRequests) {
+        store.setMaxConcurrentHttpRequests(maxConcurrentHttpRequests);
+        return (T) this;
+    }
 }
\ No newline at end of file
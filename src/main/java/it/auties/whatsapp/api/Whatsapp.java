@@ -12,11 +12,14 @@ import it.auties.whatsapp.model.call.CallBuilder;
 import it.auties.whatsapp.model.call.CallStatus;
 import it.auties.whatsapp.model.chat.*;
 import it.auties.whatsapp.model.contact.Contact;
+import it.auties.whatsapp.model.contact.ContactPresence;
 import it.auties.whatsapp.model.contact.ContactStatus;
 import it.auties.whatsapp.model.info.*;
 import it.auties.whatsapp.model.jid.Jid;
 import it.auties.whatsapp.model.jid.JidProvider;
 import it.auties.whatsapp.model.jid.JidServer;
+import it.auties.whatsapp.model.media.AttachmentType;
+import it.auties.whatsapp.model.media.MediaFile;
 import it.auties.whatsapp.model.message.model.*;
 import it.auties.whatsapp.model.message.server.ProtocolMessage;
 import it.auties.whatsapp.model.message.server.ProtocolMessageBuilder;
@@ -43,21 +46,29 @@ import it.auties.whatsapp.util.*;
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static it.auties.whatsapp.model.contact.ContactStatus.*;
@@ -71,6 +82,9 @@ public class Whatsapp {
     private static final byte[] DEVICE_MOBILE_SIGNATURE_HEADER = {6, 2};
     private static final int COMPANION_PAIRING_TIMEOUT = 10;
     private static final int MAX_COMPANIONS = 5;
+    private static final int MAX_PIPELINED_MESSAGES = 256;
+    private static final int MAX_PREPARED_USERS = 128;
+    private static final int MAX_PIPELINED_PREPARATIONS = 4;
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^(.+)@(\\S+)$");
 
     // The instances are added and removed when the client connects/disconnects
@@ -946,6 +960,179 @@ public class Whatsapp {
                 .thenApply(ignored -> info);
     }
 
+    /**
+     * Sends the same message to each recipient as a batch
+     * The media, or the link preview, of the message is uploaded, or resolved, once: then each recipient receives a copy of the message.
+     *
+     * @param recipients the non-null recipients, which cannot be newsletters
+     * @param message    the non-null message to send
+     * @return a non-null batch, with a future for each recipient
+     * @see #sendMessages(Collection)
+     */
+    public MessageBatch sendMessages(Collection<? extends JidProvider> recipients, MessageContainer message) {
+        var chats = recipients.stream()
+                .map(JidProvider::toJid)
+                .toList();
+        var requests = socketHandler.prepareSharedMessage(message).thenApply(ignored -> chats.stream()
+                .map(chat -> (MessageRequest) new MessageRequest.Chat(buildChatMessage(chat, copyMessage(message))))
+                .toList());
+        return sendMessages(requests, chats.size());
+    }
+
+    // Each recipient gets its own copy, as attributing a message before it's sent changes it
+    // The copy doesn't carry the media, so it's sent with the upload of the original message
+    private MessageContainer copyMessage(MessageContainer message) {
+        return MessageContainerSpec.decode(MessageContainerSpec.encode(message));
+    }
+
+    /**
+     * Sends a batch of messages.
+     * The recipients of all the messages are prepared together, and their devices and sessions are resolved once before any message is sent.
+     * Then the messages are encrypted in parallel and written to the socket without waiting for each other.
+     * No compose presence is sent.
+     *
+     * @param requests the non-null messages to send
+     * @return a non-null batch, with a future for each message
+     */
+    public MessageBatch sendMessages(Collection<? extends MessageRequest> requests) {
+        var entries = List.<MessageRequest>copyOf(requests);
+        return sendMessages(CompletableFuture.completedFuture(entries), entries.size());
+    }
+
+    private MessageBatch sendMessages(CompletableFuture<List<MessageRequest>> requests, int size) {
+        var startTime = System.nanoTime();
+        var results = IntStream.range(0, size)
+                .mapToObj(ignored -> new CompletableFuture<MessageInfo<?>>())
+                .toList();
+        var completion = requests.thenComposeAsync(entries -> prepareMessageBatch(entries)
+                .thenComposeAsync(unavailable -> runPipelined(entries.size(), MAX_PIPELINED_MESSAGES, index -> sendBatchedMessage(entries.get(index), unavailable).whenComplete((info, error) -> {
+                    if (error != null) {
+                        results.get(index).completeExceptionally(error);
+                    } else {
+                        results.get(index).complete(info);
+                    }
+                })))).handle((ignored, error) -> {
+            if (error != null) {
+                results.forEach(result -> result.completeExceptionally(error));
+            }
+
+            var sent = (int) results.stream()
+                    .filter(result -> !result.isCompletedExceptionally() && isSent(result.join()))
+                    .count();
+            return new MessageBatchStats(size, sent, size - sent, Duration.ofNanos(System.nanoTime() - startTime));
+        });
+        return new MessageBatch(results, completion);
+    }
+
+    // Returns the recipients that don't have Whatsapp
+    // The users are prepared in chunks of MAX_PREPARED_USERS, and the groups are queried one at a time, with at most MAX_PIPELINED_PREPARATIONS of them in flight
+    // Preparing the sessions is best effort: a recipient whose chunk, group or session cannot be prepared fails only when its message is sent
+    private CompletableFuture<Set<Jid>> prepareMessageBatch(List<MessageRequest> requests) {
+        var users = new LinkedHashSet<Jid>();
+        var groups = new LinkedHashSet<Jid>();
+        for (var request : requests) {
+            if (!(request instanceof MessageRequest.Chat chatRequest) || chatRequest.peer()) {
+                continue;
+            }
+
+            var chatJid = chatRequest.info().chatJid();
+            if (chatJid.hasServer(JidServer.whatsapp())) {
+                users.add(chatJid);
+            } else if (chatJid.hasServer(JidServer.groupOrCommunity())) {
+                groups.add(chatJid);
+            }
+        }
+
+        var timestamp = Clock.nowSeconds();
+        var userChunks = chunk(List.copyOf(users), MAX_PREPARED_USERS);
+        var groupsList = List.copyOf(groups);
+        var recipients = ConcurrentHashMap.<Jid>newKeySet();
+        var unavailable = ConcurrentHashMap.<Jid>newKeySet();
+        recipients.add(jidOrThrowError().toSimpleJid());
+        var preparedUsers = runPipelined(userChunks.size(), MAX_PIPELINED_PREPARATIONS, index -> {
+            var chunk = userChunks.get(index);
+            return prepareChat(timestamp, new HashSet<>(chunk)).thenAccept(available -> {
+                var availableUsers = available.stream()
+                        .map(JidProvider::toJid)
+                        .collect(Collectors.toUnmodifiableSet());
+                for (var user : chunk) {
+                    if (availableUsers.contains(user)) {
+                        recipients.add(user);
+                    } else {
+                        unavailable.add(user);
+                    }
+                }
+            });
+        });
+        var preparedGroups = runPipelined(groupsList.size(), MAX_PIPELINED_PREPARATIONS, index -> socketHandler.queryGroupMetadata(groupsList.get(index))
+                .thenAccept(metadata -> metadata.participants()
+                        .stream()
+                        .map(ChatParticipant::jid)
+                        .forEach(recipients::add)));
+        return CompletableFuture.allOf(preparedUsers, preparedGroups)
+                .thenComposeAsync(ignored -> socketHandler.prefetchSessions(recipients).exceptionally(error -> null))
+                .thenApply(ignored -> Set.copyOf(unavailable));
+    }
+
+    private static <T> List<List<T>> chunk(List<T> values, int size) {
+        var results = new ArrayList<List<T>>();
+        for (var i = 0; i < values.size(); i += size) {
+            results.add(values.subList(i, Math.min(i + size, values.size())));
+        }
+
+        return results;
+    }
+
+    // Runs the task for each index, starting the next one as soon as one is done, so that at most parallelism tasks are in flight
+    // A task that fails doesn't stop the others: the caller handles its result
+    private CompletableFuture<Void> runPipelined(int size, int parallelism, IntFunction<CompletableFuture<?>> task) {
+        var next = new AtomicInteger();
+        var workers = new CompletableFuture<?>[Math.min(parallelism, size)];
+        for (var i = 0; i < workers.length; i++) {
+            workers[i] = runNextPipelined(size, task, next);
+        }
+
+        return CompletableFuture.allOf(workers);
+    }
+
+    private CompletableFuture<Void> runNextPipelined(int size, IntFunction<CompletableFuture<?>> task, AtomicInteger next) {
+        var index = next.getAndIncrement();
+        if (index >= size) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<?> result;
+        try {
+            result = task.apply(index);
+        } catch (Throwable throwable) {
+            result = CompletableFuture.failedFuture(throwable);
+        }
+
+        return result.handle((ignored, error) -> null)
+                .thenComposeAsync(ignored -> runNextPipelined(size, task, next));
+    }
+
+    private CompletableFuture<MessageInfo<?>> sendBatchedMessage(MessageRequest request, Set<Jid> unavailable) {
+        return switch (request) {
+            case MessageRequest.Chat chatRequest when chatRequest.info().chatJid().hasServer(JidServer.newsletter()) ->
+                    CompletableFuture.failedFuture(new IllegalArgumentException("Use a newsletter request to send a message in a newsletter"));
+            case MessageRequest.Chat chatRequest when unavailable.contains(chatRequest.info().chatJid()) ->
+                    CompletableFuture.completedFuture(chatRequest.info().setStatus(MessageStatus.ERROR));
+            case MessageRequest.Chat chatRequest -> socketHandler.sendMessage(chatRequest)
+                    .thenApply(ignored -> chatRequest.info());
+            case MessageRequest.Newsletter newsletterRequest -> socketHandler.sendMessage(newsletterRequest)
+                    .thenApply(ignored -> newsletterRequest.info());
+        };
+    }
+
+    private boolean isSent(MessageInfo<?> info) {
+        return switch (info) {
+            case ChatMessageInfo chatInfo -> chatInfo.status() != MessageStatus.ERROR;
+            case NewsletterMessageInfo newsletterInfo -> newsletterInfo.status() != MessageStatus.ERROR;
+            default -> true;
+        };
+    }
+
     /**
      * Marks a chat as read.
      *
@@ -1011,7 +1198,7 @@ public class Whatsapp {
     public CompletableFuture<ChatMessageInfo> markMessageRead(ChatMessageInfo info) {
         var type = store().findPrivacySetting(PrivacySettingType.READ_RECEIPTS)
                 .value() == PrivacySettingValue.EVERYONE ? "read" : "read-self";
-        socketHandler.sendReceipt(info.chatJid(), info.senderJid(), List.of(info.id()), type);
+        socketHandler.queueReceipt(info.chatJid(), info.senderJid(), info.id(), type);
         info.chat().ifPresent(chat -> {
             var count = chat.unreadMessagesCount();
             if (count > 0) {
@@ -1384,6 +1571,7 @@ public class Whatsapp {
         }
 
         self.get().setLastSeen(ZonedDateTime.now());
+        store().markChanged();
     }
 
     /**
@@ -1674,7 +1862,7 @@ public class Whatsapp {
         var proxy = store().proxy()
                 .filter(ignored -> store().mediaProxySetting().allowsDownloads())
                 .orElse(null);
-        return Medias.downloadAsync(image, proxy)
+        return Medias.downloadAsync(image, store().httpClients(), proxy)
                 .thenComposeAsync(imageResult -> changeGroupPicture(group, imageResult));
     }
 
@@ -2536,15 +2724,114 @@ public class Whatsapp {
             return CompletableFuture.completedFuture(decodedMedia.get());
         }
 
-        var proxy = store().proxy()
-                .filter(ignored -> store().mediaProxySetting().allowsDownloads())
-                .orElse(null);
-        return Medias.downloadAsync(mediaMessage, proxy).thenApply(result -> {
+        return Medias.downloadAsync(mediaMessage, store().httpClients(), downloadProxy()).thenApply(result -> {
             mediaMessage.setDecodedMedia(result);
             return result;
         });
     }
 
+    /**
+     * Downloads a media from Whatsapp's servers into a file.
+     * The media is decrypted and verified as it's written, so it doesn't need to fit in memory.
+     * If the download fails because the media is too old/invalid, a reupload request will be sent to Whatsapp.
+     * If the download fails, the file is deleted.
+     *
+     * @param info the non-null message info wrapping the media
+     * @param file the non-null file where the media should be written
+     * @return a CompletableFuture that completes with the length of the media
+     */
+    public CompletableFuture<Long> downloadMedia(ChatMessageInfo info, Path file) {
+        if (!(info.message().content() instanceof MediaMessage<?> mediaMessage)) {
+            throw new IllegalArgumentException("Expected media message, got: " + info.message().category());
+        }
+
+        return downloadMedia(mediaMessage, file)
+                .exceptionallyCompose(ignored1 -> requireMediaReupload(info)
+                        .thenCompose(ignored -> downloadMedia(mediaMessage, file)));
+    }
+
+    /**
+     * Downloads a media from Whatsapp's servers into a file.
+     * The media is decrypted and verified as it's written, so it doesn't need to fit in memory.
+     * If the download fails, the file is deleted.
+     *
+     * @param mediaMessage the non-null media
+     * @param file         the non-null file where the media should be written
+     * @return a CompletableFuture that completes with the length of the media
+     */
+    public CompletableFuture<Long> downloadMedia(MediaMessage<?> mediaMessage, Path file) {
+        return Medias.downloadAsync(mediaMessage, store().httpClients(), downloadProxy(), file);
+    }
+
+    /**
+     * Downloads a media from Whatsapp's servers into a channel.
+     * The media is decrypted and verified as it's written, so it doesn't need to fit in memory.
+     * The channel is not closed.
+     *
+     * @param mediaMessage the non-null media
+     * @param channel      the non-null channel where the media should be written
+     * @return a CompletableFuture that completes with the length of the media
+     */
+    public CompletableFuture<Long> downloadMedia(MediaMessage<?> mediaMessage, WritableByteChannel channel) {
+        return Medias.downloadAsync(mediaMessage, store().httpClients(), downloadProxy(), channel);
+    }
+
+    /**
+     * Opens a stream over a media from Whatsapp's servers.
+     * The media is decrypted as it's read: if the media is invalid, an exception is thrown when the end of the stream is reached.
+     * The caller is responsible for closing the stream.
+     *
+     * @param mediaMessage the non-null media
+     * @return a CompletableFuture
+     */
+    public CompletableFuture<InputStream> downloadMediaStream(MediaMessage<?> mediaMessage) {
+        return Medias.downloadStreamAsync(mediaMessage, store().httpClients(), downloadProxy());
+    }
+
+    private URI downloadProxy() {
+        return store().proxy()
+                .filter(ignored -> store().mediaProxySetting().allowsDownloads())
+                .orElse(null);
+    }
+
+    /**
+     * Uploads a file to Whatsapp's servers.
+     * The file is read, encrypted and hashed as a stream, so it doesn't need to fit in memory.
+     * The result can be attached to a media message using {@link MediaMessage#setMediaFile(MediaFile)}: to upload the file when the message is sent, use {@link MediaMessage#setDecodedMediaFile(Path)} instead.
+     *
+     * @param file the non-null file to upload
+     * @param type the non-null type of the attachment
+     * @return a CompletableFuture
+     */
+    public CompletableFuture<MediaFile> uploadMedia(Path file, AttachmentType type) {
+        return Medias.upload(file, type, store().mediaConnection(), store().httpClients(), uploadProxy(), uploadUserAgent());
+    }
+
+    /**
+     * Uploads the contents of a stream to Whatsapp's servers.
+     * The stream is copied to a temporary file, which is deleted when the upload completes, and then uploaded as a file.
+     * The result can be attached to a media message using {@link MediaMessage#setMediaFile(MediaFile)}.
+     *
+     * @param file the non-null stream to upload, closed when it's read
+     * @param type the non-null type of the attachment
+     * @return a CompletableFuture
+     */
+    public CompletableFuture<MediaFile> uploadMedia(InputStream file, AttachmentType type) {
+        return Medias.upload(file, type, store().mediaConnection(), store().httpClients(), uploadProxy(), uploadUserAgent());
+    }
+
+    private URI uploadProxy() {
+        return store().proxy()
+                .filter(ignored -> store().mediaProxySetting().allowsUploads())
+                .orElse(null);
+    }
+
+    private String uploadUserAgent() {
+        return store().device()
+                .toUserAgent(store().version())
+                .orElse(null);
+    }
+
     /**
      * Asks Whatsapp for a media reupload for a specific media
      *
@@ -3577,6 +3864,57 @@ public class Whatsapp {
         return this;
     }
 
+    /**
+     * Returns the state of the queue of events waiting to be delivered to a listener
+     *
+     * @param listener the listener to inspect
+     * @return a non-null metrics snapshot
+     */
+    public ListenerQueueMetrics listenerQueueMetrics(Listener listener) {
+        return socketHandler.listenerQueueMetrics(listener);
+    }
+
+    /**
+     * Returns a publisher of the new messages
+     * Each subscriber has a buffer of {@link Store#listenerQueueCapacity()} messages: when it's full, the socket stops being read until the subscriber requests more.
+     * For this reason, a subscriber shouldn't wait for a response from Whatsapp inside {@link Flow.Subscriber#onNext(Object)}.
+     *
+     * @return a non-null publisher
+     */
+    public Flow.Publisher<MessageInfo<?>> newMessages() {
+        return socketHandler.newMessagesPublisher();
+    }
+
+    /**
+     * Returns a publisher of the messages whose status changed, for example because they were delivered or read
+     * Demand is handled as in {@link Whatsapp#newMessages()}
+     *
+     * @return a non-null publisher
+     */
+    public Flow.Publisher<MessageInfo<?>> messageReceipts() {
+        return socketHandler.messageStatusPublisher();
+    }
+
+    /**
+     * Returns a publisher of the changes in the presence of contacts
+     * Demand is handled as in {@link Whatsapp#newMessages()}
+     *
+     * @return a non-null publisher
+     */
+    public Flow.Publisher<ContactPresence> presences() {
+        return socketHandler.presencePublisher();
+    }
+
+    /**
+     * Returns a publisher of the chunks of the history sync, published after they were added to the store
+     * Demand is handled as in {@link Whatsapp#newMessages()}
+     *
+     * @return a non-null publisher
+     */
+    public Flow.Publisher<HistorySync> historySyncChunks() {
+        return socketHandler.historySyncPublisher();
+    }
+
     // Generated code from it.auties.whatsapp.routine.GenerateListenersLambda
 
     public Whatsapp addNodeSentListener(Listener.Consumer.Binary<Whatsapp, Node> consumer) {
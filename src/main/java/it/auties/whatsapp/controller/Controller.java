@@ -7,6 +7,7 @@ import it.auties.whatsapp.api.ClientType;
 import it.auties.whatsapp.model.mobile.PhoneNumber;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This interface represents is implemented by all WhatsappWeb4J's controllers. It provides an easy
@@ -44,12 +45,18 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
     @ProtobufProperty(index = 4, type = ProtobufType.STRING)
     protected final Collection<String> alias;
 
+    /**
+     * The number of changes applied to this controller, used by serializers to skip unchanged data
+     */
+    private final AtomicLong revision;
+
     public Controller(UUID uuid, PhoneNumber phoneNumber, ControllerSerializer serializer, ClientType clientType, Collection<String> alias) {
         this.uuid = Objects.requireNonNull(uuid, "Missing uuid");
         this.phoneNumber = phoneNumber;
         this.serializer = serializer;
         this.clientType = clientType;
         this.alias = Objects.requireNonNullElseGet(alias, ArrayList::new);
+        this.revision = new AtomicLong();
     }
 
     /**
@@ -64,6 +71,23 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
      */
     public abstract void dispose();
 
+    /**
+     * Returns a counter that is incremented every time this controller changes
+     *
+     * @return an unsigned long
+     */
+    public long revision() {
+        return revision.get();
+    }
+
+    /**
+     * Marks this controller as changed, so that it's written the next time it's serialized
+     * The mutators of this controller call this method automatically, but changes applied directly to the objects it holds should be followed by a call to it
+     */
+    public void markChanged() {
+        revision.incrementAndGet();
+    }
+
     public UUID uuid() {
         return uuid;
     }
@@ -89,6 +113,7 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
     @SuppressWarnings("unchecked")
     public T setPhoneNumber(PhoneNumber phoneNumber) {
         this.phoneNumber = phoneNumber;
+        markChanged();
         serializer.linkMetadata(this);
         return (T) this;
     }
@@ -130,6 +155,7 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
      */
     public void addAlias(String entry) {
         alias.add(entry);
+        markChanged();
     }
 
     /**
@@ -139,6 +165,7 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
      */
     public void removeAlias(String entry) {
         alias.remove(entry);
+        markChanged();
     }
 
     /**
@@ -146,6 +173,7 @@ public abstract sealed class Controller<T extends Controller<T>> permits Store,
      */
     public void removeAlias() {
         alias.clear();
+        markChanged();
     }
 
     /**
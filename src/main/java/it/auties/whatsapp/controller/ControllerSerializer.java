@@ -46,6 +46,27 @@ public interface ControllerSerializer {
         return new ProtobufControllerSerializer(baseDirectory);
     }
 
+    /**
+     * Returns a serializer that keeps the metadata of each chat separate from its messages
+     * Messages are appended to a log of .proto records, so saving a chat costs as much as the messages that changed
+     *
+     * @return a serializer
+     */
+    static ControllerSerializer toSegmentedProtobuf() {
+        return new SegmentedProtobufControllerSerializer();
+    }
+
+    /**
+     * Returns a serializer that keeps the metadata of each chat separate from its messages
+     * Messages are appended to a log of .proto records, so saving a chat costs as much as the messages that changed
+     *
+     * @param baseDirectory the directory where all the sessions should be saved
+     * @return a serializer
+     */
+    static ControllerSerializer toSegmentedProtobuf(Path baseDirectory) {
+        return new SegmentedProtobufControllerSerializer(baseDirectory);
+    }
+
     /**
      * Returns all the known IDs
      *
@@ -25,18 +25,23 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 abstract class FileControllerSerializer implements ControllerSerializer {
-    private static final String CHAT_PREFIX = "chat_";
+    static final String CHAT_PREFIX = "chat_";
     private static final String NEWSLETTER_PREFIX = "newsletter_";
+    private static final String CHAT_INDEX_NAME = "chats_index";
+    private static final int MIN_CHAT_INDEX_COMPACTION_ENTRIES = 256;
+    private static final int CHAT_INDEX_COMPACTION_RATIO = 2;
     
     private final Path baseDirectory;
-    private int keysHashCode;
-    private int storeHashCode;
-    private final ConcurrentMap<Jid, Integer> jidsHashCodes;
+    private final ConcurrentMap<UUID, Long> keysRevisions;
+    private final ConcurrentMap<UUID, Long> storeRevisions;
+    private final ConcurrentMap<UUID, ConcurrentMap<Jid, Long>> jidsRevisions;
+    private final ConcurrentMap<UUID, ChatIndex> chatIndexes;
     FileControllerSerializer(Path baseDirectory) {
         this.baseDirectory = baseDirectory;
-        this.keysHashCode = -1;
-        this.storeHashCode = -1;
-        this.jidsHashCodes = new ConcurrentHashMap<>();
+        this.keysRevisions = new ConcurrentHashMap<>();
+        this.storeRevisions = new ConcurrentHashMap<>();
+        this.jidsRevisions = new ConcurrentHashMap<>();
+        this.chatIndexes = new ConcurrentHashMap<>();
     }
 
     abstract String fileExtension();
@@ -44,13 +49,19 @@ abstract class FileControllerSerializer implements ControllerSerializer {
     abstract void encodeKeys(Keys keys, Path path);
     abstract void encodeStore(Store store, Path path);
     abstract void encodeChat(Chat chat, Path path);
+    abstract void encodeChatIndex(Collection<Chat> chats, Path path, boolean append);
     abstract void encodeNewsletter(Newsletter newsletter, Path path);
 
     abstract Keys decodeKeys(Path keys) throws IOException;
     abstract Store decodeStore(Path store) throws IOException;
     abstract Chat decodeChat(Path chat) throws IOException;
+    abstract List<Chat> decodeChatIndex(Path chatIndex) throws IOException;
     abstract Newsletter decodeNewsletter(Path newsletter) throws IOException;
 
+    Collection<HistorySyncMessage> decodeMessages(Chat chat, Path path) throws IOException {
+        return decodeChat(path).messages();
+    }
+
     @Override
     public LinkedList<UUID> listIds(ClientType type) {
         var directory = getHome(type);
@@ -109,12 +120,10 @@ abstract class FileControllerSerializer implements ControllerSerializer {
 
     @Override
     public CompletableFuture<Void> serializeKeys(Keys keys, boolean async) {
-        var newHashCode = keys.hashCode();
-        if(newHashCode == keysHashCode) {
+        if(!updateRevision(keysRevisions, keys.uuid(), keys.revision())) {
             return CompletableFuture.completedFuture(null);
         }
 
-        this.keysHashCode = newHashCode;
         var keysName = "keys" + fileExtension();
         var outputFile = getSessionFile(keys.clientType(), keys.uuid().toString(), keysName);
         if (async) {
@@ -128,18 +137,30 @@ abstract class FileControllerSerializer implements ControllerSerializer {
 
     @Override
     public CompletableFuture<Void> serializeStore(Store store, boolean async) {
-        var newHashCode = store.hashCode();
-        if(newHashCode == storeHashCode) {
+        var revisions = getJidsRevisions(store);
+        var changedChats = store.chats()
+                .stream()
+                .filter(chat -> updateRevision(revisions, chat.jid(), chat.revision()))
+                .toList();
+        var chatsFutures = serializeChatsAsync(store, changedChats);
+        var newslettersFutures = serializeNewslettersAsync(store, revisions);
+        var storeChanged = updateRevision(storeRevisions, store.uuid(), store.revision());
+        if(!storeChanged && chatsFutures.length == 0 && newslettersFutures.length == 0) {
             return CompletableFuture.completedFuture(null);
         }
 
-        this.storeHashCode = newHashCode;
-        var chatsFutures = serializeChatsAsync(store);
-        var newslettersFutures = serializeNewslettersAsync(store);
         var dependableFutures = Stream.of(chatsFutures, newslettersFutures)
                 .flatMap(Arrays::stream)
                 .toArray(CompletableFuture[]::new);
         var result = CompletableFuture.allOf(dependableFutures).thenRunAsync(() -> {
+            if(chatsFutures.length != 0) {
+                serializeChatIndex(store, changedChats);
+            }
+
+            if(!storeChanged) {
+                return;
+            }
+
             var storeName = "store" + fileExtension();
             var storePath = getSessionFile(store, storeName);
             encodeStore(store, storePath);
@@ -152,51 +173,89 @@ abstract class FileControllerSerializer implements ControllerSerializer {
         return CompletableFuture.completedFuture(null);
     }
 
-    private CompletableFuture<?>[] serializeChatsAsync(Store store) {
-        return store.chats()
-                .stream()
+    // Only the revision of each chat is compared, so unchanged chats are skipped without walking their messages
+    private CompletableFuture<?>[] serializeChatsAsync(Store store, Collection<Chat> changedChats) {
+        return changedChats.stream()
                 .map(chat -> serializeChatAsync(store, chat))
                 .toArray(CompletableFuture[]::new);
     }
 
     private CompletableFuture<Void> serializeChatAsync(Store store, Chat chat) {
-        var newHashCode = chat.hashCode();
-        if(newHashCode == jidsHashCodes.getOrDefault(chat.jid(), -1)) {
-            return CompletableFuture.completedFuture(null);
-        }
-
-        jidsHashCodes.put(chat.jid(), newHashCode);
         var fileName = CHAT_PREFIX + chat.jid().user() + fileExtension();
         var outputFile = getSessionFile(store, fileName);
-        return CompletableFuture.runAsync(() -> encodeChat(chat, outputFile))
+        return CompletableFuture.runAsync(() -> {
+                    chat.loadMessages();
+                    encodeChat(chat, outputFile);
+                })
                 .exceptionallyAsync(error -> onError(outputFile, error));
     }
 
+    // The index holds the metadata of every chat, so the session can be restored without decoding any message
+    // Only the chats that changed are appended to it: a later entry for the same chat replaces the previous one
+    // The index is rewritten when chats were removed, or when most of its entries are stale
+    private void serializeChatIndex(Store store, Collection<Chat> changedChats) {
+        var outputFile = getSessionFile(store, CHAT_INDEX_NAME + fileExtension());
+        var index = getChatIndex(store);
+        synchronized (index) {
+            try {
+                changedChats.forEach(chat -> index.jids.add(chat.jid()));
+                var chats = store.chats();
+                if (index.compact || index.jids.size() != chats.size() || shouldCompactChatIndex(index)) {
+                    index.compact = true;
+                    encodeChatIndex(chats, outputFile, false);
+                    index.jids.clear();
+                    chats.forEach(chat -> index.jids.add(chat.jid()));
+                    index.entries = chats.size();
+                    index.compact = false;
+                } else {
+                    encodeChatIndex(changedChats, outputFile, true);
+                    index.entries += changedChats.size();
+                }
+            } catch (UncheckedIOException exception) {
+                index.compact = true;
+                onError(outputFile, exception);
+            }
+        }
+    }
+
+    private boolean shouldCompactChatIndex(ChatIndex index) {
+        return index.entries >= MIN_CHAT_INDEX_COMPACTION_ENTRIES
+                && index.entries > index.jids.size() * CHAT_INDEX_COMPACTION_RATIO;
+    }
+
+    private ChatIndex getChatIndex(Store store) {
+        return chatIndexes.computeIfAbsent(store.uuid(), ignored -> new ChatIndex());
+    }
+
     private Void onError(Path path, Throwable error) {
         var logger = System.getLogger("FileSerializer - " + path);
         logger.log(System.Logger.Level.ERROR, error);
         return null;
     }
 
-    private CompletableFuture<?>[] serializeNewslettersAsync(Store store) {
+    private CompletableFuture<?>[] serializeNewslettersAsync(Store store, ConcurrentMap<Jid, Long> revisions) {
         return store.newsletters()
                 .stream()
+                .filter(newsletter -> updateRevision(revisions, newsletter.jid(), newsletter.revision()))
                 .map(newsletter -> serializeNewsletterAsync(store, newsletter))
                 .toArray(CompletableFuture[]::new);
     }
 
     private CompletableFuture<Void> serializeNewsletterAsync(Store store, Newsletter newsletter) {
-        var newHashCode = newsletter.hashCode();
-        if(newHashCode == jidsHashCodes.getOrDefault(newsletter.jid(), -1)) {
-            return CompletableFuture.completedFuture(null);
-        }
-
-        jidsHashCodes.put(newsletter.jid(), newHashCode);
         var fileName = NEWSLETTER_PREFIX + newsletter.jid().user() + fileExtension();
         var outputFile = getSessionFile(store, fileName);
         return CompletableFuture.runAsync(() -> encodeNewsletter(newsletter, outputFile));
     }
 
+    private ConcurrentMap<Jid, Long> getJidsRevisions(Store store) {
+        return jidsRevisions.computeIfAbsent(store.uuid(), ignored -> new ConcurrentHashMap<>());
+    }
+
+    private static <K> boolean updateRevision(ConcurrentMap<K, Long> revisions, K key, long revision) {
+        var previous = revisions.put(key, revision);
+        return previous == null || previous != revision;
+    }
+
     @Override
     public Optional<Keys> deserializeKeys(ClientType type, UUID id) {
         return deserializeKeysFromId(type, id.toString());
@@ -238,7 +297,7 @@ abstract class FileControllerSerializer implements ControllerSerializer {
 
         try {
             var keys = decodeKeys(path);
-            keysHashCode = keys.hashCode();
+            keysRevisions.put(keys.uuid(), keys.revision());
             return Optional.of(keys);
         } catch (IOException e) {
             return Optional.empty();
@@ -286,7 +345,7 @@ abstract class FileControllerSerializer implements ControllerSerializer {
 
         try {
             var store = decodeStore(path);
-            storeHashCode = store.hashCode();
+            storeRevisions.put(store.uuid(), store.revision());
             return Optional.of(store);
         } catch (IOException exception) {
             return Optional.empty();
@@ -299,8 +358,10 @@ abstract class FileControllerSerializer implements ControllerSerializer {
         if (Files.notExists(directory)) {
             return CompletableFuture.completedFuture(null);
         }
+        var indexedChats = deserializeChatIndex(store, directory);
         try (var walker = Files.walk(directory)) {
-            var futures = walker.map(entry -> handleStoreFile(store, entry))
+            var futures = walker.filter(entry -> !indexedChats.contains(entry))
+                    .map(entry -> handleStoreFile(store, entry))
                     .filter(Objects::nonNull)
                     .toArray(CompletableFuture[]::new);
             return CompletableFuture.allOf(futures)
@@ -310,10 +371,76 @@ abstract class FileControllerSerializer implements ControllerSerializer {
         }
     }
 
+    // Chats in the index are added with their metadata only: their messages are decoded the first time they are accessed
+    private Set<Path> deserializeChatIndex(Store store, Path directory) {
+        var indexFile = directory.resolve(CHAT_INDEX_NAME + fileExtension());
+        if (Files.notExists(indexFile)) {
+            return Set.of();
+        }
+
+        var index = getChatIndex(store);
+        try {
+            var indexModifiedTime = getLastModifiedTime(indexFile);
+            var entries = decodeChatIndex(indexFile);
+            var chats = new LinkedHashMap<Jid, Chat>();
+            for (var entry : entries) {
+                chats.put(entry.jid(), entry);
+            }
+            synchronized (index) {
+                index.entries = entries.size();
+                index.jids.addAll(chats.keySet());
+            }
+            var results = new HashSet<Path>();
+            for (var chat : chats.values()) {
+                var chatFile = directory.resolve(CHAT_PREFIX + chat.jid().user() + fileExtension());
+                // Chat files written after the index are decoded eagerly, as the metadata in the index may be stale
+                if (Files.notExists(chatFile) || getLastModifiedTime(chatFile).compareTo(indexModifiedTime) > 0) {
+                    markChatIndexStale(index);
+                    continue;
+                }
+
+                chat.setMessagesLoader(() -> deserializeMessages(store, chat, chatFile));
+                getJidsRevisions(store).put(chat.jid(), chat.revision());
+                store.addChatDirect(chat);
+                results.add(chatFile);
+            }
+            return results;
+        } catch (IOException exception) {
+            markChatIndexStale(index);
+            onError(indexFile, exception);
+            return Set.of();
+        }
+    }
+
+    // Chats that aren't in the index when the session is restored force a rewrite, so that the next save can append
+    private void markChatIndexStale(ChatIndex index) {
+        synchronized (index) {
+            index.compact = true;
+        }
+    }
+
+    private Collection<HistorySyncMessage> deserializeMessages(Store store, Chat chat, Path chatFile) {
+        try {
+            var messages = decodeMessages(chat, chatFile);
+            for (var message : messages) {
+                message.messageInfo().setChat(chat);
+                store.findContactByJid(message.messageInfo().senderJid())
+                        .ifPresent(message.messageInfo()::setSender);
+                attributeStoreContextualMessage(store, message);
+            }
+            return messages;
+        } catch (IOException exception) {
+            onError(chatFile, exception);
+            return List.of();
+        }
+    }
+
     // Do this after we have all the chats, or it won't work for obvious reasons
+    // Chats that weren't loaded yet are attributed when their messages are decoded
     private void attributeStoreContextualMessages(Store store) {
         store.chats()
                 .stream()
+                .filter(Chat::hasLoadedMessages)
                 .flatMap(chat -> chat.messages().stream())
                 .forEach(message -> attributeStoreContextualMessage(store, message));
     }
@@ -371,6 +498,10 @@ abstract class FileControllerSerializer implements ControllerSerializer {
     @Override
     public void deleteSession(Controller<?> controller) {
         try {
+            keysRevisions.remove(controller.uuid());
+            storeRevisions.remove(controller.uuid());
+            jidsRevisions.remove(controller.uuid());
+            chatIndexes.remove(controller.uuid());
             var folderPath = getSessionDirectory(controller.clientType(), controller.uuid().toString());
             delete(folderPath);
             var phoneNumber = controller.phoneNumber().orElse(null);
@@ -424,7 +555,7 @@ abstract class FileControllerSerializer implements ControllerSerializer {
     private void deserializeChat(Store store, Path chatFile) {
         try {
             var chat = decodeChat(chatFile);
-            jidsHashCodes.put(chat.jid(), chat.hashCode());
+            getJidsRevisions(store).put(chat.jid(), chat.revision());
             for (var message : chat.messages()) {
                 message.messageInfo().setChat(chat);
                 store.findContactByJid(message.messageInfo().senderJid())
@@ -453,7 +584,7 @@ abstract class FileControllerSerializer implements ControllerSerializer {
     private void deserializeNewsletter(Store store, Path newsletterFile) {
         try {
             var newsletter = decodeNewsletter(newsletterFile);
-            jidsHashCodes.put(newsletter.jid(), newsletter.hashCode());
+            getJidsRevisions(store).put(newsletter.jid(), newsletter.revision());
             for (var message : newsletter.messages()) {
                 message.setNewsletter(newsletter);
             }
@@ -510,4 +641,11 @@ abstract class FileControllerSerializer implements ControllerSerializer {
             throw new UncheckedIOException("Cannot create directory", exception);
         }
     }
+
+    // What the serializer knows about the chat index of a session, guarded by its monitor
+    private static final class ChatIndex {
+        private final Set<Jid> jids = new HashSet<>();
+        private int entries;
+        private boolean compact;
+    }
 }
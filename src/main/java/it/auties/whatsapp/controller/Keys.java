@@ -4,6 +4,7 @@ import it.auties.protobuf.annotation.ProtobufMessage;
 import it.auties.protobuf.annotation.ProtobufProperty;
 import it.auties.protobuf.model.ProtobufType;
 import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.model.companion.CompanionDeviceList;
 import it.auties.whatsapp.model.companion.CompanionHashState;
 import it.auties.whatsapp.model.companion.CompanionSyncKey;
 import it.auties.whatsapp.model.companion.CompanionSyncKeyBuilder;
@@ -27,13 +28,12 @@ import it.auties.whatsapp.util.Clock;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static java.util.Objects.requireNonNullElseGet;
-
 /**
  * This controller holds the cryptographic-related data regarding a WhatsappWeb session
  */
@@ -174,6 +174,12 @@ public final class Keys extends Controller<Keys> {
     @ProtobufProperty(index = 25, type = ProtobufType.BOOL)
     boolean initialAppSync;
 
+    /**
+     * The devices of each user that was queried, used to encrypt messages without querying them again
+     */
+    @ProtobufProperty(index = 28, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.MESSAGE)
+    final ConcurrentMap<Jid, CompanionDeviceList> devices;
+
     /**
      * Write counter for IV
      */
@@ -189,7 +195,7 @@ public final class Keys extends Controller<Keys> {
      */
     byte[] writeKey, readKey;
 
-    Keys(UUID uuid, PhoneNumber phoneNumber, ClientType clientType, Collection<String> alias, Integer registrationId, SignalKeyPair noiseKeyPair, SignalKeyPair ephemeralKeyPair, SignalKeyPair identityKeyPair, SignalKeyPair companionKeyPair, SignalSignedKeyPair signedKeyPair, byte[] signedKeyIndex, Long signedKeyIndexTimestamp, List<SignalPreKeyPair> preKeys, String fdid, byte[] deviceId, UUID advertisingId, byte[] identityId, byte[] backupToken, SignedDeviceIdentity companionIdentity, Map<SenderKeyName, SenderKeyRecord> senderKeys, List<CompanionSyncKey> appStateKeys, ConcurrentMap<SessionAddress, Session> sessions, ConcurrentMap<String, CompanionHashState> hashStates, ConcurrentMap<Jid, SenderPreKeys> groupsPreKeys, boolean registered, boolean businessCertificate, boolean initialAppSync) {
+    Keys(UUID uuid, PhoneNumber phoneNumber, ClientType clientType, Collection<String> alias, Integer registrationId, SignalKeyPair noiseKeyPair, SignalKeyPair ephemeralKeyPair, SignalKeyPair identityKeyPair, SignalKeyPair companionKeyPair, SignalSignedKeyPair signedKeyPair, byte[] signedKeyIndex, Long signedKeyIndexTimestamp, List<SignalPreKeyPair> preKeys, String fdid, byte[] deviceId, UUID advertisingId, byte[] identityId, byte[] backupToken, SignedDeviceIdentity companionIdentity, Map<SenderKeyName, SenderKeyRecord> senderKeys, List<CompanionSyncKey> appStateKeys, ConcurrentMap<SessionAddress, Session> sessions, ConcurrentMap<String, CompanionHashState> hashStates, ConcurrentMap<Jid, SenderPreKeys> groupsPreKeys, boolean registered, boolean businessCertificate, boolean initialAppSync, ConcurrentMap<Jid, CompanionDeviceList> devices) {
         super(uuid, phoneNumber, null, clientType, alias);
         this.registrationId = Objects.requireNonNullElseGet(registrationId, () -> ThreadLocalRandom.current().nextInt(16380) + 1);
         this.noiseKeyPair = Objects.requireNonNull(noiseKeyPair, "Missing noise keypair");
@@ -199,14 +205,16 @@ public final class Keys extends Controller<Keys> {
         this.signedKeyPair = Objects.requireNonNullElseGet(signedKeyPair, () -> SignalSignedKeyPair.of(this.registrationId, identityKeyPair));
         this.signedKeyIndex = signedKeyIndex;
         this.signedKeyIndexTimestamp = signedKeyIndexTimestamp;
-        this.preKeys = Objects.requireNonNullElseGet(preKeys, ArrayList::new);
+        // Pre key messages from different addresses are decrypted concurrently, while new pre keys can be uploaded
+        this.preKeys = preKeys == null ? new CopyOnWriteArrayList<>() : new CopyOnWriteArrayList<>(preKeys);
         this.fdid = Objects.requireNonNullElseGet(fdid, UUID.randomUUID()::toString);
         this.deviceId = Objects.requireNonNullElseGet(deviceId, () -> HexFormat.of().parseHex(UUID.randomUUID().toString().replaceAll("-", "")));
         this.advertisingId = Objects.requireNonNullElseGet(advertisingId, UUID::randomUUID);
         this.identityId = Objects.requireNonNull(identityId, "Missing identity id");
         this.backupToken = Objects.requireNonNullElseGet(backupToken, () -> Bytes.random(20));
         this.companionIdentity = companionIdentity;
-        this.senderKeys = Objects.requireNonNullElseGet(senderKeys, ConcurrentHashMap::new);
+        // Sender keys for different groups and senders are created concurrently, also when the map was restored
+        this.senderKeys = senderKeys == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(senderKeys);
         this.appStateKeys = Objects.requireNonNullElseGet(appStateKeys, ArrayList::new);
         this.sessions = Objects.requireNonNullElseGet(sessions, ConcurrentHashMap::new);
         this.hashStates = Objects.requireNonNullElseGet(hashStates, ConcurrentHashMap::new);
@@ -214,6 +222,7 @@ public final class Keys extends Controller<Keys> {
         this.registered = registered;
         this.businessCertificate = businessCertificate;
         this.initialAppSync = initialAppSync;
+        this.devices = Objects.requireNonNullElseGet(devices, ConcurrentHashMap::new);
         this.writeCounter = new AtomicLong();
         this.readCounter = new AtomicLong();
     }
@@ -264,11 +273,7 @@ public final class Keys extends Controller<Keys> {
      * @return a non-null SenderKeyRecord
      */
     public SenderKeyRecord findSenderKeyByName(SenderKeyName name) {
-        return requireNonNullElseGet(senderKeys.get(name), () -> {
-            var record = new SenderKeyRecord();
-            senderKeys.put(name, record);
-            return record;
-        });
+        return senderKeys.computeIfAbsent(name, ignored -> new SenderKeyRecord());
     }
 
     /**
@@ -359,6 +364,7 @@ public final class Keys extends Controller<Keys> {
      */
     public Keys addSession(SessionAddress address, Session record) {
         sessions.put(address, record);
+        markChanged();
         return this;
     }
 
@@ -371,6 +377,7 @@ public final class Keys extends Controller<Keys> {
      */
     public Keys addState(Jid device, CompanionHashState state) {
         hashStates.put("%s_%s".formatted(device, state.type()), state);
+        markChanged();
         return this;
     }
 
@@ -392,6 +399,7 @@ public final class Keys extends Controller<Keys> {
                             .build();
                     appStateKeys.add(syncKey);
                 });
+        markChanged();
         return this;
     }
 
@@ -425,6 +433,7 @@ public final class Keys extends Controller<Keys> {
      */
     public Keys addPreKey(SignalPreKeyPair preKey) {
         preKeys.add(preKey);
+        markChanged();
         return this;
     }
 
@@ -490,24 +499,28 @@ public final class Keys extends Controller<Keys> {
         var preKeys = groupsPreKeys.get(group);
         if (preKeys != null) {
             preKeys.addPreKey(recipient);
+            markChanged();
             return;
         }
 
         var newPreKeys = new SenderPreKeys();
         newPreKeys.addPreKey(recipient);
         groupsPreKeys.put(group, newPreKeys);
+        markChanged();
     }
 
     public void addRecipientsWithPreKeys(Jid group, Collection<Jid> recipients) {
         var preKeys = groupsPreKeys.get(group);
         if (preKeys != null) {
             preKeys.addPreKeys(recipients);
+            markChanged();
             return;
         }
 
         var newPreKeys = new SenderPreKeys();
         newPreKeys.addPreKeys(recipients);
         groupsPreKeys.put(group, newPreKeys);
+        markChanged();
     }
 
     public boolean hasGroupKeys(Jid group, Jid recipient) {
@@ -515,6 +528,24 @@ public final class Keys extends Controller<Keys> {
         return preKeys != null && preKeys.contains(recipient);
     }
 
+    public Optional<CompanionDeviceList> findDevices(Jid user) {
+        return Optional.ofNullable(devices.get(user.toSimpleJid()));
+    }
+
+    public void addDevices(Jid user, List<Jid> devices) {
+        this.devices.put(user.toSimpleJid(), new CompanionDeviceList(List.copyOf(devices), Clock.nowMilliseconds()));
+        markChanged();
+    }
+
+    public boolean removeDevices(Jid user) {
+        var result = devices.remove(user.toSimpleJid()) != null;
+        if (result) {
+            markChanged();
+        }
+
+        return result;
+    }
+
     @Override
     public void dispose() {
         serialize(false);
@@ -599,40 +630,48 @@ public final class Keys extends Controller<Keys> {
 
     public void setSignedKeyPair(SignalSignedKeyPair signedKeyPair) {
         this.signedKeyPair = signedKeyPair;
+        markChanged();
     }
 
     public Keys setCompanionKeyPair(SignalKeyPair companionKeyPair) {
         this.companionKeyPair = companionKeyPair;
+        markChanged();
         return this;
     }
 
     public Keys setSignedKeyIndex(byte[] signedKeyIndex) {
         this.signedKeyIndex = signedKeyIndex;
+        markChanged();
         return this;
     }
 
     public Keys setSignedKeyIndexTimestamp(Long signedKeyIndexTimestamp) {
         this.signedKeyIndexTimestamp = signedKeyIndexTimestamp;
+        markChanged();
         return this;
     }
 
     public Keys setCompanionIdentity(SignedDeviceIdentity companionIdentity) {
         this.companionIdentity = companionIdentity;
+        markChanged();
         return this;
     }
 
     public Keys setRegistered(boolean registered) {
         this.registered = registered;
+        markChanged();
         return this;
     }
 
     public Keys setBusinessCertificate(boolean businessCertificate) {
         this.businessCertificate = businessCertificate;
+        markChanged();
         return this;
     }
 
     public Keys setInitialAppSync(boolean initialAppSync) {
         this.initialAppSync = initialAppSync;
+        markChanged();
         return this;
     }
 
@@ -8,10 +8,17 @@ import it.auties.whatsapp.model.newsletter.Newsletter;
 import it.auties.whatsapp.model.newsletter.NewsletterSpec;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 class ProtobufControllerSerializer extends FileControllerSerializer {
     private static final Path DEFAULT_SERIALIZER_PATH = Path.of(System.getProperty("user.home") + "/.cobalt/");
@@ -59,6 +66,8 @@ class ProtobufControllerSerializer extends FileControllerSerializer {
 
     @Override
     void encodeChat(Chat chat, Path path) {
+        // The whole chat is written, so there's no need to remember which messages changed
+        chat.clearChangedMessages();
         try {
             var tempFile = Files.createTempFile(path.getFileName().toString(), ".tmp");
             try(var stream = Files.newOutputStream(tempFile)) {
@@ -71,6 +80,40 @@ class ProtobufControllerSerializer extends FileControllerSerializer {
         }
     }
 
+    // Each chat is written without its messages and prefixed by its length
+    // Appended entries are written in place, while a full index is written to a temporary file that then replaces it
+    @Override
+    void encodeChatIndex(Collection<Chat> chats, Path path, boolean append) {
+        try {
+            if(append) {
+                try(var stream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writeChatIndexEntries(chats, stream);
+                }
+                return;
+            }
+
+            var tempFile = Files.createTempFile(path.getFileName().toString(), ".tmp");
+            try(var stream = Files.newOutputStream(tempFile)) {
+                writeChatIndexEntries(chats, stream);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private void writeChatIndexEntries(Collection<Chat> chats, OutputStream stream) throws IOException {
+        for(var chat : chats) {
+            var metadata = chat.withoutMessages();
+            var length = ChatSpec.sizeOf(metadata);
+            var entry = new byte[Integer.BYTES + length];
+            ByteBuffer.wrap(entry).putInt(0, length);
+            ChatSpec.encode(metadata, ProtobufOutputStream.toBytes(entry, Integer.BYTES));
+            stream.write(entry);
+        }
+        stream.flush();
+    }
+
     @Override
     void encodeNewsletter(Newsletter newsletter, Path path) {
         try {
@@ -99,11 +142,35 @@ class ProtobufControllerSerializer extends FileControllerSerializer {
         }
     }
 
+    // Files are read on the heap instead of being mapped: a mapping can't be released, and it would prevent the file from being replaced on Windows
     @Override
     Chat decodeChat(Path chat) throws IOException {
-        try(var stream = Files.newInputStream(chat)) {
-            return ChatSpec.decode(ProtobufInputStream.fromStream(stream));
+        return ChatSpec.decode(ProtobufInputStream.fromBuffer(ByteBuffer.wrap(Files.readAllBytes(chat))));
+    }
+
+    // An append that was interrupted leaves an incomplete entry at the end of the index, which is truncated so that the next entries can be read
+    @Override
+    List<Chat> decodeChatIndex(Path chatIndex) throws IOException {
+        var buffer = ByteBuffer.wrap(Files.readAllBytes(chatIndex));
+        var results = new ArrayList<Chat>();
+        var position = 0;
+        while (buffer.limit() - position >= Integer.BYTES) {
+            var length = buffer.getInt(position);
+            if (length < 0 || length > buffer.limit() - position - Integer.BYTES) {
+                break;
+            }
+
+            results.add(ChatSpec.decode(ProtobufInputStream.fromBuffer(buffer.slice(position + Integer.BYTES, length))));
+            position += Integer.BYTES + length;
+        }
+
+        if (position != buffer.limit()) {
+            try(var channel = FileChannel.open(chatIndex, StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
         }
+
+        return results;
     }
 
     @Override
@@ -0,0 +1,344 @@
+package it.auties.whatsapp.controller;
+
+import it.auties.protobuf.stream.ProtobufInputStream;
+import it.auties.protobuf.stream.ProtobufOutputStream;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.sync.HistorySyncMessage;
+import it.auties.whatsapp.model.sync.HistorySyncMessageSpec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+// Chats are written as a small metadata file, without messages, and an append only log of messages split in segments
+// Each record of the log is an upsert of a message: [length][crc32][HistorySyncMessage], so the last record of a message wins
+// Removals are applied by compacting the log: a manifest, replaced atomically, tells which segments are still live
+class SegmentedProtobufControllerSerializer extends ProtobufControllerSerializer {
+    private static final String SEGMENTS_PREFIX = "messages_";
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final String COMPACTION_EXTENSION = ".compact";
+    private static final String MANIFEST_NAME = "manifest";
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2;
+    private static final long MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int COMPACTION_RATIO = 2;
+
+    private final ConcurrentMap<Path, ChatLog> logs;
+
+    SegmentedProtobufControllerSerializer() {
+        super();
+        this.logs = new ConcurrentHashMap<>();
+    }
+
+    SegmentedProtobufControllerSerializer(Path baseDirectory) {
+        super(baseDirectory);
+        this.logs = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    void encodeChat(Chat chat, Path path) {
+        chat.loadMessages();
+        var log = logs.computeIfAbsent(path, this::createLog);
+        synchronized (log) {
+            try {
+                log.write(chat);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            super.encodeChat(chat.withoutMessages(), path);
+        }
+    }
+
+    @Override
+    Chat decodeChat(Path chat) throws IOException {
+        var result = super.decodeChat(chat);
+        var log = logs.computeIfAbsent(chat, this::createLog);
+        synchronized (log) {
+            var messages = log.read(result);
+            if (log.records != 0) {
+                result.removeMessages();
+                result.addMessages(messages);
+            }
+            log.revision = result.revision();
+        }
+        return result;
+    }
+
+    // The metadata file is decoded only for the messages it may still hold inline, the rest are replayed from the log
+    @Override
+    Collection<HistorySyncMessage> decodeMessages(Chat chat, Path path) throws IOException {
+        var metadata = super.decodeChat(path);
+        var log = logs.computeIfAbsent(path, this::createLog);
+        synchronized (log) {
+            var messages = log.read(metadata);
+            log.revision = chat.revision();
+            return messages;
+        }
+    }
+
+    @Override
+    public void deleteSession(Controller<?> controller) {
+        super.deleteSession(controller);
+        logs.keySet().removeIf(path -> Files.notExists(path.getParent()));
+    }
+
+    private ChatLog createLog(Path chat) {
+        var fileName = chat.getFileName().toString();
+        var user = fileName.substring(CHAT_PREFIX.length(), fileName.length() - fileExtension().length());
+        return new ChatLog(chat.resolveSibling(SEGMENTS_PREFIX + user));
+    }
+
+    private static final class ChatLog {
+        private final Path directory;
+        private final List<Path> segments;
+        private long base;
+        private long revision;
+        private int records;
+        private boolean compacted;
+
+        private ChatLog(Path directory) {
+            this.directory = directory;
+            this.segments = new ArrayList<>();
+        }
+
+        // Replays the live segments in order, truncating each one at its first incomplete or corrupted record
+        private Collection<HistorySyncMessage> read(Chat chat) throws IOException {
+            var messages = new LinkedHashMap<String, HistorySyncMessage>();
+            for (var message : chat.messages()) {
+                messages.put(message.messageInfo().id(), message);
+            }
+            // Chats written by the plain protobuf serializer keep their messages inline, so they are moved to the log on the next write
+            this.compacted = messages.isEmpty();
+            this.base = readManifest();
+            recoverCompaction();
+            segments.clear();
+            segments.addAll(listSegments());
+            this.records = 0;
+            for (var segment : segments) {
+                readSegment(segment, messages);
+            }
+            return messages.values();
+        }
+
+        // The manifest holds the index of the first live segment: older segments were replaced by a compaction
+        private long readManifest() throws IOException {
+            var manifest = directory.resolve(MANIFEST_NAME);
+            if (Files.notExists(manifest)) {
+                return 0;
+            }
+
+            var data = Files.readAllBytes(manifest);
+            if (data.length != Long.BYTES) {
+                throw new IOException("Corrupted manifest: " + manifest);
+            }
+
+            return ByteBuffer.wrap(data).getLong();
+        }
+
+        private void writeManifest(long base) throws IOException {
+            Files.createDirectories(directory);
+            var tempFile = Files.createTempFile(directory, MANIFEST_NAME, ".tmp");
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, base));
+                channel.force(true);
+            }
+            Files.move(tempFile, directory.resolve(MANIFEST_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.base = base;
+        }
+
+        // A compaction that was interrupted is finished if its manifest was written, otherwise it's discarded
+        private void recoverCompaction() throws IOException {
+            if (Files.notExists(directory)) {
+                return;
+            }
+
+            try (var walker = Files.list(directory)) {
+                for (var entry : walker.toList()) {
+                    var fileName = entry.getFileName().toString();
+                    if (fileName.endsWith(COMPACTION_EXTENSION)) {
+                        var index = segmentIndex(entry, COMPACTION_EXTENSION);
+                        var segment = directory.resolve(segmentName(index));
+                        if (index == base && Files.notExists(segment)) {
+                            Files.move(entry, segment, StandardCopyOption.ATOMIC_MOVE);
+                        } else {
+                            Files.deleteIfExists(entry);
+                        }
+                    } else if (fileName.endsWith(SEGMENT_EXTENSION) && segmentIndex(entry, SEGMENT_EXTENSION) < base) {
+                        Files.deleteIfExists(entry);
+                    }
+                }
+            }
+        }
+
+        private List<Path> listSegments() throws IOException {
+            if (Files.notExists(directory)) {
+                return List.of();
+            }
+
+            try (var walker = Files.list(directory)) {
+                return walker.filter(entry -> entry.getFileName().toString().endsWith(SEGMENT_EXTENSION))
+                        .filter(entry -> segmentIndex(entry, SEGMENT_EXTENSION) >= base)
+                        .sorted(Comparator.comparingLong(entry -> segmentIndex(entry, SEGMENT_EXTENSION)))
+                        .toList();
+            }
+        }
+
+        // The segment is read on the heap instead of being mapped, so that it can be truncated right after
+        private void readSegment(Path segment, Map<String, HistorySyncMessage> messages) throws IOException {
+            var buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+            var position = 0;
+            var crc = new CRC32();
+            while (buffer.limit() - position >= RECORD_HEADER_LENGTH) {
+                var length = buffer.getInt(position);
+                var checksum = buffer.getInt(position + Integer.BYTES);
+                if (length < 0 || length > buffer.limit() - position - RECORD_HEADER_LENGTH) {
+                    break;
+                }
+
+                var payload = buffer.slice(position + RECORD_HEADER_LENGTH, length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                var message = HistorySyncMessageSpec.decode(ProtobufInputStream.fromBuffer(payload));
+                messages.put(message.messageInfo().id(), message);
+                records++;
+                position += RECORD_HEADER_LENGTH + length;
+            }
+
+            if (position != buffer.limit()) {
+                try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    channel.truncate(position);
+                }
+            }
+        }
+
+        private void write(Chat chat) throws IOException {
+            var revision = chat.revision();
+            if (!compacted || chat.historyRevision() > this.revision || shouldCompact(chat)) {
+                compact(chat);
+            } else {
+                append(chat);
+            }
+            this.revision = revision;
+        }
+
+        private boolean shouldCompact(Chat chat) {
+            return records >= MIN_COMPACTION_RECORDS
+                    && records > chat.messages().size() * COMPACTION_RATIO;
+        }
+
+        // Only the messages that the chat reported as changed since the last write are appended, so the cost doesn't depend on the size of the chat
+        // If the append fails, the next write compacts the log instead, so that the changes that were drained aren't lost
+        private void append(Chat chat) throws IOException {
+            var changed = chat.drainChangedMessages();
+            if (changed.isEmpty()) {
+                return;
+            }
+
+            try {
+                var encoded = new ArrayList<byte[]>(changed.size());
+                var length = 0L;
+                for (var message : changed) {
+                    var record = encodeRecord(message);
+                    encoded.add(record);
+                    length += record.length;
+                }
+
+                var segment = segments.isEmpty() ? null : segments.getLast();
+                if (segment == null || Files.size(segment) + length > MAX_SEGMENT_SIZE) {
+                    segment = directory.resolve(segmentName(segments.isEmpty() ? base : segmentIndex(segments.getLast(), SEGMENT_EXTENSION) + 1));
+                    segments.add(segment);
+                }
+
+                var buffer = ByteBuffer.allocate(Math.toIntExact(length));
+                encoded.forEach(buffer::put);
+                Files.createDirectories(directory);
+                Files.write(segment, buffer.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                records += encoded.size();
+            } catch (Throwable throwable) {
+                this.compacted = false;
+                throw throwable;
+            }
+        }
+
+        // The live messages are written to a new segment, which becomes the only live one when the manifest is updated
+        // Until then, an interruption leaves the old segments live, so messages that were removed can't come back
+        private void compact(Chat chat) throws IOException {
+            var next = (segments.isEmpty() ? base : segmentIndex(segments.getLast(), SEGMENT_EXTENSION)) + 1;
+            chat.clearChangedMessages();
+            var count = 0;
+            Path compaction = null;
+            if (!chat.messages().isEmpty()) {
+                Files.createDirectories(directory);
+                compaction = directory.resolve(segmentName(next, COMPACTION_EXTENSION));
+                try (var channel = FileChannel.open(compaction, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    for (var message : chat.messages()) {
+                        var record = ByteBuffer.wrap(encodeRecord(message));
+                        while (record.hasRemaining()) {
+                            channel.write(record);
+                        }
+                        count++;
+                    }
+                    channel.force(true);
+                }
+            }
+
+            writeManifest(next);
+            var segment = directory.resolve(segmentName(next));
+            if (compaction != null) {
+                Files.move(compaction, segment, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            for (var oldSegment : segments) {
+                Files.deleteIfExists(oldSegment);
+            }
+            segments.clear();
+            if (compaction != null) {
+                segments.add(segment);
+            }
+            this.records = count;
+            this.compacted = true;
+        }
+
+        private static byte[] encodeRecord(HistorySyncMessage message) {
+            var length = HistorySyncMessageSpec.sizeOf(message);
+            var result = new byte[RECORD_HEADER_LENGTH + length];
+            HistorySyncMessageSpec.encode(message, ProtobufOutputStream.toBytes(result, RECORD_HEADER_LENGTH));
+            var crc = new CRC32();
+            crc.update(result, RECORD_HEADER_LENGTH, length);
+            ByteBuffer.wrap(result)
+                    .putInt(0, length)
+                    .putInt(Integer.BYTES, (int) crc.getValue());
+            return result;
+        }
+
+        private static String segmentName(long index) {
+            return segmentName(index, SEGMENT_EXTENSION);
+        }
+
+        private static String segmentName(long index, String extension) {
+            return "%016d%s".formatted(index, extension);
+        }
+
+        private static long segmentIndex(Path segment, String extension) {
+            var fileName = segment.getFileName().toString();
+            try {
+                return Long.parseLong(fileName.substring(0, fileName.length() - extension.length()));
+            } catch (NumberFormatException exception) {
+                return -1;
+            }
+        }
+    }
+}
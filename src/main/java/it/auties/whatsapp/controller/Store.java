@@ -6,6 +6,7 @@ import it.auties.protobuf.model.ProtobufType;
 import it.auties.whatsapp.api.*;
 import it.auties.whatsapp.model.business.BusinessCategory;
 import it.auties.whatsapp.model.call.Call;
+import it.auties.whatsapp.model.chat.CachedChatMetadata;
 import it.auties.whatsapp.model.chat.Chat;
 import it.auties.whatsapp.model.chat.ChatBuilder;
 import it.auties.whatsapp.model.chat.ChatEphemeralTimer;
@@ -31,11 +32,11 @@ import it.auties.whatsapp.model.privacy.PrivacySettingEntry;
 import it.auties.whatsapp.model.privacy.PrivacySettingType;
 import it.auties.whatsapp.model.signal.auth.UserAgent.ReleaseChannel;
 import it.auties.whatsapp.model.signal.auth.Version;
-import it.auties.whatsapp.model.sync.HistorySyncMessage;
 import it.auties.whatsapp.socket.SocketRequest;
 import it.auties.whatsapp.util.AppMetadata;
 import it.auties.whatsapp.util.Bytes;
 import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.HttpClients;
 
 import java.net.URI;
 import java.time.Duration;
@@ -43,7 +44,10 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentHashMap.KeySetView;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -55,6 +59,14 @@ import java.util.stream.Stream;
 @SuppressWarnings({"unused", "UnusedReturnValue"})
 @ProtobufMessage
 public final class Store extends Controller<Store> {
+    private static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 1024;
+    private static final Duration DEFAULT_LISTENER_BLOCK_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_RECEIPT_BATCH_WINDOW = Duration.ofMillis(100);
+    private static final int DEFAULT_MAX_RECEIPT_BATCH_SIZE = 256;
+    private static final Duration DEFAULT_CHAT_METADATA_TTL = Duration.ofHours(24);
+    private static final int DEFAULT_SOCKET_SELECTORS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_MAX_CONCURRENT_HTTP_REQUESTS = 64;
+
     /**
      * The version used by this session
      */
@@ -186,6 +198,21 @@ public final class Store extends Controller<Store> {
      */
     final ConcurrentHashMap<Jid, Chat> chats;
 
+    /**
+     * The non-null chats sorted from newest to oldest, kept up to date as their timestamp changes
+     */
+    final ConcurrentSkipListMap<ChatPosition, Chat> sortedChats;
+
+    /**
+     * The non-null pinned chats sorted from newest to oldest pin, kept up to date as their pin state changes
+     */
+    final ConcurrentSkipListMap<ChatPosition, Chat> sortedPinnedChats;
+
+    /**
+     * The non-null positions of each chat in the sorted views
+     */
+    final ConcurrentHashMap<Jid, ChatPositions> chatsPositions;
+
     /**
      * The non-null map of contacts
      */
@@ -198,6 +225,11 @@ public final class Store extends Controller<Store> {
     @ProtobufProperty(index = 25, type = ProtobufType.MESSAGE)
     final KeySetView<ChatMessageInfo, Boolean> status;
 
+    /**
+     * The non-null map of status messages, indexed by the jid of their chat
+     */
+    final ConcurrentHashMap<Jid, Queue<ChatMessageInfo>> statusBySender;
+
     /**
      * The non-null map of newsletters
      */
@@ -243,6 +275,31 @@ public final class Store extends Controller<Store> {
      */
     final KeySetView<Listener, Boolean> listeners;
 
+    /**
+     * The maximum number of events that can wait to be handled by each listener
+     */
+    int listenerQueueCapacity;
+
+    /**
+     * What happens when an event is dispatched to a listener whose queue is full
+     */
+    ListenerOverflowPolicy listenerOverflowPolicy;
+
+    /**
+     * How long the dispatching thread can wait for a listener whose queue is full before the event is queued over capacity
+     */
+    Duration listenerBlockTimeout;
+
+    /**
+     * How long receipts for the same chat wait to be sent together
+     */
+    Duration receiptBatchWindow;
+
+    /**
+     * The maximum number of messages acknowledged by a single receipt
+     */
+    int maxReceiptBatchSize;
+
     /**
      * The request tag, used to create messages
      */
@@ -318,7 +375,43 @@ public final class Store extends Controller<Store> {
     @ProtobufProperty(index = 42, type = ProtobufType.ENUM)
     MediaProxySetting mediaProxySetting;
 
-    Store(UUID uuid, PhoneNumber phoneNumber, ClientType clientType, Collection<String> alias, URI proxy, boolean online, CountryLocale locale, String name, String verifiedName, String businessAddress, Double businessLongitude, Double businessLatitude, String businessDescription, String businessWebsite, String businessEmail, BusinessCategory businessCategory, String deviceHash, LinkedHashMap<Jid, Integer> linkedDevicesKeys, URI profilePicture, String about, Jid jid, Jid lid, ConcurrentHashMap<String, String> properties, ConcurrentHashMap<Jid, Contact> contacts, KeySetView<ChatMessageInfo, Boolean> status, ConcurrentHashMap<String, PrivacySettingEntry> privacySettings, ConcurrentHashMap<String, Call> calls, boolean unarchiveChats, boolean twentyFourHourFormat, Long initializationTimeStamp, ChatEphemeralTimer newChatsEphemeralTimer, TextPreviewSetting textPreviewSetting, WebHistorySetting historyLength, boolean automaticPresenceUpdates, boolean automaticMessageReceipts, ReleaseChannel releaseChannel, CompanionDevice device, boolean checkPatchMacs, MediaProxySetting mediaProxySetting) {
+    /**
+     * The non-null cache of the metadata of groups and communities, used only if it should be persisted
+     */
+    @ProtobufProperty(index = 43, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.MESSAGE)
+    final ConcurrentHashMap<Jid, CachedChatMetadata> chatMetadataCache;
+
+    /**
+     * How long the metadata of a group or community is cached
+     */
+    Duration chatMetadataTtl;
+
+    /**
+     * Whether the cached metadata of groups and communities should be serialized with the store
+     */
+    boolean persistChatMetadata;
+
+    /**
+     * The number of selector loops that serve the raw socket connections
+     */
+    int socketSelectors;
+
+    /**
+     * The executor used by the HTTP clients of this session, null to use the default one of each client
+     */
+    Executor httpExecutor;
+
+    /**
+     * The maximum number of HTTP requests of this session that can be in flight at the same time
+     */
+    int maxConcurrentHttpRequests;
+
+    /**
+     * The HTTP clients of this session, recreated when their settings change
+     */
+    HttpClients httpClients;
+
+    Store(UUID uuid, PhoneNumber phoneNumber, ClientType clientType, Collection<String> alias, URI proxy, boolean online, CountryLocale locale, String name, String verifiedName, String businessAddress, Double businessLongitude, Double businessLatitude, String businessDescription, String businessWebsite, String businessEmail, BusinessCategory businessCategory, String deviceHash, LinkedHashMap<Jid, Integer> linkedDevicesKeys, URI profilePicture, String about, Jid jid, Jid lid, ConcurrentHashMap<String, String> properties, ConcurrentHashMap<Jid, Contact> contacts, KeySetView<ChatMessageInfo, Boolean> status, ConcurrentHashMap<String, PrivacySettingEntry> privacySettings, ConcurrentHashMap<String, Call> calls, boolean unarchiveChats, boolean twentyFourHourFormat, Long initializationTimeStamp, ChatEphemeralTimer newChatsEphemeralTimer, TextPreviewSetting textPreviewSetting, WebHistorySetting historyLength, boolean automaticPresenceUpdates, boolean automaticMessageReceipts, ReleaseChannel releaseChannel, CompanionDevice device, boolean checkPatchMacs, MediaProxySetting mediaProxySetting, ConcurrentHashMap<Jid, CachedChatMetadata> chatMetadataCache) {
         super(uuid, phoneNumber, null, clientType, alias);
         this.proxy = proxy;
         this.online = online;
@@ -340,8 +433,13 @@ public final class Store extends Controller<Store> {
         this.lid = lid;
         this.properties = Objects.requireNonNullElseGet(properties, ConcurrentHashMap::new);
         this.chats = new ConcurrentHashMap<>();
+        this.sortedChats = new ConcurrentSkipListMap<>();
+        this.sortedPinnedChats = new ConcurrentSkipListMap<>();
+        this.chatsPositions = new ConcurrentHashMap<>();
         this.contacts = Objects.requireNonNullElseGet(contacts, ConcurrentHashMap::new);
         this.status = Objects.requireNonNullElseGet(status, ConcurrentHashMap::newKeySet);
+        this.statusBySender = new ConcurrentHashMap<>();
+        this.status.forEach(this::indexStatus);
         this.newsletters = new ConcurrentHashMap<>();
         this.privacySettings = Objects.requireNonNullElseGet(privacySettings, ConcurrentHashMap::new);
         this.calls = Objects.requireNonNullElseGet(calls, ConcurrentHashMap::new);
@@ -350,6 +448,11 @@ public final class Store extends Controller<Store> {
         this.requests = new ConcurrentHashMap<>();
         this.replyHandlers = new ConcurrentHashMap<>();
         this.listeners = ConcurrentHashMap.newKeySet();
+        this.listenerQueueCapacity = DEFAULT_LISTENER_QUEUE_CAPACITY;
+        this.listenerOverflowPolicy = ListenerOverflowPolicy.BLOCK;
+        this.listenerBlockTimeout = DEFAULT_LISTENER_BLOCK_TIMEOUT;
+        this.receiptBatchWindow = DEFAULT_RECEIPT_BATCH_WINDOW;
+        this.maxReceiptBatchSize = DEFAULT_MAX_RECEIPT_BATCH_SIZE;
         this.tag = HexFormat.of().formatHex(Bytes.random(1));
         this.initializationTimeStamp = Objects.requireNonNullElseGet(initializationTimeStamp, Clock::nowSeconds);
         this.mediaConnectionLatch = new CountDownLatch(1);
@@ -362,6 +465,11 @@ public final class Store extends Controller<Store> {
         this.device = device;
         this.checkPatchMacs = checkPatchMacs;
         this.mediaProxySetting = Objects.requireNonNullElse(mediaProxySetting, MediaProxySetting.ALL);
+        this.chatMetadataCache = Objects.requireNonNullElseGet(chatMetadataCache, ConcurrentHashMap::new);
+        this.chatMetadataTtl = DEFAULT_CHAT_METADATA_TTL;
+        this.socketSelectors = DEFAULT_SOCKET_SELECTORS;
+        this.maxConcurrentHttpRequests = DEFAULT_MAX_CONCURRENT_HTTP_REQUESTS;
+        this.httpClients = HttpClients.of(null, DEFAULT_MAX_CONCURRENT_HTTP_REQUESTS);
     }
 
     public static Store of(UUID uuid, PhoneNumber phoneNumber, Collection<String> alias, ClientType clientType) {
@@ -469,8 +577,9 @@ public final class Store extends Controller<Store> {
             case Jid contactJid -> switch (contactJid.type()) {
                 case NEWSLETTER -> findNewsletterByJid(contactJid)
                         .flatMap(newsletter -> findMessageById(newsletter, id));
-                case STATUS -> status.stream()
-                        .filter(entry -> Objects.equals(entry.chatJid(), provider.toJid()) && Objects.equals(entry.id(), id))
+                case STATUS -> findStatusBySender(contactJid)
+                        .stream()
+                        .filter(entry -> Objects.equals(entry.id(), id))
                         .findFirst();
                 default -> findChatByJid(contactJid)
                         .flatMap(chat -> findMessageById(chat, id));
@@ -488,10 +597,7 @@ public final class Store extends Controller<Store> {
      * @return a non-null optional
      */
     public Optional<NewsletterMessageInfo> findMessageById(Newsletter newsletter, String id) {
-        return newsletter.messages()
-                .parallelStream()
-                .filter(entry -> Objects.equals(id, entry.id()) || Objects.equals(id, String.valueOf(entry.serverId())))
-                .findFirst();
+        return newsletter.findMessageById(id);
     }
 
 
@@ -503,11 +609,7 @@ public final class Store extends Controller<Store> {
      * @return a non-null optional
      */
     public Optional<ChatMessageInfo> findMessageById(Chat chat, String id) {
-        return chat.messages()
-                .parallelStream()
-                .map(HistorySyncMessage::messageInfo)
-                .filter(message -> Objects.equals(message.key().id(), id))
-                .findAny();
+        return chat.findMessageById(id);
     }
 
     /**
@@ -671,9 +773,12 @@ public final class Store extends Controller<Store> {
      * @return a non-null immutable list
      */
     public Collection<ChatMessageInfo> findStatusBySender(JidProvider jid) {
-        return status.stream()
-                .filter(entry -> Objects.equals(entry.chatJid(), jid))
-                .toList();
+        if (jid == null) {
+            return List.of();
+        }
+
+        var result = statusBySender.get(jid.toJid());
+        return result == null ? List.of() : List.copyOf(result);
     }
 
     /**
@@ -772,6 +877,7 @@ public final class Store extends Controller<Store> {
             var contact = findContactByJid(chat.jid())
                     .orElseGet(() -> addContact(chat.jid()));
             contact.setFullName(chat.name());
+            markChanged();
         }
         var oldChat = chats.get(chat.jid());
         if (oldChat != null) {
@@ -794,7 +900,7 @@ public final class Store extends Controller<Store> {
             chat.addMessages(oldChat.messages());
             return;
         }
-        chat.addOldMessages(chat.messages());
+        chat.addOldMessages(oldChat.messages());
     }
 
     /**
@@ -804,7 +910,78 @@ public final class Store extends Controller<Store> {
      * @return the old chat, if present
      */
     public Optional<Chat> addChatDirect(Chat chat) {
-        return Optional.ofNullable(chats.put(chat.jid(), chat));
+        var oldChat = chats.put(chat.jid(), chat);
+        if (oldChat != null && oldChat != chat) {
+            oldChat.setOrderListener(null);
+        }
+        chat.setOrderListener(this::indexChat);
+        indexChat(chat);
+        return Optional.ofNullable(oldChat);
+    }
+
+    // Positions are replaced atomically for each jid, and chats that are no longer in the store are ignored
+    private void indexChat(Chat chat) {
+        chatsPositions.compute(chat.jid(), (jid, oldPositions) -> {
+            if (chats.get(jid) != chat) {
+                return oldPositions;
+            }
+
+            if (oldPositions != null) {
+                unindexChat(oldPositions);
+            }
+
+            var position = new ChatPosition(chat.timestampSeconds(), jid);
+            sortedChats.put(position, chat);
+            var pinnedPosition = chat.isPinned() ? new ChatPosition(chat.pinnedTimestampSeconds(), jid) : null;
+            if (pinnedPosition != null) {
+                sortedPinnedChats.put(pinnedPosition, chat);
+            }
+            return new ChatPositions(position, pinnedPosition);
+        });
+    }
+
+    private void unindexChat(ChatPositions positions) {
+        sortedChats.remove(positions.position());
+        if (positions.pinnedPosition() != null) {
+            sortedPinnedChats.remove(positions.pinnedPosition());
+        }
+    }
+
+    // Newest first, then by jid so that chats with the same timestamp don't collide
+    // Chats with the same timestamp are ordered by the components of their jid, which are compared without building any string
+    record ChatPosition(long timestampSeconds, Jid jid) implements Comparable<ChatPosition> {
+        @Override
+        public int compareTo(ChatPosition other) {
+            var result = Long.compare(other.timestampSeconds, timestampSeconds);
+            if (result != 0) {
+                return result;
+            }
+
+            result = compareNullable(jid.user(), other.jid.user());
+            if (result != 0) {
+                return result;
+            }
+
+            result = compareNullable(jid.server().address(), other.jid.server().address());
+            if (result != 0) {
+                return result;
+            }
+
+            result = Integer.compare(jid.device(), other.jid.device());
+            return result != 0 ? result : Integer.compare(jid.agent(), other.jid.agent());
+        }
+
+        private static int compareNullable(String first, String second) {
+            if (first == null || second == null) {
+                return first == null ? (second == null ? 0 : -1) : 1;
+            }
+
+            return first.compareTo(second);
+        }
+    }
+
+    record ChatPositions(ChatPosition position, ChatPosition pinnedPosition) {
+
     }
 
     /**
@@ -828,6 +1005,7 @@ public final class Store extends Controller<Store> {
      */
     public Contact addContact(Contact contact) {
         contacts.put(contact.jid(), contact);
+        markChanged();
         return contact;
     }
 
@@ -848,7 +1026,19 @@ public final class Store extends Controller<Store> {
      * @return the chat that was deleted wrapped by an optional
      */
     public Optional<Chat> removeChat(JidProvider chatJid) {
-        return Optional.ofNullable(chats.remove(chatJid.toJid()));
+        var result = chats.remove(chatJid.toJid());
+        if (result != null) {
+            result.setOrderListener(null);
+            chatsPositions.computeIfPresent(result.jid(), (jid, positions) -> {
+                if (chats.containsKey(jid)) {
+                    return positions;
+                }
+
+                unindexChat(positions);
+                return null;
+            });
+        }
+        return Optional.ofNullable(result);
     }
 
     /**
@@ -868,7 +1058,9 @@ public final class Store extends Controller<Store> {
      * @return the contact that was deleted wrapped by an optional
      */
     public Optional<Contact> removeContact(JidProvider contactJid) {
-        return Optional.ofNullable(contacts.remove(contactJid.toJid()));
+        var result = contacts.remove(contactJid.toJid());
+        markChanged();
+        return Optional.ofNullable(result);
     }
 
     /**
@@ -877,11 +1069,7 @@ public final class Store extends Controller<Store> {
      * @return a non-null list of chats
      */
     public List<Chat> pinnedChats() {
-        return chats.values()
-                .parallelStream()
-                .filter(Chat::isPinned)
-                .sorted(Comparator.comparingLong(Chat::pinnedTimestampSeconds).reversed())
-                .toList();
+        return List.copyOf(sortedPinnedChats.values());
     }
 
     /**
@@ -899,10 +1087,31 @@ public final class Store extends Controller<Store> {
      * @return an immutable collection
      */
     public List<Chat> chats() {
-        return chats.values()
-                .stream()
-                .sorted(Comparator.comparingLong(Chat::timestampSeconds).reversed())
-                .toList();
+        return List.copyOf(sortedChats.values());
+    }
+
+    /**
+     * Returns a page of the chats sorted from newest to oldest
+     * Only the chats in the page are visited, so this is cheap even if there are many chats
+     *
+     * @param offset the number of chats to skip
+     * @param limit  the maximum number of chats to return
+     * @return an immutable collection
+     */
+    public List<Chat> chats(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must be positive");
+        }
+
+        var results = new ArrayList<Chat>(Math.min(limit, chats.size()));
+        var iterator = sortedChats.values().iterator();
+        for (var skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+        while (results.size() < limit && iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+        return Collections.unmodifiableList(results);
     }
 
     /**
@@ -916,6 +1125,7 @@ public final class Store extends Controller<Store> {
 
     public void addProperties(Map<String, String> properties) {
         this.properties.putAll(properties);
+        markChanged();
     }
 
     /**
@@ -970,6 +1180,11 @@ public final class Store extends Controller<Store> {
         return contacts().stream().filter(Contact::blocked).toList();
     }
 
+    private void indexStatus(ChatMessageInfo info) {
+        statusBySender.computeIfAbsent(info.chatJid(), ignored -> new ConcurrentLinkedQueue<>())
+                .add(info);
+    }
+
     /**
      * Adds a status to this store
      *
@@ -977,7 +1192,10 @@ public final class Store extends Controller<Store> {
      * @return the same instance
      */
     public Store addStatus(ChatMessageInfo info) {
-        status.add(info);
+        if (status.add(info)) {
+            indexStatus(info);
+        }
+        markChanged();
         return this;
     }
 
@@ -1045,7 +1263,9 @@ public final class Store extends Controller<Store> {
      * @return the old privacy setting entry
      */
     public PrivacySettingEntry addPrivacySetting(PrivacySettingType type, PrivacySettingEntry entry) {
-        return privacySettings.put(type.name(), entry);
+        var result = privacySettings.put(type.name(), entry);
+        markChanged();
+        return result;
     }
 
     /**
@@ -1076,7 +1296,9 @@ public final class Store extends Controller<Store> {
      * @return the nullable old key
      */
     public Optional<Integer> addLinkedDevice(Jid companion, int keyId) {
-        return Optional.ofNullable(linkedDevicesKeys.put(companion, keyId));
+        var result = linkedDevicesKeys.put(companion, keyId);
+        markChanged();
+        return Optional.ofNullable(result);
     }
 
     /**
@@ -1087,7 +1309,9 @@ public final class Store extends Controller<Store> {
      * @return the nullable old key
      */
     public Optional<Integer> removeLinkedCompanion(Jid companion) {
-        return Optional.ofNullable(linkedDevicesKeys.remove(companion));
+        var result = linkedDevicesKeys.remove(companion);
+        markChanged();
+        return Optional.ofNullable(result);
     }
 
     /**
@@ -1095,6 +1319,7 @@ public final class Store extends Controller<Store> {
      */
     public void removeLinkedCompanions() {
         linkedDevicesKeys.clear();
+        markChanged();
     }
 
     /**
@@ -1156,6 +1381,7 @@ public final class Store extends Controller<Store> {
      */
     public Store setProxy(URI proxy) {
         this.proxy = proxy;
+        markChanged();
         return this;
     }
 
@@ -1249,7 +1475,9 @@ public final class Store extends Controller<Store> {
      * @return the old value associated with {@link Call#id()}
      */
     public Optional<Call> addCall(Call call) {
-        return Optional.ofNullable(calls.put(call.id(), call));
+        var result = calls.put(call.id(), call);
+        markChanged();
+        return Optional.ofNullable(result);
     }
 
     /**
@@ -1359,127 +1587,199 @@ public final class Store extends Controller<Store> {
         return this.checkPatchMacs;
     }
 
+    public int listenerQueueCapacity() {
+        return listenerQueueCapacity;
+    }
+
+    public ListenerOverflowPolicy listenerOverflowPolicy() {
+        return listenerOverflowPolicy;
+    }
+
+    public Duration listenerBlockTimeout() {
+        return listenerBlockTimeout;
+    }
+
+    public Duration receiptBatchWindow() {
+        return receiptBatchWindow;
+    }
+
+    public int maxReceiptBatchSize() {
+        return maxReceiptBatchSize;
+    }
+
+    public ConcurrentHashMap<Jid, CachedChatMetadata> chatMetadataCache() {
+        return chatMetadataCache;
+    }
+
+    public Duration chatMetadataTtl() {
+        return chatMetadataTtl;
+    }
+
+    public boolean persistChatMetadata() {
+        return persistChatMetadata;
+    }
+
+    public int socketSelectors() {
+        return socketSelectors;
+    }
+
+    public Optional<Executor> httpExecutor() {
+        return Optional.ofNullable(httpExecutor);
+    }
+
+    public int maxConcurrentHttpRequests() {
+        return maxConcurrentHttpRequests;
+    }
+
+    public HttpClients httpClients() {
+        return httpClients;
+    }
+
     public boolean automaticMessageReceipts() {
         return automaticPresenceUpdates;
     }
 
     public Store setOnline(boolean online) {
         this.online = online;
+        markChanged();
         return this;
     }
 
     public Store setLocale(CountryLocale locale) {
         this.locale = locale;
+        markChanged();
         return this;
     }
 
     public Store setName(String name) {
         this.name = name;
+        markChanged();
         return this;
     }
 
     public Store setBusinessAddress(String businessAddress) {
         this.businessAddress = businessAddress;
+        markChanged();
         return this;
     }
 
     public Store setBusinessLongitude(Double businessLongitude) {
         this.businessLongitude = businessLongitude;
+        markChanged();
         return this;
     }
 
     public Store setBusinessLatitude(Double businessLatitude) {
         this.businessLatitude = businessLatitude;
+        markChanged();
         return this;
     }
 
     public Store setBusinessDescription(String businessDescription) {
         this.businessDescription = businessDescription;
+        markChanged();
         return this;
     }
 
     public Store setBusinessWebsite(String businessWebsite) {
         this.businessWebsite = businessWebsite;
+        markChanged();
         return this;
     }
 
     public Store setBusinessEmail(String businessEmail) {
         this.businessEmail = businessEmail;
+        markChanged();
         return this;
     }
 
     public Store setBusinessCategory(BusinessCategory businessCategory) {
         this.businessCategory = businessCategory;
+        markChanged();
         return this;
     }
 
     public Store setDeviceHash(String deviceHash) {
         this.deviceHash = deviceHash;
+        markChanged();
         return this;
     }
 
     public Store setLinkedDevicesKeys(LinkedHashMap<Jid, Integer> linkedDevicesKeys) {
         this.linkedDevicesKeys = linkedDevicesKeys;
+        markChanged();
         return this;
     }
 
     public Store setProfilePicture(URI profilePicture) {
         this.profilePicture = profilePicture;
+        markChanged();
         return this;
     }
 
     public Store setAbout(String about) {
         this.about = about;
+        markChanged();
         return this;
     }
 
     public Store setJid(Jid jid) {
         this.jid = jid;
+        markChanged();
         return this;
     }
 
     public Store setLid(Jid lid) {
         this.lid = lid;
+        markChanged();
         return this;
     }
 
     public Store setUnarchiveChats(boolean unarchiveChats) {
         this.unarchiveChats = unarchiveChats;
+        markChanged();
         return this;
     }
 
     public Store setTwentyFourHourFormat(boolean twentyFourHourFormat) {
         this.twentyFourHourFormat = twentyFourHourFormat;
+        markChanged();
         return this;
     }
 
     public Store setNewChatsEphemeralTimer(ChatEphemeralTimer newChatsEphemeralTimer) {
         this.newChatsEphemeralTimer = newChatsEphemeralTimer;
+        markChanged();
         return this;
     }
 
     public Store setTextPreviewSetting(TextPreviewSetting textPreviewSetting) {
         this.textPreviewSetting = textPreviewSetting;
+        markChanged();
         return this;
     }
 
     public Store setMediaProxySetting(MediaProxySetting mediaProxySetting) {
         this.mediaProxySetting = mediaProxySetting;
+        markChanged();
         return this;
     }
 
     public Store setWebHistorySetting(WebHistorySetting webHistorySetting) {
         this.historyLength = webHistorySetting;
+        markChanged();
         return this;
     }
 
     public Store setAutomaticPresenceUpdates(boolean automaticPresenceUpdates) {
         this.automaticPresenceUpdates = automaticPresenceUpdates;
+        markChanged();
         return this;
     }
 
     public Store setReleaseChannel(ReleaseChannel releaseChannel) {
         this.releaseChannel = releaseChannel;
+        markChanged();
         return this;
     }
 
@@ -1493,11 +1793,101 @@ public final class Store extends Controller<Store> {
         this.version = device.appVersion()
                 .map(CompletableFuture::completedFuture)
                 .orElseGet(() -> AppMetadata.getVersion(device.platform()));
+        markChanged();
         return this;
     }
 
     public Store setCheckPatchMacs(boolean checkPatchMacs) {
         this.checkPatchMacs = checkPatchMacs;
+        markChanged();
+        return this;
+    }
+
+    public Store setListenerQueueCapacity(int listenerQueueCapacity) {
+        if (listenerQueueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the listener queue must be positive");
+        }
+
+        this.listenerQueueCapacity = listenerQueueCapacity;
+        return this;
+    }
+
+    public Store setListenerOverflowPolicy(ListenerOverflowPolicy listenerOverflowPolicy) {
+        this.listenerOverflowPolicy = Objects.requireNonNull(listenerOverflowPolicy, "listenerOverflowPolicy cannot be null");
+        return this;
+    }
+
+    public Store setListenerBlockTimeout(Duration listenerBlockTimeout) {
+        Objects.requireNonNull(listenerBlockTimeout, "listenerBlockTimeout cannot be null");
+        if (listenerBlockTimeout.isNegative()) {
+            throw new IllegalArgumentException("The listener block timeout cannot be negative");
+        }
+
+        this.listenerBlockTimeout = listenerBlockTimeout;
+        return this;
+    }
+
+    public Store setReceiptBatchWindow(Duration receiptBatchWindow) {
+        Objects.requireNonNull(receiptBatchWindow, "receiptBatchWindow cannot be null");
+        if (receiptBatchWindow.isNegative()) {
+            throw new IllegalArgumentException("The receipt batch window cannot be negative");
+        }
+
+        this.receiptBatchWindow = receiptBatchWindow;
+        return this;
+    }
+
+    public Store setMaxReceiptBatchSize(int maxReceiptBatchSize) {
+        if (maxReceiptBatchSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of a receipt batch must be positive");
+        }
+
+        this.maxReceiptBatchSize = maxReceiptBatchSize;
+        return this;
+    }
+
+    public Store setChatMetadataTtl(Duration chatMetadataTtl) {
+        Objects.requireNonNull(chatMetadataTtl, "chatMetadataTtl cannot be null");
+        if (chatMetadataTtl.isNegative()) {
+            throw new IllegalArgumentException("The ttl of chat metadata cannot be negative");
+        }
+
+        this.chatMetadataTtl = chatMetadataTtl;
+        return this;
+    }
+
+    public Store setPersistChatMetadata(boolean persistChatMetadata) {
+        this.persistChatMetadata = persistChatMetadata;
+        if (!persistChatMetadata && !chatMetadataCache.isEmpty()) {
+            chatMetadataCache.clear();
+            markChanged();
+        }
+
+        return this;
+    }
+
+    public Store setSocketSelectors(int socketSelectors) {
+        if (socketSelectors <= 0) {
+            throw new IllegalArgumentException("The number of socket selectors must be positive");
+        }
+
+        this.socketSelectors = socketSelectors;
+        return this;
+    }
+
+    public Store setHttpExecutor(Executor httpExecutor) {
+        var previous = this.httpClients;
+        this.httpClients = HttpClients.of(httpExecutor, maxConcurrentHttpRequests);
+        this.httpExecutor = httpExecutor;
+        previous.close();
+        return this;
+    }
+
+    public Store setMaxConcurrentHttpRequests(int maxConcurrentHttpRequests) {
+        var previous = this.httpClients;
+        this.httpClients = HttpClients.of(httpExecutor, maxConcurrentHttpRequests);
+        this.maxConcurrentHttpRequests = maxConcurrentHttpRequests;
+        previous.close();
         return this;
     }
 
@@ -1507,11 +1897,13 @@ public final class Store extends Controller<Store> {
 
     public Store setVerifiedName(String verifiedName) {
         this.verifiedName = verifiedName;
+        markChanged();
         return this;
     }
 
     public Store setAutomaticMessageReceipts(boolean automaticMessageReceipts) {
         this.automaticMessageReceipts = automaticMessageReceipts;
+        markChanged();
         return this;
     }
 
@@ -22,6 +22,7 @@ public final class GroupBuilder {
         var record = keys.findSenderKeyByName(name);
         if (record.isEmpty()) {
             record.addState(randomId(), SignalKeyPair.random(), 0, Bytes.random(32));
+            keys.markChanged();
         }
         var state = record.firstState();
         var message = new SignalDistributionMessage(
@@ -47,5 +48,6 @@ public final class GroupBuilder {
     public void createIncoming(SenderKeyName name, SignalDistributionMessage message) {
         var record = keys.findSenderKeyByName(name);
         record.addState(message.id(), message.signingKey(), message.iteration(), message.chainKey());
+        keys.markChanged();
     }
 }
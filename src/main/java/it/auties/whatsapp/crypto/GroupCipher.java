@@ -41,6 +41,7 @@ public final class GroupCipher {
             );
             var next = currentState.chainKey().next();
             currentState.setChainKey(next);
+            keys.markChanged();
             return new CipheredMessageResult(senderKeyMessage.serialized(), SignalConstants.SKMSG);
         } catch (GeneralSecurityException exception) {
             throw new IllegalArgumentException("Cannot encrypt data", exception);
@@ -54,6 +55,7 @@ public final class GroupCipher {
         for (var senderKeyState : senderKeyStates) {
             try {
                 var senderKey = getSenderKey(senderKeyState, senderKeyMessage.iteration());
+                keys.markChanged();
                 try {
                     var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
                     var keySpec = new SecretKeySpec(senderKey.cipherKey(), "AES");
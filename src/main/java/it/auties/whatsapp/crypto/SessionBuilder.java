@@ -50,6 +50,7 @@ public record SessionBuilder(SessionAddress address, Keys keys) {
             keys.addSession(address, newSession);
             newSession.addState(state);
         }
+        keys.markChanged();
     }
 
     private byte[][] computeMasterKey(boolean isInitiator, byte[] signedSecret, byte[] identitySecret, byte[] signedIdentitySecret, byte[] ephemeralSecret) {
@@ -101,6 +102,7 @@ public record SessionBuilder(SessionAddress address, Keys keys) {
                 message.version()
         );
         session.addState(nextState);
+        keys.markChanged();
     }
 
     private SessionState createState(
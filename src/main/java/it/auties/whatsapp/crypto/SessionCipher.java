@@ -44,6 +44,7 @@ public record SessionCipher(SessionAddress address, Keys keys) {
                     .orElseThrow(() -> new NoSuchElementException("Missing key in chain for counter " + currentKeyCounter));
             var secrets = Hkdf.deriveSecrets(currentKey, "WhisperMessageKeys".getBytes(StandardCharsets.UTF_8));
             chain.removeMessageKey(chain.counter());
+            keys.markChanged();
             var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
             cipher.init(
                     Cipher.ENCRYPT_MODE,
@@ -148,6 +149,8 @@ public record SessionCipher(SessionAddress address, Keys keys) {
             return plaintext;
         } catch (GeneralSecurityException exception) {
             throw new IllegalArgumentException("Cannot decrypt data", exception);
+        } finally {
+            keys.markChanged();
         }
     }
 
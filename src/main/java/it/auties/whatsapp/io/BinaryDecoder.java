@@ -5,38 +5,85 @@ import it.auties.whatsapp.model.jid.JidServer;
 import it.auties.whatsapp.model.node.Attributes;
 import it.auties.whatsapp.model.node.Node;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import static it.auties.whatsapp.io.BinaryTag.*;
 import static it.auties.whatsapp.io.BinaryTokens.*;
 
+// Reads directly from the frame using absolute gets: only the binary contents, which can outlive the frame, are copied
 public final class BinaryDecoder {
-    private static final List<Character> NIBBLE_ALPHABET = List.of('0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '-', '.', '�', '�', '�', '�');
-    private static final List<Character> HEX_ALPHABET = List.of('0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F');
+    private static final char[] NIBBLE_ALPHABET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '-', '.', '�', '�', '�', '�'};
+    private static final char[] HEX_ALPHABET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
 
-    private final InputStream inputStream;
+    private final ByteBuffer buffer;
+    private int position;
 
-    private BinaryDecoder(InputStream inputStream) throws IOException {
-        this.inputStream = (inputStream.read() & 2) == 0 ? inputStream : new InflaterInputStream(inputStream);
+    private BinaryDecoder(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
     }
 
-    public static Node decode(InputStream stream) {
+    /**
+     * Decodes a node from the buffer, starting at its position.
+     * The binary contents of the result are copied, so the buffer can be reused after this call.
+     * The position of the buffer is moved after the decoded node.
+     *
+     * @param buffer the non-null buffer to read
+     * @return a non-null node
+     */
+    public static Node decode(ByteBuffer buffer) {
+        var start = buffer.position();
+        if((buffer.get(start) & 2) == 0) {
+            var decoder = new BinaryDecoder(buffer, start + 1);
+            var result = decoder.readNode();
+            buffer.position(decoder.position);
+            return result;
+        }
+
+        var inflated = inflate(buffer.position(start + 1));
+        var decoder = new BinaryDecoder(inflated, 0);
+        return decoder.readNode();
+    }
+
+    private static ByteBuffer inflate(ByteBuffer input) {
+        var inflater = new Inflater();
         try {
-            var decoder = new BinaryDecoder(stream);
-            return decoder.readNode();
-        }catch (IOException exception) {
-            throw new UncheckedIOException(exception);
+            inflater.setInput(input);
+            var output = ByteBuffer.allocate(Math.max(input.remaining() * 4, 1024));
+            while (!inflater.finished()) {
+                if (!output.hasRemaining()) {
+                    output = ByteBuffer.allocate(output.capacity() * 2)
+                            .put(output.flip());
+                }
+
+                // The stream can't make progress anymore, so the node would be decoded from a partial buffer
+                if(inflater.inflate(output) == 0) {
+                    if (inflater.needsInput()) {
+                        throw new IllegalArgumentException("Cannot inflate node: truncated input");
+                    }
+
+                    if (inflater.needsDictionary()) {
+                        throw new IllegalArgumentException("Cannot inflate node: missing dictionary");
+                    }
+                }
+            }
+            return output.flip();
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException("Cannot inflate node", exception);
+        } finally {
+            inflater.end();
         }
     }
 
-    public Node readNode() throws IOException {
+    private Node readNode() {
         var size = readNodeSize();
         // the description takes up one length unit
         var description = size-- > 0 ? readString() : null;
@@ -47,24 +94,50 @@ public final class BinaryDecoder {
         return new Node(description, attrs, content);
     }
 
-    private int readNodeSize() throws IOException {
-        var token = (byte) inputStream.read();
+    private int readUnsignedByte() {
+        if (position >= buffer.limit()) {
+            throw new BufferUnderflowException();
+        }
+
+        return buffer.get(position++) & 0xFF;
+    }
+
+    private int readUnsignedShort() {
+        return (readUnsignedByte() << 8)
+                | readUnsignedByte();
+    }
+
+    private int readInt20() {
+        return (readUnsignedByte() << 16)
+                | (readUnsignedByte() << 8)
+                | readUnsignedByte();
+    }
+
+    private int readInt32() {
+        return (readUnsignedByte() << 24)
+                | (readUnsignedByte() << 16)
+                | (readUnsignedByte() << 8)
+                | readUnsignedByte();
+    }
+
+    private int readNodeSize() {
+        var token = (byte) readUnsignedByte();
         return switch (token) {
-            case LIST_8 -> inputStream.read() & 0xFF;
-            case LIST_16 -> (inputStream.read() << 8) | inputStream.read();
+            case LIST_8 -> readUnsignedByte();
+            case LIST_16 -> readUnsignedShort();
             default -> throw new IllegalStateException("Unexpected value: " + token);
         };
     }
 
-    private String readString() throws IOException {
-        var tag = (byte) inputStream.read();
+    private String readString() {
+        var tag = (byte) readUnsignedByte();
         return switch (tag) {
             case LIST_EMPTY -> null;
             case HEX_8 -> readPacked(HEX_ALPHABET);
             case NIBBLE_8 -> readPacked(NIBBLE_ALPHABET);
-            case BINARY_8 -> new String(readBinary8());
-            case BINARY_20 -> new String(readBinary20());
-            case BINARY_32 -> new String(readBinary32());
+            case BINARY_8 -> readUtf8(readUnsignedByte());
+            case BINARY_20 -> readUtf8(readInt20());
+            case BINARY_32 -> readUtf8(readInt32());
             case DICTIONARY_0 -> readDictionaryToken(DICTIONARY_0_TOKENS);
             case DICTIONARY_1 -> readDictionaryToken(DICTIONARY_1_TOKENS);
             case DICTIONARY_2 -> readDictionaryToken(DICTIONARY_2_TOKENS);
@@ -73,28 +146,36 @@ public final class BinaryDecoder {
         };
     }
 
-    private byte[] readBinary8() throws IOException {
-        var size = inputStream.read() & 0xFF;
-        return inputStream.readNBytes(size);
+    private byte[] readBinary(int size) {
+        checkAvailable(size);
+        var result = new byte[size];
+        buffer.get(position, result);
+        position += size;
+        return result;
     }
 
-    private byte[] readBinary20() throws IOException {
-        var size = (inputStream.read() << 16)
-                | (inputStream.read() << 8)
-                | inputStream.read();
-        return inputStream.readNBytes(size);
+    private String readUtf8(int size) {
+        checkAvailable(size);
+        if (buffer.hasArray()) {
+            var result = new String(buffer.array(), buffer.arrayOffset() + position, size, StandardCharsets.UTF_8);
+            position += size;
+            return result;
+        }
+
+        var bytes = new byte[size];
+        buffer.get(position, bytes);
+        position += size;
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
-    private byte[] readBinary32() throws IOException {
-        var size = (inputStream.read() << 24)
-                | (inputStream.read() << 16)
-                | (inputStream.read() << 8)
-                | inputStream.read();
-        return inputStream.readNBytes(size);
+    private void checkAvailable(int size) {
+        if (size < 0 || size > buffer.limit() - position) {
+            throw new BufferUnderflowException();
+        }
     }
 
-    private String readDictionaryToken(BinaryTokens dictionary) throws IOException {
-        var index = inputStream.read() & 0xFF;
+    private String readDictionaryToken(BinaryTokens dictionary) {
+        var index = readUnsignedByte();
         return dictionary.get(index);
     }
 
@@ -103,7 +184,7 @@ public final class BinaryDecoder {
         return SINGLE_BYTE_TOKENS.get(index);
     }
 
-    private Attributes readAttributes(int size) throws IOException {
+    private Attributes readAttributes(int size) {
         var map = new LinkedHashMap<String, Object>();
         while (size >= 2) {
             var key = readString();
@@ -114,19 +195,19 @@ public final class BinaryDecoder {
         return new Attributes(map);
     }
 
-    private Object readAttribute() throws IOException {
-        var tag = (byte) inputStream.read();
+    private Object readAttribute() {
+        var tag = (byte) readUnsignedByte();
         return switch (tag) {
             case LIST_EMPTY -> null;
             case COMPANION_JID -> readCompanionJid();
-            case LIST_8 -> readList8();
-            case LIST_16 -> readList16();
+            case LIST_8 -> readList(readUnsignedByte());
+            case LIST_16 -> readList(readUnsignedShort());
             case JID_PAIR -> readJidPair();
             case HEX_8 -> readPacked(HEX_ALPHABET);
             case NIBBLE_8 -> readPacked(NIBBLE_ALPHABET);
-            case BINARY_8 -> new String(readBinary8());
-            case BINARY_20 -> new String(readBinary20());
-            case BINARY_32 -> new String(readBinary32());
+            case BINARY_8 -> readUtf8(readUnsignedByte());
+            case BINARY_20 -> readUtf8(readInt20());
+            case BINARY_32 -> readUtf8(readInt32());
             case DICTIONARY_0 -> readDictionaryToken(DICTIONARY_0_TOKENS);
             case DICTIONARY_1 -> readDictionaryToken(DICTIONARY_1_TOKENS);
             case DICTIONARY_2 -> readDictionaryToken(DICTIONARY_2_TOKENS);
@@ -135,18 +216,7 @@ public final class BinaryDecoder {
         };
     }
 
-    private List<Node> readList8() throws IOException {
-        var length = inputStream.read() & 0xFF;
-        return readList(length);
-    }
-
-    private List<Node> readList16() throws IOException {
-        var length = (inputStream.read() << 8)
-                | inputStream.read();
-        return readList(length);
-    }
-
-    private List<Node> readList(int size) throws IOException {
+    private List<Node> readList(int size) {
         var results = new ArrayList<Node>(size);
         for (int index = 0; index < size; index++) {
             results.add(readNode());
@@ -154,49 +224,48 @@ public final class BinaryDecoder {
         return results;
     }
 
-    private String readPacked(List<Character> alphabet) throws IOException {
-        var token = inputStream.read() & 0xFF;
+    private String readPacked(char[] alphabet) {
+        var token = readUnsignedByte();
         var start = token >>> 7;
         var end = token & 127;
         var string = new char[2 * end - start];
         for(var index = 0; index < string.length - 1; index += 2) {
-            token = inputStream.read() & 0xFF;
-            string[index] = alphabet.get(token >>> 4);
-            string[index + 1] = alphabet.get(15 & token);
-
+            token = readUnsignedByte();
+            string[index] = alphabet[token >>> 4];
+            string[index + 1] = alphabet[15 & token];
         }
         if (start != 0) {
-            token = inputStream.read() & 0xFF;
-            string[string.length - 1] = alphabet.get(token >>> 4);
+            token = readUnsignedByte();
+            string[string.length - 1] = alphabet[token >>> 4];
         }
         return String.valueOf(string);
     }
 
-    private Jid readJidPair() throws IOException {
+    private Jid readJidPair() {
         var user = readString();
         var server = JidServer.of(Objects.requireNonNull(readString(), "Malformed jid pair: no server"));
         return user == null ? Jid.of(server) : Jid.of(user, server);
     }
 
-    private Jid readCompanionJid() throws IOException {
-        var agent = inputStream.read() & 0xFF;
-        var device =  inputStream.read() & 0xFF;
+    private Jid readCompanionJid() {
+        var agent = readUnsignedByte();
+        var device = readUnsignedByte();
         var user = readString();
         return Jid.of(user, JidServer.whatsapp(), device, agent);
     }
 
-    private Object readContent() throws IOException {
-        var tag = (byte) inputStream.read();
+    private Object readContent() {
+        var tag = (byte) readUnsignedByte();
         return switch (tag) {
             case LIST_EMPTY -> null;
             case COMPANION_JID -> readCompanionJid();
-            case LIST_8 -> readList8();
-            case LIST_16 -> readList16();
+            case LIST_8 -> readList(readUnsignedByte());
+            case LIST_16 -> readList(readUnsignedShort());
             case JID_PAIR -> readJidPair();
             case HEX_8 -> readPacked(HEX_ALPHABET);
-            case BINARY_8 -> readBinary8();
-            case BINARY_20 -> readBinary20();
-            case BINARY_32 -> readBinary32();
+            case BINARY_8 -> readBinary(readUnsignedByte());
+            case BINARY_20 -> readBinary(readInt20());
+            case BINARY_32 -> readBinary(readInt32());
             case NIBBLE_8 -> readPacked(NIBBLE_ALPHABET);
             case DICTIONARY_0 -> readDictionaryToken(DICTIONARY_0_TOKENS);
             case DICTIONARY_1 -> readDictionaryToken(DICTIONARY_1_TOKENS);
@@ -149,6 +149,7 @@ public final class BinaryEncoder {
             case null -> output[offset++] = LIST_EMPTY;
             case String value -> writeString(value);
             case byte[] value -> writeBytes(value);
+            case ByteBuffer value -> writeBuffer(value);
             case Boolean bool -> writeString(Boolean.toString(bool));
             case Number number -> writeString(number.toString());
             case Enum<?> value -> writeString(value.toString());
@@ -176,6 +177,13 @@ public final class BinaryEncoder {
         offset += length;
     }
 
+    private void writeBuffer(ByteBuffer buffer){
+        var length = buffer.remaining();
+        writeBinary(length);
+        buffer.get(buffer.position(), output, offset, length);
+        offset += length;
+    }
+
     private void writeJid(Jid jid){
         if (jid.isCompanion()) {
             output[offset++] = COMPANION_JID;
@@ -5,6 +5,7 @@ import it.auties.whatsapp.model.node.Attributes;
 import it.auties.whatsapp.model.node.Node;
 import it.auties.whatsapp.util.Strings;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import static it.auties.whatsapp.io.BinaryTokens.*;
@@ -102,6 +103,7 @@ public final class BinaryLength {
             case null -> 1;
             case String value -> stringLength(value);
             case byte[] value -> bytesLength(value);
+            case ByteBuffer value -> bufferLength(value);
             case Boolean bool -> stringLength(Boolean.toString(bool));
             case Number number -> stringLength(number.toString());
             case Enum<?> value -> stringLength(value.toString());
@@ -116,6 +118,11 @@ public final class BinaryLength {
         return binaryLength(length) + length;
     }
 
+    private static int bufferLength(ByteBuffer buffer){
+        var length = buffer.remaining();
+        return binaryLength(length) + length;
+    }
+
     private static int jidLength(Jid jid){
         if (jid.isCompanion()) {
             return 3 + stringLength(jid.user());
@@ -0,0 +1,21 @@
+package it.auties.whatsapp.model.chat;
+
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+import it.auties.protobuf.model.ProtobufType;
+
+/**
+ * A model class that represents the metadata of a group or community cached by the session
+ *
+ * @param metadata              the cached metadata
+ * @param timestampMilliseconds when the metadata was received, in milliseconds since the epoch
+ */
+@ProtobufMessage
+public record CachedChatMetadata(
+        @ProtobufProperty(index = 1, type = ProtobufType.MESSAGE)
+        ChatMetadata metadata,
+        @ProtobufProperty(index = 2, type = ProtobufType.UINT64)
+        long timestampMilliseconds
+) {
+
+}
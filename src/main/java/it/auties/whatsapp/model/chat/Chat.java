@@ -13,14 +13,17 @@ import it.auties.whatsapp.model.media.MediaVisibility;
 import it.auties.whatsapp.model.message.model.Message;
 import it.auties.whatsapp.model.sync.HistorySyncMessage;
 import it.auties.whatsapp.util.Clock;
-import it.auties.whatsapp.util.ConcurrentLinkedSet;
+import it.auties.whatsapp.util.ConcurrentMessageSet;
 
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * A model class that represents a Chat. A chat can be of two types: a conversation with a contact
@@ -34,7 +37,7 @@ public final class Chat implements JidProvider {
     final Jid jid;
 
     @ProtobufProperty(index = 2, type = ProtobufType.MESSAGE)
-    final ConcurrentLinkedSet<HistorySyncMessage> historySyncMessages;
+    final ConcurrentMessageSet<HistorySyncMessage> historySyncMessages;
 
     @ProtobufProperty(index = 3, type = ProtobufType.STRING)
     final Jid newJid;
@@ -114,9 +117,19 @@ public final class Chat implements JidProvider {
     @ProtobufProperty(index = 999, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.ENUM)
     final ConcurrentHashMap<Jid, ContactStatus> presences;
 
-    Chat(Jid jid, ConcurrentLinkedSet<HistorySyncMessage> historySyncMessages, Jid newJid, Jid oldJid, int unreadMessagesCount, boolean endOfHistoryTransfer, ChatEphemeralTimer ephemeralMessageDuration, long ephemeralMessagesToggleTimeSeconds, EndOfHistoryTransferType endOfHistoryTransferType, long timestampSeconds, String name, boolean notSpam, boolean archived, ChatDisappear disappearInitiator, boolean markedAsUnread, int pinnedTimestampSeconds, ChatMute mute, ChatWallpaper wallpaper, MediaVisibility mediaVisibility, boolean suspended, boolean terminated, boolean support, String displayName, Jid phoneJid, boolean shareOwnPhoneNumber, boolean phoneDuplicateLidThread, Jid lid, ConcurrentHashMap<Jid, ContactStatus> presences) {
+    private final AtomicLong revision;
+
+    private final ConcurrentHashMap<String, ChatMessageInfo> changedMessages;
+
+    private volatile long historyRevision;
+
+    private volatile Supplier<? extends Collection<HistorySyncMessage>> messagesLoader;
+
+    private volatile Consumer<Chat> orderListener;
+
+    Chat(Jid jid, ConcurrentMessageSet<HistorySyncMessage> historySyncMessages, Jid newJid, Jid oldJid, int unreadMessagesCount, boolean endOfHistoryTransfer, ChatEphemeralTimer ephemeralMessageDuration, long ephemeralMessagesToggleTimeSeconds, EndOfHistoryTransferType endOfHistoryTransferType, long timestampSeconds, String name, boolean notSpam, boolean archived, ChatDisappear disappearInitiator, boolean markedAsUnread, int pinnedTimestampSeconds, ChatMute mute, ChatWallpaper wallpaper, MediaVisibility mediaVisibility, boolean suspended, boolean terminated, boolean support, String displayName, Jid phoneJid, boolean shareOwnPhoneNumber, boolean phoneDuplicateLidThread, Jid lid, ConcurrentHashMap<Jid, ContactStatus> presences) {
         this.jid = jid;
-        this.historySyncMessages = historySyncMessages;
+        this.historySyncMessages = Objects.requireNonNullElseGet(historySyncMessages, ConcurrentMessageSet::new);
         this.newJid = newJid;
         this.oldJid = oldJid;
         this.unreadMessagesCount = unreadMessagesCount;
@@ -143,6 +156,137 @@ public final class Chat implements JidProvider {
         this.phoneDuplicateLidThread = phoneDuplicateLidThread;
         this.lid = lid;
         this.presences = presences;
+        this.revision = new AtomicLong();
+        this.changedMessages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns a counter that is incremented every time this chat, or one of its messages, changes
+     *
+     * @return an unsigned long
+     */
+    public long revision() {
+        return revision.get();
+    }
+
+    /**
+     * Marks this chat as changed, so that it's written the next time the store is serialized
+     *
+     * @return the new revision of this chat
+     */
+    public long markChanged() {
+        return revision.incrementAndGet();
+    }
+
+    /**
+     * Marks a message of this chat as changed, so that a serializer can write only the messages that changed
+     *
+     * @param message the non-null message that changed
+     * @return the new revision of this chat
+     */
+    public long markChanged(ChatMessageInfo message) {
+        changedMessages.put(message.id(), message);
+        return markChanged();
+    }
+
+    /**
+     * Returns the messages of this chat that changed since the last call, and forgets about them
+     * Messages that were removed from this chat in the meantime are skipped
+     *
+     * @return a non-null collection
+     */
+    public Collection<HistorySyncMessage> drainChangedMessages() {
+        var results = new ArrayList<HistorySyncMessage>(changedMessages.size());
+        for (var iterator = changedMessages.keySet().iterator(); iterator.hasNext(); ) {
+            var id = iterator.next();
+            iterator.remove();
+            historySyncMessages.findById(id)
+                    .ifPresent(results::add);
+        }
+        return results;
+    }
+
+    /**
+     * Forgets about the messages of this chat that changed, for example because all of them were written
+     */
+    public void clearChangedMessages() {
+        changedMessages.clear();
+    }
+
+    /**
+     * Returns the revision of this chat at the time messages were last removed or added out of order
+     *
+     * @return an unsigned long
+     */
+    public long historyRevision() {
+        return historyRevision;
+    }
+
+    // The revision is first raised to Long.MAX_VALUE, so that a writer reading it concurrently, before the real revision is known,
+    // sees the history as changed after its last write and compacts it instead of appending to it
+    private void markHistoryChanged() {
+        this.historyRevision = Long.MAX_VALUE;
+        this.historyRevision = markChanged();
+    }
+
+    /**
+     * Sets a listener that is called every time the timestamp, or the pin state, of this chat changes
+     * This is useful to keep sorted views of many chats up to date
+     *
+     * @param orderListener the listener to call, or null to remove it
+     * @return the same instance
+     */
+    public Chat setOrderListener(Consumer<Chat> orderListener) {
+        this.orderListener = orderListener;
+        return this;
+    }
+
+    private void notifyOrderChanged() {
+        var listener = orderListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Defers the messages of this chat until they are first accessed
+     * This is useful to load the metadata of many chats without decoding their messages
+     *
+     * @param messagesLoader a non-null supplier of the messages of this chat
+     * @return the same instance
+     */
+    public Chat setMessagesLoader(Supplier<? extends Collection<HistorySyncMessage>> messagesLoader) {
+        this.messagesLoader = messagesLoader;
+        return this;
+    }
+
+    /**
+     * Returns whether the messages of this chat have been loaded
+     *
+     * @return a boolean
+     */
+    public boolean hasLoadedMessages() {
+        return messagesLoader == null;
+    }
+
+    /**
+     * Loads the messages of this chat if they were deferred
+     * Every method that accesses the messages of this chat already does this
+     */
+    public void loadMessages() {
+        if (messagesLoader == null) {
+            return;
+        }
+
+        synchronized (historySyncMessages) {
+            var loader = messagesLoader;
+            if (loader == null) {
+                return;
+            }
+
+            historySyncMessages.addAll(loader.get());
+            this.messagesLoader = null;
+        }
     }
 
     /**
@@ -155,6 +299,7 @@ public final class Chat implements JidProvider {
     }
 
     public Collection<HistorySyncMessage> historySyncMessages() {
+        loadMessages();
         return historySyncMessages;
     }
 
@@ -252,10 +397,16 @@ public final class Chat implements JidProvider {
 
     public void addPresence(JidProvider jid, ContactStatus status) {
         presences.put(jid.toJid(), status);
+        markChanged();
     }
 
     public boolean removePresence(JidProvider jid) {
-        return presences.remove(jid.toJid()) != null;
+        var result = presences.remove(jid.toJid()) != null;
+        if (result) {
+            markChanged();
+        }
+
+        return result;
     }
 
     public boolean hasName() {
@@ -268,111 +419,135 @@ public final class Chat implements JidProvider {
 
     public Chat setUnreadMessagesCount(int unreadMessagesCount) {
         this.unreadMessagesCount = unreadMessagesCount;
+        markChanged();
         return this;
     }
 
     public Chat setEndOfHistoryTransfer(boolean endOfHistoryTransfer) {
         this.endOfHistoryTransfer = endOfHistoryTransfer;
+        markChanged();
         return this;
     }
 
     public Chat setEphemeralMessageDuration(ChatEphemeralTimer ephemeralMessageDuration) {
         this.ephemeralMessageDuration = ephemeralMessageDuration;
+        markChanged();
         return this;
     }
 
     public Chat setEphemeralMessagesToggleTimeSeconds(long ephemeralMessagesToggleTimeSeconds) {
         this.ephemeralMessagesToggleTimeSeconds = ephemeralMessagesToggleTimeSeconds;
+        markChanged();
         return this;
     }
 
     public Chat setEndOfHistoryTransferType(EndOfHistoryTransferType endOfHistoryTransferType) {
         this.endOfHistoryTransferType = endOfHistoryTransferType;
+        markChanged();
         return this;
     }
 
     public Chat setTimestampSeconds(long timestampSeconds) {
         this.timestampSeconds = timestampSeconds;
+        markChanged();
+        notifyOrderChanged();
         return this;
     }
 
     public Chat setName(String name) {
         this.name = name;
+        markChanged();
         return this;
     }
 
     public Chat setNotSpam(boolean notSpam) {
         this.notSpam = notSpam;
+        markChanged();
         return this;
     }
 
     public Chat setArchived(boolean archived) {
         this.archived = archived;
+        markChanged();
         return this;
     }
 
     public Chat setDisappearInitiator(ChatDisappear disappearInitiator) {
         this.disappearInitiator = disappearInitiator;
+        markChanged();
         return this;
     }
 
     public Chat setMarkedAsUnread(boolean markedAsUnread) {
         this.markedAsUnread = markedAsUnread;
+        markChanged();
         return this;
     }
 
     public Chat setPinnedTimestampSeconds(int pinnedTimestampSeconds) {
         this.pinnedTimestampSeconds = pinnedTimestampSeconds;
+        markChanged();
+        notifyOrderChanged();
         return this;
     }
 
     public Chat setMute(ChatMute mute) {
         this.mute = mute;
+        markChanged();
         return this;
     }
 
     public Chat setWallpaper(ChatWallpaper wallpaper) {
         this.wallpaper = wallpaper;
+        markChanged();
         return this;
     }
 
     public Chat setMediaVisibility(MediaVisibility mediaVisibility) {
         this.mediaVisibility = mediaVisibility;
+        markChanged();
         return this;
     }
 
     public Chat setSuspended(boolean suspended) {
         this.suspended = suspended;
+        markChanged();
         return this;
     }
 
     public Chat setTerminated(boolean terminated) {
         this.terminated = terminated;
+        markChanged();
         return this;
     }
 
     public Chat setSupport(boolean support) {
         this.support = support;
+        markChanged();
         return this;
     }
 
     public Chat setPhoneJid(Jid phoneJid) {
         this.phoneJid = phoneJid;
+        markChanged();
         return this;
     }
 
     public Chat setShareOwnPhoneNumber(boolean shareOwnPhoneNumber) {
         this.shareOwnPhoneNumber = shareOwnPhoneNumber;
+        markChanged();
         return this;
     }
 
     public Chat setPhoneDuplicateLidThread(boolean phoneDuplicateLidThread) {
         this.phoneDuplicateLidThread = phoneDuplicateLidThread;
+        markChanged();
         return this;
     }
 
     public Chat setLid(Jid lid) {
         this.lid = lid;
+        markChanged();
         return this;
     }
 
@@ -426,6 +601,7 @@ public final class Chat implements JidProvider {
      * @return a non-null collection
      */
     public Collection<ChatMessageInfo> unreadMessages() {
+        loadMessages();
         if (!hasUnreadMessages()) {
             return List.of();
         }
@@ -480,6 +656,7 @@ public final class Chat implements JidProvider {
      * @return an optional
      */
     public Optional<ChatMessageInfo> newestMessage() {
+        loadMessages();
         return Optional.ofNullable(historySyncMessages.peekLast())
                 .map(HistorySyncMessage::messageInfo);
     }
@@ -490,6 +667,7 @@ public final class Chat implements JidProvider {
      * @return an optional
      */
     public Optional<ChatMessageInfo> oldestMessage() {
+        loadMessages();
         return Optional.ofNullable(historySyncMessages.peekFirst())
                 .map(HistorySyncMessage::messageInfo);
     }
@@ -567,6 +745,7 @@ public final class Chat implements JidProvider {
     }
 
     private Optional<ChatMessageInfo> findMessageBy(Function<ChatMessageInfo, Boolean> filter, boolean newest) {
+        loadMessages();
         var descendingIterator = newest ? historySyncMessages.descendingIterator() : historySyncMessages.iterator();
         while (descendingIterator.hasNext()) {
             var info = descendingIterator.next().messageInfo();
@@ -578,12 +757,29 @@ public final class Chat implements JidProvider {
         return Optional.empty();
     }
 
+    /**
+     * Returns the message whose id matches the one provided
+     *
+     * @param id the id to search
+     * @return a non-null optional
+     */
+    public Optional<ChatMessageInfo> findMessageById(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        loadMessages();
+        return historySyncMessages.findById(id)
+                .map(HistorySyncMessage::messageInfo);
+    }
+
     /**
      * Returns all the starred messages in this chat
      *
      * @return a non-null list of messages
      */
     public Collection<ChatMessageInfo> starredMessages() {
+        loadMessages();
         return historySyncMessages.stream()
                 .map(HistorySyncMessage::messageInfo)
                 .filter(ChatMessageInfo::starred)
@@ -596,7 +792,10 @@ public final class Chat implements JidProvider {
      * @param newMessages the non-null messages to add
      */
     public void addMessages(Collection<HistorySyncMessage> newMessages) {
+        loadMessages();
+        newMessages.forEach(this::adoptMessage);
         historySyncMessages.addAll(newMessages);
+        markHistoryChanged();
     }
 
     /**
@@ -605,7 +804,17 @@ public final class Chat implements JidProvider {
      * @param oldMessages the non-null messages to add
      */
     public void addOldMessages(Collection<HistorySyncMessage> oldMessages) {
-        oldMessages.forEach(historySyncMessages::addFirst);
+        loadMessages();
+        for (var oldMessage : oldMessages) {
+            adoptMessage(oldMessage);
+            historySyncMessages.addFirst(oldMessage);
+        }
+        markHistoryChanged();
+    }
+
+    // Messages moved from another chat, for example when a history sync replaces it, must report their changes to this one
+    private void adoptMessage(HistorySyncMessage message) {
+        message.messageInfo().setChat(this);
     }
 
     /**
@@ -615,12 +824,14 @@ public final class Chat implements JidProvider {
      * @return whether the message was added
      */
     public boolean addNewMessage(ChatMessageInfo info) {
+        loadMessages();
         var sync = new HistorySyncMessage(info, historySyncMessages.size());
-        if (historySyncMessages.contains(sync)) {
+        if (!historySyncMessages.add(sync)) {
             return false;
         }
-        historySyncMessages.add(sync);
         updateChatTimestamp(info);
+        info.setChat(this);
+        info.markChanged();
         return true;
     }
 
@@ -631,8 +842,11 @@ public final class Chat implements JidProvider {
      * @return whether the message was added
      */
     public boolean addOldMessage(HistorySyncMessage info) {
-        historySyncMessages.addFirst(info);
-        return true;
+        loadMessages();
+        adoptMessage(info);
+        var result = historySyncMessages.addFirst(info);
+        markHistoryChanged();
+        return result;
     }
 
     /**
@@ -642,8 +856,13 @@ public final class Chat implements JidProvider {
      * @return whether the message was removed
      */
     public boolean removeMessage(ChatMessageInfo info) {
-        var result = historySyncMessages.removeIf(entry -> Objects.equals(entry.messageInfo().id(), info.id()));
+        loadMessages();
+        var result = historySyncMessages.removeById(info.id());
         refreshChatTimestamp();
+        if (result) {
+            markHistoryChanged();
+        }
+
         return result;
     }
 
@@ -654,8 +873,13 @@ public final class Chat implements JidProvider {
      * @return whether the message was removed
      */
     public boolean removeMessage(Predicate<? super ChatMessageInfo> predicate) {
+        loadMessages();
         var result = historySyncMessages.removeIf(entry -> predicate.test(entry.messageInfo()));
         refreshChatTimestamp();
+        if (result) {
+            markHistoryChanged();
+        }
+
         return result;
     }
 
@@ -683,13 +907,16 @@ public final class Chat implements JidProvider {
         }
 
         this.timestampSeconds = newTimestamp;
+        notifyOrderChanged();
     }
 
     /**
      * Removes all messages from the chat
      */
     public void removeMessages() {
+        loadMessages();
         historySyncMessages.clear();
+        markHistoryChanged();
     }
 
     /**
@@ -699,9 +926,20 @@ public final class Chat implements JidProvider {
      * @return a non-null collection
      */
     public Collection<HistorySyncMessage> messages() {
+        loadMessages();
         return Collections.unmodifiableCollection(historySyncMessages);
     }
 
+    /**
+     * Returns a copy of this chat that shares its metadata, but not its messages
+     * This is useful to serialize the metadata of a chat separately from its messages
+     *
+     * @return a non-null chat
+     */
+    public Chat withoutMessages() {
+        return new Chat(jid, new ConcurrentMessageSet<>(), newJid, oldJid, unreadMessagesCount, endOfHistoryTransfer, ephemeralMessageDuration, ephemeralMessagesToggleTimeSeconds, endOfHistoryTransferType, timestampSeconds, name, notSpam, archived, disappearInitiator, markedAsUnread, pinnedTimestampSeconds, mute, wallpaper, mediaVisibility, suspended, terminated, support, displayName, phoneJid, shareOwnPhoneNumber, phoneDuplicateLidThread, lid, presences);
+    }
+
     /**
      * Returns this object as a jid
      *
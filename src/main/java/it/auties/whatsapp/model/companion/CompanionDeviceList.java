@@ -0,0 +1,24 @@
+package it.auties.whatsapp.model.companion;
+
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+import it.auties.protobuf.model.ProtobufType;
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.util.List;
+
+/**
+ * A model class that represents the devices of a user, as last queried by the session
+ *
+ * @param devices               the jids of the devices, including the primary one
+ * @param timestampMilliseconds when the devices were queried, in milliseconds since the epoch
+ */
+@ProtobufMessage
+public record CompanionDeviceList(
+        @ProtobufProperty(index = 1, type = ProtobufType.STRING)
+        List<Jid> devices,
+        @ProtobufProperty(index = 2, type = ProtobufType.UINT64)
+        long timestampMilliseconds
+) {
+
+}
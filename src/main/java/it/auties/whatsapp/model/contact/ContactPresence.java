@@ -0,0 +1,15 @@
+package it.auties.whatsapp.model.contact;
+
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.jid.JidProvider;
+
+/**
+ * A model class that represents a change in the presence of a contact
+ *
+ * @param chat    the chat where the presence changed
+ * @param contact the contact whose presence changed
+ * @param status  the new presence of the contact
+ */
+public record ContactPresence(Chat chat, JidProvider contact, ContactStatus status) {
+
+}
@@ -161,6 +161,8 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
 
     private Contact sender;
 
+    private volatile long revision;
+
     ChatMessageInfo(ChatMessageKey key, MessageContainer message, long timestampSeconds, MessageStatus status, Jid senderJid, long messageC2STimestamp, boolean ignore, boolean starred, boolean broadcast, String pushName, byte[] mediaCiphertextSha256, boolean multicast, boolean urlText, boolean urlNumber, StubType stubType, boolean clearMedia, List<String> stubParameters, int duration, List<String> labels, PaymentInfo paymentInfo, LiveLocationMessage finalLiveLocation, PaymentInfo quotedPaymentInfo, long ephemeralStartTimestamp, int ephemeralDuration, boolean enableEphemeral, boolean ephemeralOutOfSync, BusinessPrivacyStatus businessPrivacyStatus, String businessVerifiedName, MediaData mediaData, PhotoChange photoChange, MessageReceipt receipt, List<ReactionMessage> reactions, MediaData quotedStickerData, byte[] futureProofData, PublicServiceAnnouncementStatus psaStatus, List<PollUpdate> pollUpdates, PollAdditionalMetadata pollAdditionalMetadata, String agentId, boolean statusAlreadyViewed, byte[] messageSecret, KeepInChat keepInChat, Jid originalSender, long revokeTimestampSeconds) {
         this.key = key;
         this.message = Objects.requireNonNullElseGet(message, MessageContainer::empty);
@@ -365,6 +367,7 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
     @Override
     public ChatMessageInfo setMessage(MessageContainer message) {
         this.message = message;
+        markChanged();
         return this;
     }
 
@@ -387,6 +390,7 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
 
     public ChatMessageInfo setIgnore(boolean ignore) {
         this.ignore = ignore;
+        markChanged();
         return this;
     }
 
@@ -512,6 +516,7 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
 
     public ChatMessageInfo setPollAdditionalMetadata(PollAdditionalMetadata pollAdditionalMetadata) {
         this.pollAdditionalMetadata = pollAdditionalMetadata;
+        markChanged();
         return this;
     }
 
@@ -529,6 +534,7 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
 
     public ChatMessageInfo setMessageSecret(byte[] messageSecret) {
         this.messageSecret = messageSecret;
+        markChanged();
         return this;
     }
 
@@ -550,9 +556,37 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
 
     public ChatMessageInfo setChat(Chat chat) {
         this.chat = chat;
+        if (chat != null && revision == Long.MAX_VALUE) {
+            this.revision = chat.markChanged(this);
+        }
+
         return this;
     }
 
+    /**
+     * Returns the revision of the chat at the time this message was last changed
+     *
+     * @return an unsigned long, zero if this message wasn't changed since it was loaded
+     */
+    public long revision() {
+        return revision;
+    }
+
+    /**
+     * Marks this message, and the chat that owns it, as changed
+     * If this message isn't part of a chat yet, the change is reported to the chat it's added to
+     */
+    public void markChanged() {
+        if (chat == null) {
+            this.revision = Long.MAX_VALUE;
+            return;
+        }
+
+        // Raised before the chat's revision is incremented, so a serializer that observes the new revision of the chat always observes this message as changed
+        this.revision = Long.MAX_VALUE;
+        this.revision = chat.markChanged(this);
+    }
+
     public Optional<Contact> sender() {
         return Optional.ofNullable(sender);
     }
@@ -565,16 +599,19 @@ public final class ChatMessageInfo implements MessageInfo<ChatMessageInfo>, Mess
     @Override
     public ChatMessageInfo setStatus(MessageStatus status) {
         this.status = status;
+        markChanged();
         return this;
     }
 
     public ChatMessageInfo setStarred(boolean starred) {
         this.starred = starred;
+        markChanged();
         return this;
     }
 
     public ChatMessageInfo setRevokeTimestampSeconds(long revokeTimestampSeconds) {
         this.revokeTimestampSeconds = revokeTimestampSeconds;
+        markChanged();
         return this;
     }
 
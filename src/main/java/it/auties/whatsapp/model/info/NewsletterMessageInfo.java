@@ -81,6 +81,12 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
         return this;
     }
 
+    private void markNewsletterChanged() {
+        if (newsletter != null) {
+            newsletter.markChanged();
+        }
+    }
+
     public Jid newsletterJid() {
         return newsletter.jid();
     }
@@ -123,6 +129,7 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
     @Override
     public NewsletterMessageInfo setMessage(MessageContainer message) {
         this.message = message;
+        markNewsletterChanged();
         return this;
     }
 
@@ -138,6 +145,7 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
     @Override
     public NewsletterMessageInfo setStatus(MessageStatus status) {
         this.status = status;
+        markNewsletterChanged();
         return this;
     }
 
@@ -150,11 +158,15 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
     }
 
     public Optional<NewsletterReaction> addReaction(NewsletterReaction reaction) {
-        return Optional.ofNullable(reactions.put(reaction.content(), reaction));
+        var result = reactions.put(reaction.content(), reaction);
+        markNewsletterChanged();
+        return Optional.ofNullable(result);
     }
 
     public Optional<NewsletterReaction> removeReaction(String code) {
-        return Optional.ofNullable(reactions.remove(code));
+        var result = reactions.remove(code);
+        markNewsletterChanged();
+        return Optional.ofNullable(result);
     }
 
     public void incrementReaction(String code, boolean fromMe) {
@@ -165,6 +177,7 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
             var reaction = new NewsletterReaction(code, 1, fromMe);
             addReaction(reaction);
         });
+        markNewsletterChanged();
     }
 
     public void decrementReaction(String code) {
@@ -177,6 +190,7 @@ public final class NewsletterMessageInfo implements MessageInfo<NewsletterMessag
             reaction.setCount(reaction.count() - 1);
             reaction.setFromMe(false);
         });
+        markNewsletterChanged();
     }
 
     @Override
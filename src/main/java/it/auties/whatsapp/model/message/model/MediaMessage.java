@@ -2,10 +2,12 @@ package it.auties.whatsapp.model.message.model;
 
 import it.auties.whatsapp.model.info.ChatMessageInfo;
 import it.auties.whatsapp.model.media.AttachmentType;
+import it.auties.whatsapp.model.media.MediaFile;
 import it.auties.whatsapp.model.media.MutableAttachmentProvider;
 import it.auties.whatsapp.model.message.payment.PaymentInvoiceMessage;
 import it.auties.whatsapp.model.message.standard.*;
 
+import java.nio.file.Path;
 import java.time.ZonedDateTime;
 import java.util.Optional;
 import java.util.OptionalLong;
@@ -16,6 +18,7 @@ import java.util.OptionalLong;
  */
 public sealed abstract class MediaMessage<T extends MediaMessage<T>> implements ContextualMessage<T>, MutableAttachmentProvider<T> permits PaymentInvoiceMessage, AudioMessage, DocumentMessage, ImageMessage, StickerMessage, VideoOrGifMessage {
     private byte[] decodedMedia;
+    private Path decodedMediaFile;
     private String handle;
 
     public Optional<String> handle() {
@@ -26,6 +29,10 @@ public sealed abstract class MediaMessage<T extends MediaMessage<T>> implements
         return Optional.ofNullable(decodedMedia);
     }
 
+    public Optional<Path> decodedMediaFile() {
+        return Optional.ofNullable(decodedMediaFile);
+    }
+
     /**
      * Returns the timestampSeconds, that is the seconds elapsed since {@link java.time.Instant#EPOCH}, for{@link MediaMessage#mediaKey()}
      *
@@ -68,6 +75,39 @@ public sealed abstract class MediaMessage<T extends MediaMessage<T>> implements
         return (T) this;
     }
 
+    /**
+     * Sets the file that contains the media of this message
+     * When the message is sent, the file is uploaded as a stream, so it doesn't need to fit in memory
+     *
+     * @param decodedMediaFile the file, can be null
+     * @return the same instance
+     */
+    @SuppressWarnings("unchecked")
+    public T setDecodedMediaFile(Path decodedMediaFile) {
+        this.decodedMediaFile = decodedMediaFile;
+        return (T) this;
+    }
+
+    /**
+     * Attaches a media that was already uploaded, for example using {@link it.auties.whatsapp.api.Whatsapp#uploadMedia(Path, AttachmentType)}
+     * When the message is sent, the media isn't uploaded again
+     *
+     * @param mediaFile the non-null uploaded media
+     * @return the same instance
+     */
+    @SuppressWarnings("unchecked")
+    public T setMediaFile(MediaFile mediaFile) {
+        this.handle = mediaFile.handle();
+        setMediaSha256(mediaFile.fileSha256())
+                .setMediaEncryptedSha256(mediaFile.fileEncSha256())
+                .setMediaKey(mediaFile.mediaKey())
+                .setMediaUrl(mediaFile.url())
+                .setMediaKeyTimestamp(mediaFile.timestamp())
+                .setMediaDirectPath(mediaFile.directPath())
+                .setMediaSize(mediaFile.fileLength());
+        return (T) this;
+    }
+
     @SuppressWarnings("unchecked")
     public T setHandle(String handle) {
         this.handle = handle;
@@ -7,12 +7,14 @@ import it.auties.protobuf.model.ProtobufType;
 import it.auties.whatsapp.model.info.NewsletterMessageInfo;
 import it.auties.whatsapp.model.jid.Jid;
 import it.auties.whatsapp.model.jid.JidProvider;
-import it.auties.whatsapp.util.ConcurrentLinkedSet;
+import it.auties.whatsapp.util.ConcurrentMessageSet;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ProtobufMessage
 public final class Newsletter implements JidProvider {
@@ -29,14 +31,21 @@ public final class Newsletter implements JidProvider {
     final NewsletterViewerMetadata viewerMetadata;
 
     @ProtobufProperty(index = 5, type = ProtobufType.MESSAGE)
-    final ConcurrentLinkedSet<NewsletterMessageInfo> messages;
+    final ConcurrentMessageSet<NewsletterMessageInfo> messages;
 
-    Newsletter(Jid jid, NewsletterState state, NewsletterMetadata metadata, NewsletterViewerMetadata viewerMetadata, ConcurrentLinkedSet<NewsletterMessageInfo> messages) {
+    private final AtomicLong revision;
+
+    private final ConcurrentHashMap<String, NewsletterMessageInfo> messagesByServerId;
+
+    Newsletter(Jid jid, NewsletterState state, NewsletterMetadata metadata, NewsletterViewerMetadata viewerMetadata, ConcurrentMessageSet<NewsletterMessageInfo> messages) {
         this.jid = Objects.requireNonNull(jid, "jid cannot be null");
         this.state = state;
         this.metadata = metadata;
         this.viewerMetadata = viewerMetadata;
-        this.messages = Objects.requireNonNullElseGet(messages, ConcurrentLinkedSet::new);
+        this.messages = Objects.requireNonNullElseGet(messages, ConcurrentMessageSet::new);
+        this.revision = new AtomicLong();
+        this.messagesByServerId = new ConcurrentHashMap<>();
+        this.messages.forEach(this::indexMessage);
     }
 
     public static Optional<Newsletter> ofJson(JSONObject newsletter) {
@@ -60,7 +69,7 @@ public final class Newsletter implements JidProvider {
         var viewerMetadata = NewsletterViewerMetadata.ofJson(viewerMetadataJsonObject)
                 .orElse(null);
         var messagesJsonObjects = newsletter.getJSONArray("messages");
-        var messages = new ConcurrentLinkedSet<NewsletterMessageInfo>();
+        var messages = new ConcurrentMessageSet<NewsletterMessageInfo>();
         if(messagesJsonObjects != null) {
             for (var i = 0; i < messagesJsonObjects.size(); i++) {
                 var messageJsonObject = messagesJsonObjects.getJSONObject(i);
@@ -73,15 +82,64 @@ public final class Newsletter implements JidProvider {
     }
 
     public void addMessage(NewsletterMessageInfo message) {
-        this.messages.add(message);
+        if (this.messages.add(message)) {
+            indexMessage(message);
+        }
+        markChanged();
     }
 
     public boolean removeMessage(NewsletterMessageInfo message) {
-        return this.messages.remove(message);
+        var result = this.messages.remove(message);
+        if (result) {
+            messagesByServerId.remove(String.valueOf(message.serverId()));
+        }
+        markChanged();
+        return result;
     }
 
     public void addMessages(Collection<NewsletterMessageInfo> messages) {
-        this.messages.addAll(messages);
+        for (var message : messages) {
+            if (this.messages.add(message)) {
+                indexMessage(message);
+            }
+        }
+        markChanged();
+    }
+
+    // Messages are indexed by id by the set itself, but they can also be looked up by their server id
+    private void indexMessage(NewsletterMessageInfo message) {
+        messagesByServerId.put(String.valueOf(message.serverId()), message);
+    }
+
+    /**
+     * Returns the message whose id, or server id, matches the one provided
+     *
+     * @param id the id to search
+     * @return a non-null optional
+     */
+    public Optional<NewsletterMessageInfo> findMessageById(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        return messages.findById(id)
+                .or(() -> Optional.ofNullable(messagesByServerId.get(id)));
+    }
+
+    /**
+     * Returns a counter that is incremented every time this newsletter, or one of its messages, changes
+     *
+     * @return an unsigned long
+     */
+    public long revision() {
+        return revision.get();
+    }
+
+    /**
+     * Marks this newsletter as changed, so that it's written the next time the store is serialized
+     */
+    public void markChanged() {
+        revision.incrementAndGet();
     }
 
     public Collection<NewsletterMessageInfo> messages() {
@@ -111,11 +169,13 @@ public final class Newsletter implements JidProvider {
 
     public Newsletter setState(NewsletterState state) {
         this.state = state;
+        markChanged();
         return this;
     }
 
     public Newsletter setMetadata(NewsletterMetadata metadata) {
         this.metadata = metadata;
+        markChanged();
         return this;
     }
 
@@ -1,5 +1,6 @@
 package it.auties.whatsapp.model.node;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -10,7 +11,7 @@ import java.util.stream.Stream;
  *
  * @param description a non-null String that describes the content of this node
  * @param attributes  a non-null Map that describes the metadata of this object
- * @param content     a nullable object: a List of {@link Node}, a {@link String} or a {@link Number}
+ * @param content     a nullable object: a List of {@link Node}, a {@link String}, a {@link Number}, a byte array or a read only {@link ByteBuffer}
  */
 public record Node(String description, Attributes attributes, Object content) {
     private static final Node EMPTY = new Node("xmlstreamend", Attributes.of(), null);
@@ -185,6 +186,8 @@ public record Node(String description, Attributes attributes, Object content) {
             return Optional.of(string);
         } else if (content instanceof byte[] bytes) {
             return Optional.of(new String(bytes, StandardCharsets.UTF_8));
+        } else if (content instanceof ByteBuffer buffer) {
+            return Optional.of(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
         } else {
             return Optional.empty();
         }
@@ -192,11 +195,35 @@ public record Node(String description, Attributes attributes, Object content) {
 
     /**
      * Returns the content of this object as bytes
+     * Decoded nodes hold their binary content as bytes, so this doesn't copy it: only a buffer passed explicitly as content is copied
      *
      * @return an optional
      */
     public Optional<byte[]> contentAsBytes() {
-        return content instanceof byte[] bytes ? Optional.of(bytes) : Optional.empty();
+        if (content instanceof byte[] bytes) {
+            return Optional.of(bytes);
+        } else if (content instanceof ByteBuffer buffer) {
+            var bytes = new byte[buffer.remaining()];
+            buffer.get(buffer.position(), bytes);
+            return Optional.of(bytes);
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the content of this object as a read only buffer without copying it
+     *
+     * @return an optional
+     */
+    public Optional<ByteBuffer> contentAsBuffer() {
+        if (content instanceof ByteBuffer buffer) {
+            return Optional.of(buffer.asReadOnlyBuffer());
+        } else if (content instanceof byte[] bytes) {
+            return Optional.of(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+        } else {
+            return Optional.empty();
+        }
     }
 
     /**
@@ -230,6 +257,8 @@ public record Node(String description, Attributes attributes, Object content) {
             return Optional.of(Boolean.parseBoolean(string.toLowerCase(Locale.ROOT)));
         } else if (content instanceof byte[] bytes) {
             return Optional.of(Boolean.parseBoolean(new String(bytes, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT)));
+        } else if (content instanceof ByteBuffer buffer) {
+            return Optional.of(Boolean.parseBoolean(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString().toLowerCase(Locale.ROOT)));
         } else {
             return Optional.empty();
         }
@@ -355,7 +384,22 @@ public record Node(String description, Attributes attributes, Object content) {
         return other instanceof Node that
                 && Objects.equals(this.description(), that.description())
                 && Objects.equals(this.attributes(), that.attributes())
-                && (Objects.equals(this.content(), that.content()) || this.content() instanceof byte[] theseBytes && that.content() instanceof byte[] thoseBytes && Arrays.equals(theseBytes, thoseBytes));
+                && (Objects.equals(this.content(), that.content()) || hasBinaryContent() && that.hasBinaryContent() && Objects.equals(this.contentAsBuffer(), that.contentAsBuffer()));
+    }
+
+    /**
+     * Returns the hash code of this object, consistently with {@link #equals(Object)}
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        var contentHash = hasBinaryContent() ? contentAsBuffer().orElseThrow().hashCode() : Objects.hashCode(content);
+        return Objects.hash(description, attributes, contentHash);
+    }
+
+    private boolean hasBinaryContent() {
+        return content instanceof byte[] || content instanceof ByteBuffer;
     }
 
     /**
@@ -372,10 +416,11 @@ public record Node(String description, Attributes attributes, Object content) {
     }
 
     private Object contentToString() {
-        if (!(this.content instanceof byte[] bytes)) {
+        if (!hasBinaryContent()) {
             return this.content;
         }
 
+        var bytes = contentAsBytes().orElseThrow();
         return hasDescription("result") || hasDescription("query") || hasDescription("body")
                 ? new String(bytes) : Arrays.toString(bytes);
     }
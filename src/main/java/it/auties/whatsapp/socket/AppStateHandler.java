@@ -392,7 +392,7 @@ class AppStateHandler {
                 .filter(ignored -> socketHandler.store().mediaProxySetting().allowsDownloads())
                 .orElse(null);
         var blob = ExternalBlobReferenceSpec.decode(externalBlobPayload);
-        return Optional.of(Medias.downloadAsync(blob, proxy, stream -> {
+        return Optional.of(Medias.downloadAsync(blob, socketHandler.store().httpClients(), proxy, stream -> {
             try(var protobufStream = ProtobufInputStream.fromStream(stream)) {
                 return SnapshotSyncSpec.decode(protobufStream);
             }catch (Throwable throwable) {
@@ -547,6 +547,7 @@ class AppStateHandler {
     private void updateName(Contact contact, Chat chat, ContactAction contactAction) {
         contactAction.fullName().ifPresent(contact::setFullName);
         contactAction.firstName().ifPresent(contact::setShortName);
+        socketHandler.store().markChanged();
         contactAction.name().ifPresent(chat::setName);
     }
 
@@ -566,7 +567,7 @@ class AppStateHandler {
                     .proxy()
                     .filter(ignored -> socketHandler.store().mediaProxySetting().allowsDownloads())
                     .orElse(null);
-            var mutationsSync = Medias.downloadAsync(patch.externalMutations(), proxy, stream -> {
+            var mutationsSync = Medias.downloadAsync(patch.externalMutations(), socketHandler.store().httpClients(), proxy, stream -> {
                         try(var protobufStream = ProtobufInputStream.fromStream(stream)) {
                             return MutationsSyncSpec.decode(protobufStream);
                         }catch (Exception exception) {
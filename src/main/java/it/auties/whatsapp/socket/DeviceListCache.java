@@ -0,0 +1,172 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.companion.CompanionDeviceList;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.util.Clock;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// The devices of each user are cached in the keys, so that they survive a restart, until a device notification reports a change or the ttl expires
+// Users that aren't cached are queried together: lookups made within the same tick share a single usync request,
+// and a lookup for a user that is already being queried waits for that request instead of sending a new one
+final class DeviceListCache {
+    private static final Duration TTL = Duration.ofDays(7);
+    private static final long TICK_MILLISECONDS = 5;
+
+    private final SocketHandler socketHandler;
+    private final ConcurrentMap<Jid, CompletableFuture<List<Jid>>> inFlight;
+    private final Object batchLock;
+    private Map<Jid, CompletableFuture<List<Jid>>> batch;
+
+    DeviceListCache(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.batchLock = new Object();
+    }
+
+    // Returns the devices of all the users, in the same order
+    CompletableFuture<List<Jid>> query(Collection<Jid> users) {
+        var results = new ArrayList<CompletableFuture<List<Jid>>>(users.size());
+        for (var user : users) {
+            results.add(query(user.toSimpleJid()));
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).thenApply(ignored -> results.stream()
+                .map(CompletableFuture::join)
+                .flatMap(Collection::stream)
+                .toList());
+    }
+
+    private CompletableFuture<List<Jid>> query(Jid user) {
+        var cached = socketHandler.keys()
+                .findDevices(user)
+                .orElse(null);
+        if (cached != null && !isExpired(cached)) {
+            return CompletableFuture.completedFuture(cached.devices());
+        }
+
+        return inFlight.computeIfAbsent(user, this::enqueue);
+    }
+
+    private boolean isExpired(CompanionDeviceList cached) {
+        return Clock.nowMilliseconds() - cached.timestampMilliseconds() >= TTL.toMillis();
+    }
+
+    // A user that was invalidated before its batch was sent is still in the batch: its future is reused, as the request wasn't sent yet
+    private CompletableFuture<List<Jid>> enqueue(Jid user) {
+        var future = new CompletableFuture<List<Jid>>();
+        synchronized (batchLock) {
+            if (batch == null) {
+                this.batch = new LinkedHashMap<>();
+                CompletableFuture.delayedExecutor(TICK_MILLISECONDS, TimeUnit.MILLISECONDS)
+                        .execute(this::flush);
+            }
+
+            var existing = batch.putIfAbsent(user, future);
+            return existing != null ? existing : future;
+        }
+    }
+
+    private void flush() {
+        Map<Jid, CompletableFuture<List<Jid>>> users;
+        synchronized (batchLock) {
+            users = batch;
+            this.batch = null;
+        }
+
+        if (users == null || users.isEmpty()) {
+            return;
+        }
+
+        var userNodes = users.keySet()
+                .stream()
+                .map(user -> Node.of("user", Map.of("jid", user)))
+                .toList();
+        var body = Node.of("usync",
+                Map.of("context", "message", "index", "0", "last", "true", "mode", "query", "sid", SocketHandler.randomSid()),
+                Node.of("query", Node.of("devices", Map.of("version", "2"))),
+                Node.of("list", userNodes));
+        socketHandler.sendQuery("get", "usync", body)
+                .thenApply(this::parseDevices)
+                .whenComplete((devices, error) -> users.forEach((user, future) -> complete(user, future, devices, error)));
+    }
+
+    // The result is cached only if the user wasn't invalidated while it was being queried
+    private void complete(Jid user, CompletableFuture<List<Jid>> future, Map<Jid, List<Jid>> devices, Throwable error) {
+        var current = inFlight.remove(user, future);
+        if (error != null) {
+            future.completeExceptionally(error);
+            return;
+        }
+
+        var userDevices = devices.get(user);
+        if (userDevices == null) {
+            future.complete(List.of());
+            return;
+        }
+
+        if (current) {
+            socketHandler.keys().addDevices(user, userDevices);
+        }
+
+        future.complete(userDevices);
+    }
+
+    void invalidate(Jid user) {
+        var simpleJid = user.toSimpleJid();
+        socketHandler.keys().removeDevices(simpleJid);
+        inFlight.remove(simpleJid);
+    }
+
+    private Map<Jid, List<Jid>> parseDevices(Node node) {
+        var results = new HashMap<Jid, List<Jid>>();
+        node.children()
+                .stream()
+                .map(child -> child.findChild("list"))
+                .flatMap(Optional::stream)
+                .map(Node::children)
+                .flatMap(Collection::stream)
+                .forEach(entry -> parseDevice(entry, results));
+        return results;
+    }
+
+    private void parseDevice(Node wrapper, Map<Jid, List<Jid>> results) {
+        var jid = wrapper.attributes()
+                .getRequiredJid("jid")
+                .toSimpleJid();
+        var devices = wrapper.findChild("devices")
+                .orElseThrow(() -> new NoSuchElementException("Missing devices"))
+                .findChild("device-list")
+                .orElseThrow(() -> new NoSuchElementException("Missing device list"))
+                .children();
+        if (devices.isEmpty()) {
+            results.put(jid, List.of(jid));
+            return;
+        }
+
+        var result = devices.stream()
+                .map(child -> parseDeviceId(child, jid))
+                .flatMap(Optional::stream)
+                .toList();
+        results.put(jid, result);
+    }
+
+    private Optional<Jid> parseDeviceId(Node child, Jid jid) {
+        if (!child.description().equals("device")) {
+            return Optional.empty();
+        }
+
+        var deviceId = child.attributes().getInt("id");
+        if (deviceId != 0 && !child.attributes().hasKey("key-index")) {
+            return Optional.empty();
+        }
+
+        return Optional.of(jid.withDevice(deviceId));
+    }
+}
@@ -0,0 +1,111 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.chat.CachedChatMetadata;
+import it.auties.whatsapp.model.chat.ChatMetadata;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.util.Clock;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+// The metadata of a group is kept until its ttl expires or a notification reports a change to the group
+// Concurrent queries for a group that isn't cached share a single request
+// Each invalidation bumps the generation of the group: a load that started before it can't cache its result, and later queries don't share it
+// If persistence is enabled, the entries live in the store, so that they survive a restart
+final class GroupMetadataCache {
+    private final SocketHandler socketHandler;
+    private final ConcurrentMap<Jid, CachedChatMetadata> memory;
+    private final ConcurrentMap<Jid, CompletableFuture<ChatMetadata>> loading;
+    private final ConcurrentMap<Jid, Long> generations;
+
+    GroupMetadataCache(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.memory = new ConcurrentHashMap<>();
+        this.loading = new ConcurrentHashMap<>();
+        this.generations = new ConcurrentHashMap<>();
+    }
+
+    CompletableFuture<ChatMetadata> get(Jid group, Function<Jid, CompletableFuture<ChatMetadata>> loader) {
+        var cached = entries().get(group);
+        if (cached != null && !isExpired(cached)) {
+            return CompletableFuture.completedFuture(cached.metadata());
+        }
+
+        var generation = generations.getOrDefault(group, 0L);
+        var future = new CompletableFuture<ChatMetadata>();
+        var existing = loading.putIfAbsent(group, future);
+        if (existing != null) {
+            return existing.copy();
+        }
+
+        CompletableFuture<ChatMetadata> load;
+        try {
+            load = loader.apply(group);
+        } catch (Throwable throwable) {
+            load = CompletableFuture.failedFuture(throwable);
+        }
+
+        load.whenComplete((result, error) -> {
+            loading.remove(group, future);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                put(result, generation);
+                future.complete(result);
+            }
+        });
+        return future.copy();
+    }
+
+    void put(ChatMetadata metadata) {
+        put(metadata, generations.getOrDefault(metadata.jid(), 0L));
+    }
+
+    // The generation is checked and the entry is added while holding the mapping of the group, so an invalidation can't happen in between
+    private void put(ChatMetadata metadata, long generation) {
+        if (socketHandler.store().chatMetadataTtl().isZero()) {
+            return;
+        }
+
+        generations.compute(metadata.jid(), (ignored, current) -> {
+            if (Objects.requireNonNullElse(current, 0L) == generation) {
+                entries().put(metadata.jid(), new CachedChatMetadata(metadata, Clock.nowMilliseconds()));
+                markChanged();
+            }
+
+            return current;
+        });
+    }
+
+    void invalidate(Jid group) {
+        generations.compute(group, (ignored, current) -> {
+            loading.remove(group);
+            if (entries().remove(group) != null) {
+                markChanged();
+            }
+
+            return current == null ? 1L : current + 1;
+        });
+    }
+
+    private boolean isExpired(CachedChatMetadata cached) {
+        var ttl = socketHandler.store().chatMetadataTtl().toMillis();
+        return Clock.nowMilliseconds() - cached.timestampMilliseconds() >= ttl;
+    }
+
+    private Map<Jid, CachedChatMetadata> entries() {
+        var store = socketHandler.store();
+        return store.persistChatMetadata() ? store.chatMetadataCache() : memory;
+    }
+
+    private void markChanged() {
+        var store = socketHandler.store();
+        if (store.persistChatMetadata()) {
+            store.markChanged();
+        }
+    }
+}
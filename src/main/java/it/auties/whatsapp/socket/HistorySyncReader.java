@@ -0,0 +1,193 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.protobuf.stream.ProtobufInputStream;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.chat.ChatSpec;
+import it.auties.whatsapp.model.chat.GroupPastParticipants;
+import it.auties.whatsapp.model.chat.GroupPastParticipantsSpec;
+import it.auties.whatsapp.model.info.ChatMessageInfo;
+import it.auties.whatsapp.model.info.ChatMessageInfoSpec;
+import it.auties.whatsapp.model.sync.HistorySync;
+import it.auties.whatsapp.model.sync.PushName;
+import it.auties.whatsapp.model.sync.PushNameSpec;
+
+import java.io.*;
+
+// A pull parser over an inflated HistorySync: each repeated entry is decoded only when it's reached,
+// so the caller can merge it and drop it before the next one is read instead of materializing the whole sync
+final class HistorySyncReader implements Closeable {
+    private static final int SYNC_TYPE_INDEX = 1;
+    private static final int CONVERSATIONS_INDEX = 2;
+    private static final int STATUS_INDEX = 3;
+    private static final int CHUNK_ORDER_INDEX = 5;
+    private static final int PROGRESS_INDEX = 6;
+    private static final int PUSH_NAMES_INDEX = 7;
+    private static final int PAST_PARTICIPANTS_INDEX = 12;
+
+    private static final int WIRE_TYPE_VAR_INT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private final InputStream stream;
+
+    HistorySyncReader(InputStream stream) {
+        this.stream = new BufferedInputStream(stream, 8192);
+    }
+
+    // Returns null when the stream is over
+    // Fields that the history sync handler doesn't use are skipped without being decoded
+    Entry next() throws IOException {
+        while (true) {
+            var tag = readVarInt(true);
+            if (tag == -1) {
+                return null;
+            }
+
+            var index = (int) (tag >>> 3);
+            var wireType = (int) (tag & 7);
+            switch (index) {
+                case SYNC_TYPE_INDEX -> {
+                    var type = readEnum(wireType);
+                    if (type != null) {
+                        return new Entry.Type(type);
+                    }
+                }
+                // Conversations are the bulk of a sync: they are left encoded, so that they can be decoded in parallel
+                case CONVERSATIONS_INDEX -> {
+                    return new Entry.Conversation(readMessage(wireType));
+                }
+                case STATUS_INDEX -> {
+                    var status = ChatMessageInfoSpec.decode(fromMessage(wireType));
+                    return new Entry.Status(status);
+                }
+                case CHUNK_ORDER_INDEX -> {
+                    return new Entry.ChunkOrder((int) readUnsignedInt(wireType));
+                }
+                case PROGRESS_INDEX -> {
+                    return new Entry.Progress((int) readUnsignedInt(wireType));
+                }
+                case PUSH_NAMES_INDEX -> {
+                    var pushName = PushNameSpec.decode(fromMessage(wireType));
+                    return new Entry.Name(pushName);
+                }
+                case PAST_PARTICIPANTS_INDEX -> {
+                    var participants = GroupPastParticipantsSpec.decode(fromMessage(wireType));
+                    return new Entry.PastParticipants(participants);
+                }
+                default -> skip(wireType);
+            }
+        }
+    }
+
+    private HistorySync.Type readEnum(int wireType) throws IOException {
+        var index = readUnsignedInt(wireType);
+        for (var type : HistorySync.Type.values()) {
+            if (type.index() == index) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    private long readUnsignedInt(int wireType) throws IOException {
+        if (wireType != WIRE_TYPE_VAR_INT) {
+            throw new IOException("Unexpected wire type: " + wireType);
+        }
+
+        return readVarInt(false);
+    }
+
+    private ProtobufInputStream fromMessage(int wireType) throws IOException {
+        var message = readMessage(wireType);
+        return ProtobufInputStream.fromBytes(message, 0, message.length);
+    }
+
+    private byte[] readMessage(int wireType) throws IOException {
+        if (wireType != WIRE_TYPE_LENGTH_DELIMITED) {
+            throw new IOException("Unexpected wire type: " + wireType);
+        }
+
+        var length = Math.toIntExact(readVarInt(false));
+        var result = stream.readNBytes(length);
+        if (result.length != length) {
+            throw new EOFException("Truncated history sync");
+        }
+
+        return result;
+    }
+
+    private void skip(int wireType) throws IOException {
+        var length = switch (wireType) {
+            case WIRE_TYPE_VAR_INT -> {
+                readVarInt(false);
+                yield 0L;
+            }
+            case WIRE_TYPE_FIXED64 -> Long.BYTES;
+            case WIRE_TYPE_LENGTH_DELIMITED -> readVarInt(false);
+            case WIRE_TYPE_FIXED32 -> Integer.BYTES;
+            default -> throw new IOException("Unexpected wire type: " + wireType);
+        };
+        stream.skipNBytes(length);
+    }
+
+    // Returns -1 if the stream is over before the first byte and the end of the stream is allowed
+    private long readVarInt(boolean allowEnd) throws IOException {
+        var result = 0L;
+        for (var shift = 0; shift < 64; shift += 7) {
+            var read = stream.read();
+            if (read == -1) {
+                if (allowEnd && shift == 0) {
+                    return -1;
+                }
+
+                throw new EOFException("Truncated history sync");
+            }
+
+            result |= (long) (read & 0x7F) << shift;
+            if ((read & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Malformed var int");
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    sealed interface Entry {
+        record Type(HistorySync.Type value) implements Entry {
+
+        }
+
+        record Conversation(byte[] encoded) implements Entry {
+            Chat decode() {
+                return ChatSpec.decode(ProtobufInputStream.fromBytes(encoded, 0, encoded.length));
+            }
+        }
+
+        record Status(ChatMessageInfo value) implements Entry {
+
+        }
+
+        record ChunkOrder(int value) implements Entry {
+
+        }
+
+        record Progress(int value) implements Entry {
+
+        }
+
+        record Name(PushName value) implements Entry {
+
+        }
+
+        record PastParticipants(GroupPastParticipants value) implements Entry {
+
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.Listener;
+import it.auties.whatsapp.api.ListenerEvent;
+import it.auties.whatsapp.api.ListenerOverflowPolicy;
+import it.auties.whatsapp.api.ListenerQueueMetrics;
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Each listener has a bounded queue of events, split in lanes by chat: a lane is drained by a single virtual thread,
+// so the events of a chat are handled in order while different chats are handled in parallel
+// Events that don't belong to a chat are barriers: they run after the chat events dispatched before them,
+// and the chat events dispatched after them wait for them to run
+final class ListenerDispatcher {
+    private static final Object GLOBAL_LANE = new Object();
+    private static final ThreadLocal<Boolean> DISPATCHING = ThreadLocal.withInitial(() -> false);
+
+    private final SocketHandler socketHandler;
+    private final ConcurrentMap<Listener, ListenerQueue> queues;
+
+    ListenerDispatcher(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    void dispatch(ListenerEvent event, Jid chatJid, MessageInfo<?> message, String coalesceKey, Consumer<Listener> consumer) {
+        var store = socketHandler.store();
+        for (var listener : store.listeners()) {
+            if (!listener.subscription().accepts(event, chatJid, message)) {
+                continue;
+            }
+
+            queues.computeIfAbsent(listener, ListenerQueue::new)
+                    .offer(chatJid, coalesceKey, consumer, store.listenerQueueCapacity(), store.listenerOverflowPolicy(), store.listenerBlockTimeout().toNanos());
+        }
+    }
+
+    ListenerQueueMetrics metrics(Listener listener) {
+        var capacity = socketHandler.store().listenerQueueCapacity();
+        var queue = queues.get(listener);
+        if (queue == null) {
+            return new ListenerQueueMetrics(0, capacity, 0, 0, 0);
+        }
+
+        return new ListenerQueueMetrics(queue.depth, capacity, queue.dispatched.sum(), queue.dropped.sum(), queue.coalesced.sum());
+    }
+
+    private final class ListenerQueue {
+        private final Listener listener;
+        private final ConcurrentMap<Object, Lane> lanes;
+        private final ReentrantLock lock;
+        private final Condition notFull;
+        private final LongAdder dispatched;
+        private final LongAdder dropped;
+        private final LongAdder coalesced;
+        private volatile int depth;
+        private Epoch epoch;
+
+        private ListenerQueue(Listener listener) {
+            this.listener = listener;
+            this.lanes = new ConcurrentHashMap<>();
+            this.lock = new ReentrantLock();
+            this.notFull = lock.newCondition();
+            this.dispatched = new LongAdder();
+            this.dropped = new LongAdder();
+            this.coalesced = new LongAdder();
+            this.epoch = new Epoch(CompletableFuture.completedFuture(null));
+        }
+
+        private void offer(Jid chatJid, String coalesceKey, Consumer<Listener> consumer, int capacity, ListenerOverflowPolicy policy, long timeoutNanos) {
+            var laneKey = chatJid != null ? chatJid : GLOBAL_LANE;
+            var event = new Event(coalesceKey, consumer);
+            if (!tryReserve(capacity)) {
+                switch (policy) {
+                    case DROP -> {
+                        dropped.increment();
+                        return;
+                    }
+                    case COALESCE -> {
+                        if (coalesceKey != null && coalesce(laneKey, event)) {
+                            coalesced.increment();
+                            return;
+                        }
+                    }
+                }
+
+                // A listener that triggers events can't wait for its own queue to drain
+                // A listener that doesn't make room in time gets the event over capacity: blocking never loses events
+                if (DISPATCHING.get() || !reserve(capacity, timeoutNanos)) {
+                    forceReserve();
+                }
+            }
+
+            enqueue(laneKey, event);
+        }
+
+        private boolean tryReserve(int capacity) {
+            lock.lock();
+            try {
+                if (depth >= capacity) {
+                    return false;
+                }
+
+                depth++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // The wait is bounded: the dispatching thread is usually the one that reads the socket,
+        // so a listener that waits for a response can only be unblocked once it's released
+        private boolean reserve(int capacity, long timeoutNanos) {
+            lock.lock();
+            try {
+                var remaining = timeoutNanos;
+                while (depth >= capacity) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    remaining = notFull.awaitNanos(remaining);
+                }
+
+                depth++;
+                return true;
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void forceReserve() {
+            lock.lock();
+            try {
+                depth++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            lock.lock();
+            try {
+                depth--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // A chat event waits for the barrier that precedes it, while a barrier waits for the chat events that precede it
+        private void awaitTurn(Object laneKey, Event event) {
+            if (laneKey == GLOBAL_LANE) {
+                event.previousEpoch.drained.join();
+            } else {
+                event.epoch.started.join();
+            }
+        }
+
+        private void completeTurn(Object laneKey, Event event) {
+            if (laneKey == GLOBAL_LANE) {
+                event.epoch.started.complete(null);
+                return;
+            }
+
+            var epoch = event.epoch;
+            lock.lock();
+            try {
+                if (--epoch.pending == 0 && epoch.closed) {
+                    epoch.drained.complete(null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean coalesce(Object laneKey, Event event) {
+            var lane = lanes.get(laneKey);
+            if (lane == null) {
+                return false;
+            }
+
+            synchronized (lane) {
+                if (lane.retired) {
+                    return false;
+                }
+
+                for (var pending : lane.events) {
+                    if (Objects.equals(pending.coalesceKey, event.coalesceKey)) {
+                        pending.consumer = event.consumer;
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+        }
+
+        // The epoch is assigned in the same order in which events are added to their lanes
+        private void enqueue(Object laneKey, Event event) {
+            lock.lock();
+            try {
+                assignEpoch(laneKey, event);
+                addToLane(laneKey, event);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void assignEpoch(Object laneKey, Event event) {
+            if (laneKey != GLOBAL_LANE) {
+                event.epoch = epoch;
+                epoch.pending++;
+                return;
+            }
+
+            var previous = epoch;
+            previous.closed = true;
+            if (previous.pending == 0) {
+                previous.drained.complete(null);
+            }
+
+            event.previousEpoch = previous;
+            event.epoch = this.epoch = new Epoch(new CompletableFuture<>());
+        }
+
+        private void addToLane(Object laneKey, Event event) {
+            while (true) {
+                var lane = lanes.computeIfAbsent(laneKey, ignored -> new Lane());
+                synchronized (lane) {
+                    if (lane.retired) {
+                        continue;
+                    }
+
+                    lane.events.add(event);
+                    if (lane.running) {
+                        return;
+                    }
+
+                    lane.running = true;
+                }
+
+                Thread.startVirtualThread(() -> drain(laneKey, lane));
+                return;
+            }
+        }
+
+        private void drain(Object laneKey, Lane lane) {
+            DISPATCHING.set(true);
+            while (true) {
+                Event event;
+                synchronized (lane) {
+                    event = lane.events.poll();
+                    if (event == null) {
+                        lane.running = false;
+                        lane.retired = true;
+                        lanes.remove(laneKey, lane);
+                        break;
+                    }
+                }
+
+                try {
+                    awaitTurn(laneKey, event);
+                    socketHandler.invokeListenerSafe(event.consumer, listener);
+                } finally {
+                    completeTurn(laneKey, event);
+                    dispatched.increment();
+                    release();
+                }
+            }
+
+            if (lanes.isEmpty() && !socketHandler.store().listeners().contains(listener)) {
+                queues.remove(listener, this);
+            }
+        }
+    }
+
+    private static final class Lane {
+        private final ArrayDeque<Event> events;
+        private boolean running;
+        private boolean retired;
+
+        private Lane() {
+            this.events = new ArrayDeque<>();
+        }
+    }
+
+    // The chat events dispatched between two barriers, guarded by the lock of their queue
+    private static final class Epoch {
+        private final CompletableFuture<Void> started;
+        private final CompletableFuture<Void> drained;
+        private int pending;
+        private boolean closed;
+
+        private Epoch(CompletableFuture<Void> started) {
+            this.started = started;
+            this.drained = new CompletableFuture<>();
+        }
+    }
+
+    private static final class Event {
+        private final String coalesceKey;
+        private volatile Consumer<Listener> consumer;
+        private Epoch epoch;
+        private Epoch previousEpoch;
+
+        private Event(String coalesceKey, Consumer<Listener> consumer) {
+            this.coalesceKey = coalesceKey;
+            this.consumer = consumer;
+        }
+    }
+}
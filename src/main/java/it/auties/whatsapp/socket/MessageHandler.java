@@ -15,6 +15,7 @@ import it.auties.whatsapp.model.chat.Chat;
 import it.auties.whatsapp.model.chat.ChatEphemeralTimer;
 import it.auties.whatsapp.model.chat.ChatMetadata;
 import it.auties.whatsapp.model.chat.ChatParticipant;
+import it.auties.whatsapp.model.chat.GroupPastParticipants;
 import it.auties.whatsapp.model.contact.Contact;
 import it.auties.whatsapp.model.contact.ContactStatus;
 import it.auties.whatsapp.model.info.*;
@@ -22,8 +23,6 @@ import it.auties.whatsapp.model.jid.Jid;
 import it.auties.whatsapp.model.jid.JidProvider;
 import it.auties.whatsapp.model.jid.JidServer;
 import it.auties.whatsapp.model.media.AttachmentType;
-import it.auties.whatsapp.model.media.MediaFile;
-import it.auties.whatsapp.model.media.MutableAttachmentProvider;
 import it.auties.whatsapp.model.message.button.*;
 import it.auties.whatsapp.model.message.model.*;
 import it.auties.whatsapp.model.message.payment.PaymentOrderMessage;
@@ -46,7 +45,7 @@ import it.auties.whatsapp.model.signal.message.SignalPreKeyMessage;
 import it.auties.whatsapp.model.signal.sender.SenderKeyName;
 import it.auties.whatsapp.model.sync.HistorySync;
 import it.auties.whatsapp.model.sync.HistorySyncNotification;
-import it.auties.whatsapp.model.sync.HistorySyncSpec;
+import it.auties.whatsapp.model.sync.HistorySyncBuilder;
 import it.auties.whatsapp.model.sync.PushName;
 import it.auties.whatsapp.util.*;
 
@@ -54,6 +53,7 @@ import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
@@ -63,8 +63,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -80,24 +81,43 @@ import static it.auties.whatsapp.util.SignalConstants.*;
 class MessageHandler {
     private static final int HISTORY_SYNC_MAX_TIMEOUT = 25;
     private static final Set<HistorySync.Type> REQUIRED_HISTORY_SYNC_TYPES = Set.of(HistorySync.Type.INITIAL_BOOTSTRAP, HistorySync.Type.PUSH_NAME, HistorySync.Type.NON_BLOCKING_DATA);
+    private static final int SIGNAL_LOCK_STRIPES = 64;
+    private static final int PARALLEL_ENCRYPTION_THRESHOLD = 16;
+    private static final int HISTORY_SYNC_MERGE_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int HISTORY_SYNC_MAX_PENDING_MERGES = HISTORY_SYNC_MERGE_PARALLELISM * 2;
+    private static final int HISTORY_SYNC_LOCK_STRIPES = 64;
 
     private final SocketHandler socketHandler;
-    private final Map<Jid, CopyOnWriteArrayList<Jid>> devicesCache;
+    private final DeviceListCache devicesCache;
+    private final SessionFetcher sessionFetcher;
     private final Set<Jid> historyCache;
-    private final ReentrantLock lock;
+    private final ReentrantLock[] signalLocks;
     private final HistorySyncProgressTracker recentHistorySyncTracker;
     private final HistorySyncProgressTracker fullHistorySyncTracker;
     private final Set<HistorySync.Type> historySyncTypes;
+    private final ForkJoinPool historySyncMergePool;
+    private final Semaphore historySyncMergePermits;
+    private final ReentrantLock[] historySyncLocks;
     private ScheduledFuture<?> historySyncTask;
 
     protected MessageHandler(SocketHandler socketHandler) {
         this.socketHandler = socketHandler;
-        this.devicesCache = new ConcurrentHashMap<>();
+        this.devicesCache = new DeviceListCache(socketHandler);
+        this.sessionFetcher = new SessionFetcher(socketHandler, this::parseSession);
         this.historyCache = ConcurrentHashMap.newKeySet();
         this.historySyncTypes = ConcurrentHashMap.newKeySet();
-        this.lock = new ReentrantLock(true);
+        this.signalLocks = new ReentrantLock[SIGNAL_LOCK_STRIPES];
+        for (var i = 0; i < signalLocks.length; i++) {
+            signalLocks[i] = new ReentrantLock(true);
+        }
         this.recentHistorySyncTracker = new HistorySyncProgressTracker();
         this.fullHistorySyncTracker = new HistorySyncProgressTracker();
+        this.historySyncMergePool = new ForkJoinPool(HISTORY_SYNC_MERGE_PARALLELISM);
+        this.historySyncMergePermits = new Semaphore(HISTORY_SYNC_MAX_PENDING_MERGES);
+        this.historySyncLocks = new ReentrantLock[HISTORY_SYNC_LOCK_STRIPES];
+        for (var i = 0; i < historySyncLocks.length; i++) {
+            historySyncLocks[i] = new ReentrantLock();
+        }
     }
 
     protected CompletableFuture<Void> encode(MessageRequest request) {
@@ -110,15 +130,10 @@ class MessageHandler {
     private CompletableFuture<Void> encodeChatMessage(MessageRequest.Chat request) {
         return prepareOutgoingChatMessage(request.info())
                 .thenComposeAsync(ignored -> {
-                    try {
-                        lock.lock();
-                        if (request.peer() || isConversation(request.info())) {
-                            return encodeConversation(request);
-                        }else {
-                            return encodeGroup(request);
-                        }
-                    } finally {
-                        lock.unlock();
+                    if (request.peer() || isConversation(request.info())) {
+                        return encodeConversation(request);
+                    }else {
+                        return encodeGroup(request);
                     }
                 })
                 .thenRunAsync(() -> {
@@ -136,6 +151,16 @@ class MessageHandler {
                 });
     }
 
+    // Uploads the media, or resolves the link preview, of a message that is sent to many chats, which can't be newsletters, only once:
+    // the copies of the message that are sent afterwards carry the result, so they aren't attributed again
+    CompletableFuture<Void> prepareSharedMessage(MessageContainer message) {
+        return switch (message.content()) {
+            case MediaMessage<?> mediaMessage -> attributeMediaMessage(mediaMessage, mediaMessage.attachmentType());
+            case TextMessage textMessage -> attributeTextMessage(textMessage);
+            default -> CompletableFuture.completedFuture(null);
+        };
+    }
+
     private CompletableFuture<Void> prepareOutgoingChatMessage(MessageInfo<?> messageInfo) {
         var result = switch (messageInfo.message().content()) {
             case MediaMessage<?> mediaMessage -> attributeMediaMessage(messageInfo.parentJid(), mediaMessage);
@@ -183,8 +208,9 @@ class MessageHandler {
         contextInfo.setEphemeralExpiration((int) period);
     }
 
+    // A text whose preview was already resolved, for example because it's a copy of a shared message, keeps it
     private CompletableFuture<Void> attributeTextMessage(TextMessage textMessage) {
-        if (socketHandler.store().textPreviewSetting() == TextPreviewSetting.DISABLED) {
+        if (socketHandler.store().textPreviewSetting() == TextPreviewSetting.DISABLED || textMessage.matchedText().isPresent()) {
             return CompletableFuture.completedFuture(null);
         }
 
@@ -223,7 +249,7 @@ class MessageHandler {
                 .proxy()
                 .filter(ignored -> socketHandler.store().mediaProxySetting().allowsDownloads())
                 .orElse(null);
-        return imageThumbnail.map(data -> Medias.downloadAsync(data.uri(), proxy)
+        return imageThumbnail.map(data -> Medias.downloadAsync(data.uri(), socketHandler.store().httpClients(), proxy)
                         .thenAccept(textMessage::setThumbnail))
                 .orElseGet(() -> CompletableFuture.completedFuture(null));
     }
@@ -233,9 +259,23 @@ class MessageHandler {
     }
 
     private CompletableFuture<Void> attributeMediaMessage(Jid chatJid, MediaMessage<?> mediaMessage) {
+        return attributeMediaMessage(mediaMessage, getAttachmentType(chatJid, mediaMessage));
+    }
+
+    // A media that was already attached with MediaMessage#setMediaFile isn't uploaded again, while a file is uploaded as a stream
+    private CompletableFuture<Void> attributeMediaMessage(MediaMessage<?> mediaMessage, AttachmentType attachmentType) {
         var media = mediaMessage.decodedMedia()
-                .orElseThrow(() -> new IllegalArgumentException("Missing media to upload"));
-        var attachmentType = getAttachmentType(chatJid, mediaMessage);
+                .orElse(null);
+        var mediaFile = mediaMessage.decodedMediaFile()
+                .orElse(null);
+        if (media == null && mediaFile == null) {
+            if (mediaMessage.mediaDirectPath().isPresent()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            throw new IllegalArgumentException("Missing media to upload");
+        }
+
         var mediaConnection = socketHandler.store().mediaConnection();
         var userAgent = socketHandler.store()
                 .device()
@@ -245,8 +285,10 @@ class MessageHandler {
                 .proxy()
                 .filter(ignored -> socketHandler.store().mediaProxySetting().allowsUploads())
                 .orElse(null);
-        return Medias.upload(media, attachmentType, mediaConnection, proxy, userAgent)
-                .thenAccept(upload -> attributeMediaMessage(mediaMessage, upload));
+        var upload = media != null
+                ? Medias.upload(media, attachmentType, mediaConnection, socketHandler.store().httpClients(), proxy, userAgent)
+                : Medias.upload(mediaFile, attachmentType, mediaConnection, socketHandler.store().httpClients(), proxy, userAgent);
+        return upload.thenAccept(mediaMessage::setMediaFile);
     }
 
     private AttachmentType getAttachmentType(Jid chatJid, MediaMessage<?> mediaMessage) {
@@ -265,20 +307,6 @@ class MessageHandler {
     }
 
 
-    private void attributeMediaMessage(MutableAttachmentProvider<?> attachmentProvider, MediaFile upload) {
-        if (attachmentProvider instanceof MediaMessage<?> mediaMessage) {
-            mediaMessage.setHandle(upload.handle());
-        }
-
-        attachmentProvider.setMediaSha256(upload.fileSha256())
-                .setMediaEncryptedSha256(upload.fileEncSha256())
-                .setMediaKey(upload.mediaKey())
-                .setMediaUrl(upload.url())
-                .setMediaKeyTimestamp(upload.timestamp())
-                .setMediaDirectPath(upload.directPath())
-                .setMediaSize(upload.fileLength());
-    }
-
     private CompletableFuture<Void> attributePollCreationMessage(ChatMessageInfo info, PollCreationMessage pollCreationMessage) {
         var pollEncryptionKey = pollCreationMessage.encryptionKey()
                 .orElseGet(() -> Bytes.random(32));
@@ -466,9 +494,17 @@ class MessageHandler {
 
         var senderName = new SenderKeyName(request.info().chatJid().toString(), sender.toSignalAddress());
         var groupBuilder = new GroupBuilder(socketHandler.keys());
-        var signalMessage = groupBuilder.createOutgoing(senderName);
         var groupCipher = new GroupCipher(senderName, socketHandler.keys());
-        var groupMessage = groupCipher.encrypt(encodedMessage);
+        byte[] signalMessage;
+        CipheredMessageResult groupMessage;
+        var lock = signalLock(senderName);
+        lock.lock();
+        try {
+            signalMessage = groupBuilder.createOutgoing(senderName);
+            groupMessage = groupCipher.encrypt(encodedMessage);
+        } finally {
+            lock.unlock();
+        }
         var messageNode = createMessageNode(request, groupMessage);
         if (request.hasRecipientOverride()) {
             return queryDevices(request.recipients(), false)
@@ -634,31 +670,38 @@ class MessageHandler {
     }
 
     protected CompletableFuture<Void> querySessions(Collection<Jid> contacts, boolean force) {
-        var missingSessions = contacts.stream()
-                .filter(contact -> force || !socketHandler.keys().hasSession(contact.toSignalAddress()))
-                .map(contact -> Node.of("user", Map.of("jid", contact)))
-                .toList();
-        return missingSessions.isEmpty() ? CompletableFuture.completedFuture(null) : querySession(missingSessions);
-    }
-
-    private CompletableFuture<Void> querySession(List<Node> children) {
-        return socketHandler.sendQuery("get", "encrypt", Node.of("key", children))
-                .thenAcceptAsync(this::parseSessions);
+        return sessionFetcher.fetch(contacts, force);
     }
 
+    // Each device has its own session, so large fan-outs are ciphered in parallel: toList keeps the nodes in the order of the devices
     private List<Node> createMessageNodes(MessageRequest.Chat request, List<Jid> contacts, byte[] message) {
-        return contacts.stream()
-                .map(contact -> createMessageNode(request, contact, message, false))
+        var devices = contacts.size() < PARALLEL_ENCRYPTION_THRESHOLD ? contacts.stream() : contacts.parallelStream();
+        return devices.map(contact -> createMessageNode(request, contact, message, false))
                 .toList();
     }
 
     private Node createMessageNode(MessageRequest.Chat request, Jid contact, byte[] message, boolean peer) {
-        var cipher = new SessionCipher(contact.toSignalAddress(), socketHandler.keys());
-        var encrypted = cipher.encrypt(message);
+        var address = contact.toSignalAddress();
+        var cipher = new SessionCipher(address, socketHandler.keys());
+        CipheredMessageResult encrypted;
+        var lock = signalLock(address);
+        lock.lock();
+        try {
+            encrypted = cipher.encrypt(message);
+        } finally {
+            lock.unlock();
+        }
+
         var messageNode = createMessageNode(request, encrypted);
         return peer ? messageNode : Node.of("to", Map.of("jid", contact), messageNode);
     }
 
+    // Signal state is only mutated under the lock of its address, so different sessions and sender keys can be ciphered concurrently
+    private ReentrantLock signalLock(Object address) {
+        var hash = address.hashCode();
+        return signalLocks[(hash ^ (hash >>> 16)) & (SIGNAL_LOCK_STRIPES - 1)];
+    }
+
     private CompletableFuture<List<Jid>> getGroupDevices(ChatMetadata metadata) {
         var jids = metadata.participants()
                 .stream()
@@ -668,74 +711,16 @@ class MessageHandler {
     }
 
     protected CompletableFuture<List<Jid>> queryDevices(Collection<Jid> contacts, boolean excludeSelf) {
-        var cachedDevices = contacts.stream()
-                .map(devicesCache::get)
-                .filter(Objects::nonNull)
-                .flatMap(Collection::stream)
+        var users = contacts.stream()
                 .filter(entry -> !excludeSelf || !isMe(entry))
                 .toList();
-        var contactNodes = contacts.stream()
-                .filter(entry -> !devicesCache.containsKey(entry) && (!excludeSelf || !isMe(entry)))
-                .map(contact -> Node.of("user", Map.of("jid", contact)))
-                .toList();
-        if(contactNodes.isEmpty()) {
-            return CompletableFuture.completedFuture(cachedDevices);
-        }
-
-        var body = Node.of("usync",
-                Map.of("context", "message", "index", "0", "last", "true", "mode", "query", "sid", SocketHandler.randomSid()),
-                Node.of("query", Node.of("devices", Map.of("version", "2"))),
-                Node.of("list", contactNodes));
-        return socketHandler.sendQuery("get", "usync", body)
-                .thenApplyAsync(result -> toSingleList(cachedDevices, parseDevices(result, excludeSelf)));
-    }
-
-    private List<Jid> parseDevices(Node node, boolean excludeSelf) {
-        return node.children()
-                .stream()
-                .map(child -> child.findChild("list"))
-                .flatMap(Optional::stream)
-                .map(Node::children)
-                .flatMap(Collection::stream)
-                .map(entry -> parseDevice(entry, excludeSelf))
-                .flatMap(Collection::stream)
-                .toList();
-    }
-
-    private List<Jid> parseDevice(Node wrapper, boolean excludeSelf) {
-        var jid = wrapper.attributes().getRequiredJid("jid");
-        var devices = wrapper.findChild("devices")
-                .orElseThrow(() -> new NoSuchElementException("Missing devices"))
-                .findChild("device-list")
-                .orElseThrow(() -> new NoSuchElementException("Missing device list"))
-                .children();
-        if(devices.isEmpty()) {
-            return excludeSelf && isMe(jid) ? List.of() : List.of(jid);
-        }
-
-        return devices.stream()
-                .map(child -> parseDeviceId(child, jid, excludeSelf))
-                .flatMap(Optional::stream)
-                .toList();
+        return devicesCache.query(users).thenApply(devices -> devices.stream()
+                .filter(entry -> !excludeSelf || !isMe(entry))
+                .toList());
     }
 
-    private Optional<Jid> parseDeviceId(Node child, Jid jid, boolean excludeSelf) {
-        var deviceId = child.attributes().getInt("id");
-        if(!child.description().equals("device")) {
-            return Optional.empty();
-        }
-
-        if(deviceId != 0 && !child.attributes().hasKey("key-index")) {
-            return Optional.empty();
-        }
-
-        var result = jid.withDevice(deviceId);
-        cacheDevice(result);
-        if(excludeSelf && isMe(result)) {
-            return Optional.empty();
-        }
-
-        return Optional.of(jid.withDevice(deviceId));
+    protected void invalidateDevices(Jid user) {
+        devicesCache.invalidate(user);
     }
 
     private boolean isMe(Jid jid) {
@@ -747,18 +732,6 @@ class MessageHandler {
         return jid.user().equals(self.user()) && Objects.equals(self.device(), jid.device());
     }
 
-    private void cacheDevice(Jid jid) {
-        var cachedDevices = devicesCache.get(jid.toSimpleJid());
-        if(cachedDevices != null) {
-            cachedDevices.add(jid);
-            return;
-        }
-
-        var devices = new CopyOnWriteArrayList<Jid>();
-        devices.add(jid);
-        devicesCache.put(jid.toSimpleJid(), devices);
-    }
-
     protected void parseSessions(Node node) {
         if(node == null) {
             return;
@@ -789,8 +762,15 @@ class MessageHandler {
         var key = node.findChild("key")
                 .flatMap(SignalSignedKeyPair::of)
                 .orElse(null);
-        var builder = new SessionBuilder(jid.toSignalAddress(), socketHandler.keys());
-        builder.createOutgoing(registrationId, identity, signedKey, key);
+        var address = jid.toSignalAddress();
+        var builder = new SessionBuilder(address, socketHandler.keys());
+        var lock = signalLock(address);
+        lock.lock();
+        try {
+            builder.createOutgoing(registrationId, identity, signedKey, key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void decode(Node node, JidProvider chatOverride, boolean notify) {
@@ -1081,7 +1061,7 @@ class MessageHandler {
             var participant = fromMe && senderJid == null ? chatJid : senderJid;
             var category = infoNode.attributes().getString("category");
             var receiptType = getReceiptType(category, fromMe);
-            return socketHandler.sendReceipt(chatJid, participant, List.of(id), receiptType);
+            return socketHandler.queueReceipt(chatJid, participant, id, receiptType);
         });
     }
 
@@ -1103,27 +1083,46 @@ class MessageHandler {
 
     private MessageContainer decodeMessageBytes(String type, byte[] encodedMessage, Jid from, Jid participant) {
         try {
-            lock.lock();
             var result = switch (type) {
                 case SKMSG -> {
                     Objects.requireNonNull(participant, "Cannot decipher skmsg without participant");
                     var senderName = new SenderKeyName(from.toString(), participant.toSignalAddress());
                     var signalGroup = new GroupCipher(senderName, socketHandler.keys());
-                    yield signalGroup.decrypt(encodedMessage);
+                    var lock = signalLock(senderName);
+                    lock.lock();
+                    try {
+                        yield signalGroup.decrypt(encodedMessage);
+                    } finally {
+                        lock.unlock();
+                    }
                 }
                 case PKMSG -> {
                     var user = from.hasServer(JidServer.whatsapp()) ? from : participant;
                     Objects.requireNonNull(user, "Cannot decipher pkmsg without user");
-                    var session = new SessionCipher(user.toSignalAddress(), socketHandler.keys());
+                    var address = user.toSignalAddress();
+                    var session = new SessionCipher(address, socketHandler.keys());
                     var preKey = SignalPreKeyMessage.ofSerialized(encodedMessage);
-                    yield session.decrypt(preKey);
+                    var lock = signalLock(address);
+                    lock.lock();
+                    try {
+                        yield session.decrypt(preKey);
+                    } finally {
+                        lock.unlock();
+                    }
                 }
                 case MSG -> {
                     var user = from.hasServer(JidServer.whatsapp()) ? from : participant;
                     Objects.requireNonNull(user, "Cannot decipher msg without user");
-                    var session = new SessionCipher(user.toSignalAddress(), socketHandler.keys());
+                    var address = user.toSignalAddress();
+                    var session = new SessionCipher(address, socketHandler.keys());
                     var signalMessage = SignalMessage.ofSerialized(encodedMessage);
-                    yield session.decrypt(signalMessage);
+                    var lock = signalLock(address);
+                    lock.lock();
+                    try {
+                        yield session.decrypt(signalMessage);
+                    } finally {
+                        lock.unlock();
+                    }
                 }
                 default -> throw new IllegalArgumentException("Unsupported encoded message type: %s".formatted(type));
             };
@@ -1133,8 +1132,6 @@ class MessageHandler {
         } catch (Throwable throwable) {
             socketHandler.handleFailure(MESSAGE, throwable);
             return MessageContainer.empty();
-        }finally {
-            lock.unlock();
         }
     }
 
@@ -1195,7 +1192,13 @@ class MessageHandler {
         var groupName = new SenderKeyName(distributionMessage.groupId(), from.toSignalAddress());
         var builder = new GroupBuilder(socketHandler.keys());
         var message = SignalDistributionMessage.ofSerialized(distributionMessage.data());
-        builder.createIncoming(groupName, message);
+        var lock = signalLock(groupName);
+        lock.lock();
+        try {
+            builder.createIncoming(groupName, message);
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void handleProtocolMessage(ChatMessageInfo info, ProtocolMessage protocolMessage) {
@@ -1271,7 +1274,7 @@ class MessageHandler {
         if(initialPayload.isPresent()) {
             var inflater = new Inflater();
             try(var stream = new InflaterInputStream(Streams.newInputStream(initialPayload.get()), inflater, 8192)) {
-                var sync = HistorySyncSpec.decode(ProtobufInputStream.fromStream(stream));
+                var sync = readHistorySync(stream);
                 return CompletableFuture.completedFuture(sync);
             }catch (IOException exception) {
                 return CompletableFuture.failedFuture(exception);
@@ -1282,10 +1285,10 @@ class MessageHandler {
                 .proxy()
                 .filter(ignored -> socketHandler.store().mediaProxySetting().allowsDownloads())
                 .orElse(null);
-        return Medias.downloadAsync(notification, proxy, mediaStream -> {
+        return Medias.downloadAsync(notification, socketHandler.store().httpClients(), proxy, mediaStream -> {
             var inflater = new Inflater();
             try(var stream = new InflaterInputStream(mediaStream, inflater, 8192)) {
-                return HistorySyncSpec.decode(ProtobufInputStream.fromStream(stream));
+                return readHistorySync(stream);
             }catch (Exception exception) {
                 throw new RuntimeException("Cannot decode history sync", exception);
             }
@@ -1298,19 +1301,19 @@ class MessageHandler {
         }
 
         handleHistorySync(history);
+        socketHandler.onHistorySyncChunk(history);
         if (history.progress() == null) {
             return;
         }
 
+        // Chunks can complete out of order, so the progress is reported only once every chunk up to the last one was merged
         var recent = history.syncType() == HistorySync.Type.RECENT;
         if(recent) {
-            recentHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100);
-            if(recentHistorySyncTracker.isDone()) {
+            if(recentHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100)) {
                 socketHandler.onHistorySyncProgress(history.progress(), true);
             }
         }else {
-            fullHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100);
-            if(fullHistorySyncTracker.isDone()) {
+            if(fullHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100)) {
                 socketHandler.onHistorySyncProgress(history.progress(), false);
             }
         }
@@ -1322,29 +1325,76 @@ class MessageHandler {
         socketHandler.onMessageDeleted(message, true);
     }
 
-    private void handleHistorySync(HistorySync history) {
-        switch (history.syncType()) {
-            case INITIAL_STATUS_V3 -> handleInitialStatus(history);
-            case PUSH_NAME -> handlePushNames(history);
-            case INITIAL_BOOTSTRAP -> handleInitialBootstrap(history);
-            case FULL -> handleChatsSync(history, false);
-            case RECENT -> handleChatsSync(history, true);
-            case NON_BLOCKING_DATA -> handleNonBlockingData(history);
+    // Each entry is merged into the store as soon as it's decoded, so only one conversation is in memory at a time
+    // The returned sync only references what was merged, so that the chunk can still be completed and published
+    private HistorySync readHistorySync(InputStream stream) throws IOException {
+        try(var reader = new HistorySyncReader(stream)) {
+            var chunk = new HistorySyncChunk();
+            HistorySyncReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                switch (entry) {
+                    case HistorySyncReader.Entry.Type type -> {
+                        chunk.type = type.value();
+                        chunk.pending.forEach(pending -> handleHistorySyncEntry(chunk, pending));
+                        chunk.pending.clear();
+                    }
+                    case HistorySyncReader.Entry.ChunkOrder chunkOrder -> chunk.chunkOrder = chunkOrder.value();
+                    case HistorySyncReader.Entry.Progress progress -> chunk.progress = progress.value();
+                    default -> {
+                        // The type is the first field that Whatsapp writes, but the protobuf encoding doesn't guarantee it
+                        if (chunk.type == null) {
+                            chunk.pending.add(entry);
+                        } else {
+                            handleHistorySyncEntry(chunk, entry);
+                        }
+                    }
+                }
+            }
+
+            if (chunk.type == null) {
+                throw new IOException("Missing history sync type");
+            }
+
+            return chunk.toHistorySync();
         }
     }
 
-    private void handleInitialStatus(HistorySync history) {
-        for (var messageInfo : history.statusV3Messages()) {
-            socketHandler.store().addStatus(messageInfo);
+    private void handleHistorySyncEntry(HistorySyncChunk chunk, HistorySyncReader.Entry entry) {
+        switch (entry) {
+            case HistorySyncReader.Entry.Status status when chunk.type == HistorySync.Type.INITIAL_STATUS_V3 -> {
+                socketHandler.store().addStatus(status.value());
+                chunk.status.add(status.value());
+            }
+            case HistorySyncReader.Entry.Name pushName when chunk.type == HistorySync.Type.PUSH_NAME -> {
+                handNewPushName(pushName.value());
+                chunk.pushNames.add(pushName.value());
+            }
+            case HistorySyncReader.Entry.Conversation conversation when chunk.type == HistorySync.Type.INITIAL_BOOTSTRAP -> {
+                var cache = !socketHandler.store().webHistorySetting().isZero();
+                chunk.conversations.add(handleConversationAsync(conversation, cache));
+            }
+            case HistorySyncReader.Entry.Conversation conversation when chunk.type == HistorySync.Type.FULL || chunk.type == HistorySync.Type.RECENT -> {
+                if (!socketHandler.store().webHistorySetting().isZero()) {
+                    chunk.conversations.add(handleConversationAsync(conversation, false));
+                }
+            }
+            case HistorySyncReader.Entry.PastParticipants pastParticipants when chunk.type == HistorySync.Type.NON_BLOCKING_DATA -> {
+                socketHandler.addPastParticipant(pastParticipants.value().groupJid(), pastParticipants.value().pastParticipants());
+                chunk.pastParticipants.add(pastParticipants.value());
+            }
+            default -> {}
         }
-        socketHandler.onStatus();
     }
 
-    private void handlePushNames(HistorySync history) {
-        for (var pushName : history.pushNames()) {
-            handNewPushName(pushName);
+    private void handleHistorySync(HistorySync history) {
+        switch (history.syncType()) {
+            case INITIAL_STATUS_V3 -> socketHandler.onStatus();
+            case PUSH_NAME -> socketHandler.onContacts();
+            case INITIAL_BOOTSTRAP -> socketHandler.onChats();
+            case FULL -> handleChatsSync(history, false);
+            case RECENT -> handleChatsSync(history, true);
+            case NON_BLOCKING_DATA -> {}
         }
-        socketHandler.onContacts();
     }
 
     private void handNewPushName(PushName pushName) {
@@ -1354,6 +1404,7 @@ class MessageHandler {
                 .orElseGet(() -> createNewContact(jid));
         pushName.name()
                 .ifPresent(contact::setChosenName);
+        socketHandler.store().markChanged();
         var action = new ContactActionBuilder()
                 .firstName(pushName.name().orElse(null))
                 .build();
@@ -1371,25 +1422,11 @@ class MessageHandler {
         return contact;
     }
 
-    private void handleInitialBootstrap(HistorySync history) {
-        if (!socketHandler.store().webHistorySetting().isZero()) {
-            var jids = history.conversations()
-                    .stream()
-                    .map(Chat::jid)
-                    .toList();
-            historyCache.addAll(jids);
-        }
-
-        handleConversations(history);
-        socketHandler.onChats();
-    }
-
     private void handleChatsSync(HistorySync history, boolean recent) {
         if (socketHandler.store().webHistorySetting().isZero()) {
             return;
         }
 
-        handleConversations(history);
         handleConversationsNotifications(history, recent);
         scheduleHistorySyncTimeout();
     }
@@ -1441,19 +1478,35 @@ class MessageHandler {
     }
 
 
-    private void handleConversations(HistorySync history) {
-        for (var chat : history.conversations()) {
-            for (var message : chat.messages()) {
-                attributeChatMessage(message.messageInfo());
-            }
+    // Conversations are decoded and merged on all cores while the reader inflates the next ones
+    // The permits bound how many encoded conversations can wait, so that memory doesn't grow with the size of the sync
+    private CompletableFuture<Chat> handleConversationAsync(HistorySyncReader.Entry.Conversation conversation, boolean cache) {
+        historySyncMergePermits.acquireUninterruptibly();
+        return CompletableFuture.supplyAsync(() -> handleConversation(conversation.decode(), cache), historySyncMergePool)
+                .whenComplete((ignored, throwable) -> historySyncMergePermits.release());
+    }
 
-            socketHandler.store().addChat(chat);
+    // The same chat can be part of different chunks that are merged concurrently, so merges of a chat are serialized by its lock
+    private Chat handleConversation(Chat chat, boolean cache) {
+        if (cache) {
+            historyCache.add(chat.jid());
         }
-    }
 
-    private void handleNonBlockingData(HistorySync history) {
-        for (var pastParticipants : history.pastParticipants()) {
-            socketHandler.addPastParticipant(pastParticipants.groupJid(), pastParticipants.pastParticipants());
+        // The messages point to the chat of the conversation, which replaces the one in the store, if any
+        for (var message : chat.messages()) {
+            attributeChatMessage(message.messageInfo(), chat);
+        }
+
+        var hash = chat.jid().toSimpleJid().hashCode();
+        var lock = historySyncLocks[(hash ^ (hash >>> 16)) & (HISTORY_SYNC_LOCK_STRIPES - 1)];
+        lock.lock();
+        try {
+            socketHandler.store().addChat(chat);
+            return socketHandler.store()
+                    .findChatByJid(chat.jid())
+                    .orElse(chat);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -1499,6 +1552,10 @@ class MessageHandler {
     protected void attributeChatMessage(ChatMessageInfo info) {
         var chat = socketHandler.store().findChatByJid(info.chatJid())
                 .orElseGet(() -> socketHandler.store().addNewChat(info.chatJid()));
+        attributeChatMessage(info, chat);
+    }
+
+    private void attributeChatMessage(ChatMessageInfo info, Chat chat) {
         info.setChat(chat);
         var me = socketHandler.store().jid().orElse(null);
         if (info.fromMe() && me != null) {
@@ -1585,6 +1642,7 @@ class MessageHandler {
                     .build();
             info.pollUpdates()
                     .add(update);
+            info.markChanged();
         } catch (GeneralSecurityException exception) {
             throw new RuntimeException("Cannot decrypt poll update", exception);
         }
@@ -1593,7 +1651,10 @@ class MessageHandler {
     private void handleReactionMessage(ChatMessageInfo info, ReactionMessage reactionMessage) {
         info.setIgnore(true);
         socketHandler.store().findMessageByKey(reactionMessage.key())
-                .ifPresent(message -> message.reactions().add(reactionMessage));
+                .ifPresent(message -> {
+                    message.reactions().add(reactionMessage);
+                    message.markChanged();
+                });
     }
 
     protected void dispose() {
@@ -1607,6 +1668,38 @@ class MessageHandler {
         historySyncTypes.clear();
     }
 
+    private static final class HistorySyncChunk {
+        private final List<HistorySyncReader.Entry> pending;
+        private final List<CompletableFuture<Chat>> conversations;
+        private final List<ChatMessageInfo> status;
+        private final List<PushName> pushNames;
+        private final List<GroupPastParticipants> pastParticipants;
+        private HistorySync.Type type;
+        private int chunkOrder;
+        private Integer progress;
+
+        private HistorySyncChunk() {
+            this.pending = new ArrayList<>();
+            this.conversations = new ArrayList<>();
+            this.status = new ArrayList<>();
+            this.pushNames = new ArrayList<>();
+            this.pastParticipants = new ArrayList<>();
+        }
+
+        private HistorySync toHistorySync() {
+            return new HistorySyncBuilder()
+                    .syncType(type)
+                    .conversations(conversations.stream().map(CompletableFuture::join).toList())
+                    .statusV3Messages(status)
+                    .chunkOrder(chunkOrder)
+                    .progress(progress)
+                    .pushNames(pushNames)
+                    .recentStickers(List.of())
+                    .pastParticipants(pastParticipants)
+                    .build();
+        }
+    }
+
     private static class HistorySyncProgressTracker {
         private final BitSet chunksMarker;
         private final AtomicInteger chunkEnd;
@@ -1615,21 +1708,22 @@ class MessageHandler {
             this.chunkEnd = new AtomicInteger(0);
         }
 
-        private boolean isDone() {
-            var chunkEnd = this.chunkEnd.get();
-            return chunkEnd > 0 && IntStream.range(0, chunkEnd)
-                    .allMatch(chunksMarker::get);
-        }
-
-        private void commit(int chunk, boolean finished) {
+        private synchronized boolean commit(int chunk, boolean finished) {
             if(finished) {
                 chunkEnd.set(chunk);
             }
 
             chunksMarker.set(chunk);
+            return isDone();
+        }
+
+        private boolean isDone() {
+            var chunkEnd = this.chunkEnd.get();
+            return chunkEnd > 0 && IntStream.range(0, chunkEnd)
+                    .allMatch(chunksMarker::get);
         }
 
-        private void clear() {
+        private synchronized void clear() {
             chunksMarker.clear();
             chunkEnd.set(0);
         }
@@ -0,0 +1,114 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Receipts with the same chat, participant and type are sent as a single receipt node, where every message after the first is an item
+// A batch is sent when the batch window after its first receipt elapses, or as soon as it reaches the maximum size
+final class ReceiptAggregator {
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+
+    private final SocketHandler socketHandler;
+    private final ConcurrentMap<Key, Batch> batches;
+
+    ReceiptAggregator(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.batches = new ConcurrentHashMap<>();
+    }
+
+    CompletableFuture<Void> add(Jid chat, Jid participant, String id, String type) {
+        var window = socketHandler.store().receiptBatchWindow();
+        var maxSize = socketHandler.store().maxReceiptBatchSize();
+        if (window.isZero() || maxSize <= 1) {
+            return socketHandler.sendReceipt(chat, participant, List.of(id), type);
+        }
+
+        var key = new Key(chat, participant, type);
+        while (true) {
+            var batch = batches.computeIfAbsent(key, ignored -> new Batch());
+            var size = batch.add(id);
+            if (size == -1) {
+                // The batch was sent while this receipt was being added
+                continue;
+            }
+
+            if (size == 1) {
+                CompletableFuture.delayedExecutor(window.toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> flush(key, batch));
+            } else if (size >= maxSize) {
+                flush(key, batch);
+            }
+
+            return batch.result;
+        }
+    }
+
+    // Called before the session is closed, so that the receipts that are still waiting aren't lost
+    // The result completes when every batch was written, or failed to be, but waits at most FLUSH_TIMEOUT for a socket that doesn't accept writes
+    CompletableFuture<Void> flushAll() {
+        var results = new ArrayList<CompletableFuture<Void>>();
+        batches.forEach((key, batch) -> results.add(flush(key, batch).exceptionally(ignored -> null)));
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .completeOnTimeout(null, FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Returns the result of the batch, which is already being sent if it was flushed before
+    private CompletableFuture<Void> flush(Key key, Batch batch) {
+        batches.remove(key, batch);
+        var ids = batch.close();
+        if (ids == null) {
+            return batch.result;
+        }
+
+        socketHandler.sendReceipt(key.chat(), key.participant(), ids, key.type()).whenComplete((result, error) -> {
+            if (error != null) {
+                batch.result.completeExceptionally(error);
+            } else {
+                batch.result.complete(null);
+            }
+        });
+        return batch.result;
+    }
+
+    private record Key(Jid chat, Jid participant, String type) {
+
+    }
+
+    private static final class Batch {
+        private final List<String> ids;
+        private final CompletableFuture<Void> result;
+        private boolean closed;
+
+        private Batch() {
+            this.ids = new ArrayList<>();
+            this.result = new CompletableFuture<>();
+        }
+
+        // Returns the size of the batch after the id was added, or -1 if the batch was already sent
+        private synchronized int add(String id) {
+            if (closed) {
+                return -1;
+            }
+
+            ids.add(id);
+            return ids.size();
+        }
+
+        // Returns null if the batch was already sent
+        private synchronized List<String> close() {
+            if (closed) {
+                return null;
+            }
+
+            this.closed = true;
+            return List.copyOf(ids);
+        }
+    }
+}
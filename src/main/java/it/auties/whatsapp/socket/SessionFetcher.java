@@ -0,0 +1,110 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.session.SessionAddress;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+// Fetches the prekeys of the devices that don't have a session yet
+// A device that is already being fetched isn't requested again: the caller waits for the request that is in flight
+// The remaining devices are requested in chunks that are all sent right away, and each caller waits only for the chunks of its devices
+final class SessionFetcher {
+    private static final int MAX_CHUNK_SIZE = 128;
+
+    private final SocketHandler socketHandler;
+    private final Consumer<Node> sessionParser;
+    private final ConcurrentMap<SessionAddress, CompletableFuture<Void>> inFlight;
+
+    SessionFetcher(SocketHandler socketHandler, Consumer<Node> sessionParser) {
+        this.socketHandler = socketHandler;
+        this.sessionParser = sessionParser;
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    CompletableFuture<Void> fetch(Collection<Jid> devices, boolean force) {
+        var results = new ArrayList<CompletableFuture<Void>>();
+        var requests = new LinkedHashMap<SessionAddress, Request>();
+        for (var device : devices) {
+            var address = device.toSignalAddress();
+            if (!force && socketHandler.keys().hasSession(address)) {
+                continue;
+            }
+
+            var request = new Request(device, new CompletableFuture<>());
+            var existing = inFlight.putIfAbsent(address, request.future());
+            if (existing != null) {
+                results.add(existing);
+            } else {
+                requests.put(address, request);
+                results.add(request.future());
+            }
+        }
+
+        var pending = List.copyOf(requests.entrySet());
+        for (var start = 0; start < pending.size(); start += MAX_CHUNK_SIZE) {
+            send(pending.subList(start, Math.min(start + MAX_CHUNK_SIZE, pending.size())));
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new));
+    }
+
+    private void send(List<Map.Entry<SessionAddress, Request>> chunk) {
+        var children = chunk.stream()
+                .map(entry -> Node.of("user", Map.of("jid", entry.getValue().device())))
+                .toList();
+        socketHandler.sendQuery("get", "encrypt", Node.of("key", children)).whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                chunk.forEach(entry -> complete(entry.getKey(), entry.getValue().future(), error));
+                return;
+            }
+
+            Map<SessionAddress, Node> sessions;
+            try {
+                sessions = parseSessions(result);
+            } catch (Throwable throwable) {
+                chunk.forEach(entry -> complete(entry.getKey(), entry.getValue().future(), throwable));
+                return;
+            }
+
+            for (var entry : chunk) {
+                var session = sessions.get(entry.getKey());
+                try {
+                    if (session != null) {
+                        sessionParser.accept(session);
+                    }
+
+                    complete(entry.getKey(), entry.getValue().future(), null);
+                } catch (Throwable throwable) {
+                    complete(entry.getKey(), entry.getValue().future(), throwable);
+                }
+            }
+        });
+    }
+
+    private Map<SessionAddress, Node> parseSessions(Node result) {
+        var sessions = new HashMap<SessionAddress, Node>();
+        result.findChild("list")
+                .orElseThrow(() -> new IllegalArgumentException("Cannot parse sessions: " + result))
+                .listChildren("user")
+                .forEach(user -> sessions.put(user.attributes().getRequiredJid("jid").toSignalAddress(), user));
+        return sessions;
+    }
+
+    private void complete(SessionAddress address, CompletableFuture<Void> future, Throwable error) {
+        inFlight.remove(address, future);
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private record Request(Jid device, CompletableFuture<Void> future) {
+
+    }
+}
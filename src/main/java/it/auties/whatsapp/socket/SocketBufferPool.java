@@ -0,0 +1,63 @@
+package it.auties.whatsapp.socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Frames are reassembled in buffers rented from power of two size classes, from 4KiB up to the max message length
+final class SocketBufferPool {
+    static final SocketBufferPool HEAP = new SocketBufferPool(false);
+    static final SocketBufferPool DIRECT = new SocketBufferPool(true);
+
+    private static final int MIN_SIZE_CLASS_BITS = 12;
+    private static final int MAX_SIZE_CLASS_BITS = 20;
+    private static final int MAX_BUFFERS_PER_SIZE_CLASS = 16;
+
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer>[] sizeClasses;
+
+    @SuppressWarnings("unchecked")
+    private SocketBufferPool(boolean direct) {
+        this.direct = direct;
+        this.sizeClasses = new ArrayBlockingQueue[MAX_SIZE_CLASS_BITS - MIN_SIZE_CLASS_BITS + 1];
+        for(var i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new ArrayBlockingQueue<>(MAX_BUFFERS_PER_SIZE_CLASS);
+        }
+    }
+
+    ByteBuffer acquire(int length) {
+        var sizeClass = sizeClassOf(length);
+        if(sizeClass >= sizeClasses.length) {
+            return allocate(length);
+        }
+
+        var cached = sizeClasses[sizeClass].poll();
+        var result = cached != null ? cached : allocate(1 << (sizeClass + MIN_SIZE_CLASS_BITS));
+        return result.clear()
+                .limit(length);
+    }
+
+    void release(ByteBuffer buffer) {
+        if(buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            return;
+        }
+
+        var capacity = buffer.capacity();
+        if(Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        var sizeClass = sizeClassOf(capacity);
+        if(sizeClass < sizeClasses.length) {
+            sizeClasses[sizeClass].offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int length) {
+        return direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+    }
+
+    private static int sizeClassOf(int length) {
+        var bits = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1 << MIN_SIZE_CLASS_BITS) - 1);
+        return bits - MIN_SIZE_CLASS_BITS;
+    }
+}
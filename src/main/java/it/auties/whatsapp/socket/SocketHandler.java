@@ -12,6 +12,7 @@ import it.auties.whatsapp.model.business.BusinessCategory;
 import it.auties.whatsapp.model.call.Call;
 import it.auties.whatsapp.model.chat.*;
 import it.auties.whatsapp.model.contact.Contact;
+import it.auties.whatsapp.model.contact.ContactPresence;
 import it.auties.whatsapp.model.contact.ContactStatus;
 import it.auties.whatsapp.model.info.ChatMessageInfo;
 import it.auties.whatsapp.model.info.ChatMessageInfoBuilder;
@@ -42,17 +43,16 @@ import it.auties.whatsapp.model.setting.Setting;
 import it.auties.whatsapp.model.signal.auth.ClientHelloBuilder;
 import it.auties.whatsapp.model.signal.auth.HandshakeMessageBuilder;
 import it.auties.whatsapp.model.signal.auth.HandshakeMessageSpec;
+import it.auties.whatsapp.model.sync.HistorySync;
 import it.auties.whatsapp.model.sync.PatchRequest;
 import it.auties.whatsapp.model.sync.PatchType;
 import it.auties.whatsapp.model.sync.PrimaryFeature;
 import it.auties.whatsapp.util.Bytes;
 import it.auties.whatsapp.util.Clock;
-import it.auties.whatsapp.util.Streams;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -61,6 +61,7 @@ import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -76,6 +77,8 @@ public class SocketHandler implements SocketSession.Listener {
     private static final Set<Long> connectedPhoneNumbers = ConcurrentHashMap.newKeySet();
     private static final Set<String> connectedAlias = ConcurrentHashMap.newKeySet();
     private static final int PING_TIMEOUT = 20;
+    private static final int AES_GCM_TAG_LENGTH = 16;
+    private static final int MAX_WRITE_BATCH_LENGTH = 1048576;
 
     public static boolean isConnected(UUID uuid) {
         return connectedUuids.contains(uuid);
@@ -99,14 +102,21 @@ public class SocketHandler implements SocketSession.Listener {
     private final AtomicLong requestsCounter;
     private volatile ScheduledExecutorService scheduler;
     private final ConcurrentMap<Jid, SequencedSet<ChatPastParticipant>> pastParticipants;
-    private final Semaphore writeSemaphore;
-    private final Map<Jid, ChatMetadata> chatMetadataCache;
+    private final Queue<PendingWrite> pendingWrites;
+    private final AtomicInteger pendingWritesSignals;
+    private final GroupMetadataCache groupMetadataCache;
     private final AtomicBoolean serializable;
+    private final ListenerDispatcher listenerDispatcher;
+    private final ReceiptAggregator receiptAggregator;
+    private final ExecutorService publishersExecutor;
+    private final SubmissionPublisher<MessageInfo<?>> newMessagesPublisher;
+    private final SubmissionPublisher<MessageInfo<?>> messageStatusPublisher;
+    private final SubmissionPublisher<ContactPresence> presencePublisher;
+    private final SubmissionPublisher<HistorySync> historySyncPublisher;
     private final AtomicReference<SocketState> state;
     private final Cipher readCipher, writeCipher;
     private final Keys keys;
     private final Store store;
-    private boolean readCipherFragmented;
     private Thread shutdownHook;
     public SocketHandler(Whatsapp whatsapp, Store store, Keys keys, ErrorHandler errorHandler, WebVerificationHandler webVerificationHandler) {
         this.whatsapp = whatsapp;
@@ -120,9 +130,17 @@ public class SocketHandler implements SocketSession.Listener {
         this.appStateHandler = new AppStateHandler(this);
         this.errorHandler = Objects.requireNonNullElse(errorHandler, ErrorHandler.toTerminal());
         this.requestsCounter = new AtomicLong();
-        this.writeSemaphore = new Semaphore(1, true);
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.pendingWritesSignals = new AtomicInteger();
         this.pastParticipants = new ConcurrentHashMap<>();
-        this.chatMetadataCache = new ConcurrentHashMap<>();
+        this.groupMetadataCache = new GroupMetadataCache(this);
+        this.listenerDispatcher = new ListenerDispatcher(this);
+        this.receiptAggregator = new ReceiptAggregator(this);
+        this.publishersExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.newMessagesPublisher = new SubmissionPublisher<>(publishersExecutor, store.listenerQueueCapacity());
+        this.messageStatusPublisher = new SubmissionPublisher<>(publishersExecutor, store.listenerQueueCapacity());
+        this.presencePublisher = new SubmissionPublisher<>(publishersExecutor, store.listenerQueueCapacity());
+        this.historySyncPublisher = new SubmissionPublisher<>(publishersExecutor, store.listenerQueueCapacity());
         try {
             this.readCipher = Cipher.getInstance("AES/GCM/NoPadding");
             this.writeCipher = Cipher.getInstance("AES/GCM/NoPadding");
@@ -142,12 +160,79 @@ public class SocketHandler implements SocketSession.Listener {
             this.scheduler = null;
         }
 
+        store.httpClients().close();
         dispose();
     }
 
-    private void callListenersAsync(Consumer<Listener> consumer) {
-        store.listeners()
-                .forEach(listener -> Thread.startVirtualThread(() -> invokeListenerSafe(consumer, listener)));
+    // Events that no listener subscribed to are not built at all
+    private boolean hasSubscribers(ListenerEvent event) {
+        for (var listener : store.listeners()) {
+            if (listener.subscription().accepts(event)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void callListenersAsync(ListenerEvent event, Consumer<Listener> consumer) {
+        listenerDispatcher.dispatch(event, null, null, null, consumer);
+    }
+
+    // Events about the same chat are delivered to each listener in the order they were dispatched
+    private void callListenersAsync(ListenerEvent event, Jid chatJid, Consumer<Listener> consumer) {
+        listenerDispatcher.dispatch(event, chatJid, null, null, consumer);
+    }
+
+    private void callListenersAsync(ListenerEvent event, MessageInfo<?> message, Consumer<Listener> consumer) {
+        listenerDispatcher.dispatch(event, message.parentJid(), message, null, consumer);
+    }
+
+    // Events that carry a snapshot of the store can replace a pending event with the same key if the listener is falling behind
+    private void coalesceListenersAsync(ListenerEvent event, String coalesceKey, Consumer<Listener> consumer) {
+        listenerDispatcher.dispatch(event, null, null, coalesceKey, consumer);
+    }
+
+    public ListenerQueueMetrics listenerQueueMetrics(Listener listener) {
+        return listenerDispatcher.metrics(listener);
+    }
+
+    // Blocks while a subscriber has no room left in its buffer: as messages are decoded on the thread that reads the socket,
+    // a slow subscriber stops the socket from being read instead of piling up events in memory
+    private <T> void publish(SubmissionPublisher<T> publisher, T item) {
+        if (!publisher.hasSubscribers() || publisher.isClosed()) {
+            return;
+        }
+
+        try {
+            publisher.submit(item);
+        } catch (IllegalStateException ignored) {
+            // Closed concurrently
+        }
+    }
+
+    public Flow.Publisher<MessageInfo<?>> newMessagesPublisher() {
+        return newMessagesPublisher;
+    }
+
+    public Flow.Publisher<MessageInfo<?>> messageStatusPublisher() {
+        return messageStatusPublisher;
+    }
+
+    public Flow.Publisher<ContactPresence> presencePublisher() {
+        return presencePublisher;
+    }
+
+    public Flow.Publisher<HistorySync> historySyncPublisher() {
+        return historySyncPublisher;
+    }
+
+    private void closePublishers() {
+        newMessagesPublisher.close();
+        messageStatusPublisher.close();
+        presencePublisher.close();
+        historySyncPublisher.close();
+        publishersExecutor.shutdown();
     }
 
     @Override
@@ -184,7 +269,7 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     @Override
-    public void onMessage(ByteBuffer message, boolean last) {
+    public void onMessage(ByteBuffer message) {
         switch (state.getAcquire()) {
             case DISCONNECTED -> {
                 // Ignore message
@@ -204,78 +289,51 @@ public class SocketHandler implements SocketSession.Listener {
                     return;
                 }
 
+                // The decoded nodes copy the binary contents they keep, so the plaintext can go back to the pool once they are decoded
+                ByteBuffer output = null;
                 try {
-                    if(!readCipherFragmented) {
-                        readCipher.init(
-                                Cipher.DECRYPT_MODE,
-                                new SecretKeySpec(readKey.get(), "AES"),
-                                encodeIv(keys.nextReadCounter())
-                        );
-                    }
-
-                    if (last) {
-                        if (readCipherFragmented) {
-                            // If the message was fragmented, it's not possible to do it in place for two reasons:
-                            // 1. The n - 1 fragment has already been processed and deallocated
-                            // 2. Even if we saved all the fragments and then could(I say could because doFinal doesn't support outputting to an OutputStream and ByteBuffer is sealed)
-                            //    decode in place to those buffers, the memory usage would be the same as deallocating those original fragments and decoding to a new buffer
-                            var outputSize = readCipher.getOutputSize(message.remaining());
-                            var output = ByteBuffer.allocate(outputSize);
-                            readCipher.doFinal(message, output);
-                            output.flip();
-                            decodeNodes(output);
-                        } else {
-                            // In place decryption
-                            var output = message.duplicate();
-                            var outputPosition = output.position();
-                            var length = readCipher.doFinal(message, output);
-                            if(length > 0) {
-                                output.limit(outputPosition + length)
-                                        .position(outputPosition);
-                                decodeNodes(output);
-                            }
-                        }
-                        readCipherFragmented = false;
-                    } else {
-                        var output = message.duplicate();
-                        var outputPosition = output.position();
-                        var length = readCipher.update(message, output);
-                        if(length > 0) {
-                            output.limit(outputPosition + length)
-                                    .position(outputPosition);
-                            decodeNodes(output);
-                        }
-                        readCipherFragmented = true;
-                    }
+                    readCipher.init(
+                            Cipher.DECRYPT_MODE,
+                            new SecretKeySpec(readKey.get(), "AES"),
+                            encodeIv(keys.nextReadCounter())
+                    );
+                    output = SocketBufferPool.HEAP.acquire(readCipher.getOutputSize(message.remaining()));
+                    readCipher.doFinal(message, output);
+                    decodeNodes(output.flip());
                 } catch (Throwable throwable) {
                     handleFailure(STREAM, throwable);
+                } finally {
+                    SocketBufferPool.HEAP.release(output);
                 }
             }
         }
     }
 
-    private void decodeNodes(ByteBuffer output) throws IOException {
-        try(var stream = Streams.newInputStream(output)) {
-            while(stream.available() > 0) {
-                var node = BinaryDecoder.decode(Streams.newInputStream(output));
-                onNodeReceived(node);
-                store.resolvePendingRequest(node);
-                streamHandler.digest(node);
-            }
+    private void decodeNodes(ByteBuffer output) {
+        while(output.hasRemaining()) {
+            var node = BinaryDecoder.decode(output);
+            onNodeReceived(node);
+            store.resolvePendingRequest(node);
+            streamHandler.digest(node);
         }
     }
 
     private void onNodeReceived(Node node) {
-        callListenersAsync(listener -> {
+        if (!hasSubscribers(ListenerEvent.NODE_RECEIVED)) {
+            return;
+        }
+
+        callListenersAsync(ListenerEvent.NODE_RECEIVED, listener -> {
             listener.onNodeReceived(whatsapp, node);
             listener.onNodeReceived(node);
         });
     }
 
+    // The socket can't be written anymore, so the pending receipts aren't flushed
     @Override
     public void onClose() {
         if (state.getAcquire() != SocketState.DISCONNECTED) {
-            disconnect(DisconnectReason.DISCONNECTED);
+            closeSession(DisconnectReason.DISCONNECTED);
         }else {
             onDisconnected();
             onShutdown();
@@ -285,7 +343,7 @@ public class SocketHandler implements SocketSession.Listener {
     @Override
     public void onError(Throwable throwable) {
         if(isConnected()) {
-            disconnect(DisconnectReason.RECONNECTING);
+            closeSession(DisconnectReason.RECONNECTING);
         }
     }
 
@@ -315,112 +373,167 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     private CompletableFuture<Node> sendRequest(SocketRequest request, boolean prologue, boolean response) {
-        var scheduledRelease = false;
+        if (state.getAcquire() == SocketState.DISCONNECTED) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Instance is not connected"));
+        }
+
         try {
-            writeSemaphore.acquire();
-            if (state.getAcquire() == SocketState.DISCONNECTED) {
-                writeSemaphore.release();
-                return CompletableFuture.failedFuture(new IllegalStateException("Instance is not connected"));
+            var bodyLength = switch (request.body()) {
+                case byte[] bytes -> bytes.length;
+                case Node node -> BinaryLength.sizeOf(node);
+                default -> throw new IllegalArgumentException("Unexpected value: " + request.body());
+            };
+            pendingWrites.add(new PendingWrite(request, prologue, response, bodyLength));
+            if (pendingWritesSignals.getAndIncrement() == 0) {
+                flushWrites(1);
             }
 
-            var message = getRequestPayload(request, prologue);
-            var future = session.sendBinary(message);
-            scheduledRelease = true;
-            future.whenCompleteAsync((result, error) -> {
-                writeSemaphore.release();
-                if(request.body() instanceof Node body) {
-                    onNodeSent(body);
-                }
+            return request.future();
+        }catch (Throwable throwable) {
+            return CompletableFuture.failedFuture(throwable);
+        }
+    }
 
-                if(error != null) {
-                    request.future().completeExceptionally(error);
-                    return;
+    // Only one batch can be in flight at a time: the requests that are queued while it's being written are coalesced in the next one
+    private void flushWrites(int signals) {
+        while (true) {
+            var batch = new ArrayList<PendingWrite>();
+            var batchLength = 0;
+            var encrypted = keys.writeKey().isPresent();
+            PendingWrite pendingWrite;
+            while ((pendingWrite = pendingWrites.peek()) != null) {
+                var payloadLength = getRequestPayloadLength(pendingWrite, encrypted);
+                if (!batch.isEmpty() && batchLength + payloadLength > MAX_WRITE_BATCH_LENGTH) {
+                    break;
                 }
 
-                if (!response) {
-                    request.future().complete(null);
-                    return;
-                }
+                pendingWrites.poll();
+                batch.add(pendingWrite);
+                batchLength += payloadLength;
+            }
 
-                store.addRequest(request);
-            });
-            return request.future();
-        }catch (Throwable throwable) {
-            if(!scheduledRelease) {
-                writeSemaphore.release();
+            if (!batch.isEmpty()) {
+                writeBatch(batch, batchLength, encrypted, signals);
+                return;
             }
 
-            return CompletableFuture.failedFuture(throwable);
+            signals = pendingWritesSignals.addAndGet(-signals);
+            if (signals == 0) {
+                return;
+            }
         }
     }
 
-    private byte[] getRequestPayload(SocketRequest request, boolean prologue) {
-        var prologuePayload = prologue ? SocketHandshake.getPrologue(store.clientType()) : null;
-        var prologuePayloadLength = prologue ? prologuePayload.length : 0;
-        var writeKey = keys.writeKey();
-        if (writeKey.isPresent()) {
-            if(!(request.body() instanceof Node node)) {
-                throw new IllegalArgumentException("Unexpected value: " + request.body());
-            }
-
+    // The nodes that were added to the payload are reported as sent even if their future was already completed,
+    // as the response to a request, which is registered before the write, can arrive before the write completes
+    private void writeBatch(List<PendingWrite> batch, int batchLength, boolean encrypted, int signals) {
+        var written = new boolean[batch.size()];
+        CompletableFuture<?> future;
+        if (state.getAcquire() == SocketState.DISCONNECTED) {
+            future = CompletableFuture.failedFuture(new IllegalStateException("Instance is not connected"));
+        } else {
             try {
-                var iv = keys.nextWriteCounter();
-                writeCipher.init(
-                        Cipher.ENCRYPT_MODE,
-                        new SecretKeySpec(writeKey.get(), "AES"),
-                        encodeIv(iv)
-                );
-                var requestLength = BinaryLength.sizeOf(node);
-                var encryptedRequestLength = writeCipher.getOutputSize(requestLength);
-                var requestPayload = new byte[getRequestPayloadLength(prologuePayloadLength, encryptedRequestLength)];
-                var offset = writeRequestHeader(prologuePayload, requestPayload, prologuePayloadLength, encryptedRequestLength);
-                BinaryEncoder.encode(node, requestPayload, offset);
-                writeCipher.doFinal(requestPayload, offset, requestLength, requestPayload, offset);
-                return requestPayload;
+                var payload = new byte[batchLength];
+                var offset = 0;
+                for (var i = 0; i < batch.size(); i++) {
+                    var pendingWrite = batch.get(i);
+                    try {
+                        offset = writeRequestPayload(pendingWrite, encrypted, payload, offset);
+                        written[i] = true;
+                        if (pendingWrite.response()) {
+                            store.addRequest(pendingWrite.request());
+                        }
+                    } catch (Throwable throwable) {
+                        pendingWrite.request().future().completeExceptionally(throwable);
+                    }
+                }
+
+                future = session.sendBinary(offset == batchLength ? payload : Arrays.copyOf(payload, offset));
             } catch (Throwable throwable) {
-                throw new RuntimeException("Cannot encrypt data", throwable);
+                future = CompletableFuture.failedFuture(throwable);
             }
         }
 
-        return switch (request.body()) {
-            case byte[] bytes -> {
-                var requestLength = bytes.length;
-                var message = new byte[getRequestPayloadLength(prologuePayloadLength, requestLength)];
-                var offset = writeRequestHeader(prologuePayload, message, prologuePayloadLength, requestLength);
-                System.arraycopy(bytes, 0, message, offset, requestLength);
-                yield message;
+        future.whenCompleteAsync((result, error) -> {
+            for (var i = 0; i < batch.size(); i++) {
+                var pendingWrite = batch.get(i);
+                var request = pendingWrite.request();
+                if (written[i] && request.body() instanceof Node body) {
+                    onNodeSent(body);
+                }
+
+                if (request.future().isDone()) {
+                    continue;
+                }
+
+                if (error != null) {
+                    request.future().completeExceptionally(error);
+                } else if (!pendingWrite.response()) {
+                    request.future().complete(null);
+                }
             }
-            case Node node -> {
-                var requestLength = BinaryLength.sizeOf(node);
-                var message = new byte[getRequestPayloadLength(prologuePayloadLength, requestLength)];
-                var offset = writeRequestHeader(prologuePayload, message, prologuePayloadLength, requestLength);
-                BinaryEncoder.encode(node, message, offset);
-                yield message;
+
+            var remaining = pendingWritesSignals.addAndGet(-signals);
+            if (remaining != 0) {
+                flushWrites(remaining);
             }
-            default -> throw new IllegalArgumentException("Unexpected value: " + request.body());
-        };
+        });
     }
 
-    private int getRequestPayloadLength(int prologuePayloadLength, int encryptedRequestLength) {
+    private int getRequestPayloadLength(PendingWrite pendingWrite, boolean encrypted) {
+        var prologuePayloadLength = pendingWrite.prologue() ? SocketHandshake.getPrologue(store.clientType()).length : 0;
+        var requestLength = encrypted ? pendingWrite.bodyLength() + AES_GCM_TAG_LENGTH : pendingWrite.bodyLength();
         return prologuePayloadLength
                 + Integer.BYTES
                 + Short.BYTES
-                + encryptedRequestLength;
+                + requestLength;
+    }
+
+    private int writeRequestPayload(PendingWrite pendingWrite, boolean encrypted, byte[] output, int offset) throws GeneralSecurityException {
+        var request = pendingWrite.request();
+        var prologuePayload = pendingWrite.prologue() ? SocketHandshake.getPrologue(store.clientType()) : null;
+        var requestLength = pendingWrite.bodyLength();
+        if (encrypted) {
+            if(!(request.body() instanceof Node node)) {
+                throw new IllegalArgumentException("Unexpected value: " + request.body());
+            }
+
+            var encryptedRequestLength = requestLength + AES_GCM_TAG_LENGTH;
+            var payloadOffset = writeRequestHeader(prologuePayload, output, offset, encryptedRequestLength);
+            BinaryEncoder.encode(node, output, payloadOffset);
+            // The counter is only consumed once the node was encoded, so that it always matches the order of the writes
+            writeCipher.init(
+                    Cipher.ENCRYPT_MODE,
+                    new SecretKeySpec(keys.writeKey().orElseThrow(), "AES"),
+                    encodeIv(keys.nextWriteCounter())
+            );
+            writeCipher.doFinal(output, payloadOffset, requestLength, output, payloadOffset);
+            return payloadOffset + encryptedRequestLength;
+        }
+
+        var payloadOffset = writeRequestHeader(prologuePayload, output, offset, requestLength);
+        switch (request.body()) {
+            case byte[] bytes -> System.arraycopy(bytes, 0, output, payloadOffset, requestLength);
+            case Node node -> BinaryEncoder.encode(node, output, payloadOffset);
+            default -> throw new IllegalArgumentException("Unexpected value: " + request.body());
+        }
+        return payloadOffset + requestLength;
     }
 
-    private int writeRequestHeader(byte[] prologuePayload, byte[] message, int prologuePayloadLength, int requestLength) {
+    private int writeRequestHeader(byte[] prologuePayload, byte[] message, int offset, int requestLength) {
         if(prologuePayload != null) {
-            System.arraycopy(prologuePayload, 0, message, 0, prologuePayloadLength);
+            System.arraycopy(prologuePayload, 0, message, offset, prologuePayload.length);
+            offset += prologuePayload.length;
         }
         var a = requestLength >> 16;
-        message[prologuePayloadLength++] = (byte) (a >> 24);
-        message[prologuePayloadLength++] = (byte) (a >> 16);
-        message[prologuePayloadLength++] = (byte) (a >> 8);
-        message[prologuePayloadLength++] = (byte) a;
+        message[offset++] = (byte) (a >> 24);
+        message[offset++] = (byte) (a >> 16);
+        message[offset++] = (byte) (a >> 8);
+        message[offset++] = (byte) a;
         var b = requestLength & 65535;
-        message[prologuePayloadLength++] = (byte) (b >> 8);
-        message[prologuePayloadLength++] = (byte) b;
-        return prologuePayloadLength;
+        message[offset++] = (byte) (b >> 8);
+        message[offset++] = (byte) b;
+        return offset;
     }
 
     private GCMParameterSpec encodeIv(long value) {
@@ -441,7 +554,7 @@ public class SocketHandler implements SocketSession.Listener {
             return CompletableFuture.completedFuture(null);
         }
 
-        this.session = SocketSession.of(store.proxy().orElse(null), store.clientType() == ClientType.WEB);
+        this.session = SocketSession.of(store.proxy().orElse(null), store.clientType() == ClientType.WEB, store.socketSelectors());
         return session.connect(this).exceptionallyCompose(throwable -> {
             state.set(SocketState.DISCONNECTED);
             if(reason == DisconnectReason.RECONNECTING) {
@@ -451,7 +564,17 @@ public class SocketHandler implements SocketSession.Listener {
         });
     }
 
+    // The pending receipts are written before the state changes, as nodes can't be sent once the socket is disconnected
     public CompletableFuture<Void> disconnect(DisconnectReason reason) {
+        if(state.getAcquire() != SocketState.CONNECTED) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return receiptAggregator.flushAll()
+                .thenCompose(ignored -> closeSession(reason));
+    }
+
+    private CompletableFuture<Void> closeSession(DisconnectReason reason) {
         if(!state.compareAndSet(SocketState.CONNECTED, SocketState.DISCONNECTED)) {
             return CompletableFuture.completedFuture(null);
         }
@@ -480,6 +603,7 @@ public class SocketHandler implements SocketSession.Listener {
                 store.resolveAllPendingRequests();
                 store.resolveAllPendingRequests();
                 serializable.set(false);
+                closePublishers();
                 yield CompletableFuture.completedFuture(null);
             }
         };
@@ -534,6 +658,10 @@ public class SocketHandler implements SocketSession.Listener {
         return messageHandler.encode(request);
     }
 
+    public CompletableFuture<Void> prepareSharedMessage(MessageContainer message) {
+        return messageHandler.prepareSharedMessage(message);
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public CompletableFuture<Void> sendQueryWithNoResponse(String method, String category, Node... body) {
         return sendQueryWithNoResponse(null, JidServer.whatsapp().toJid(), method, category, null, body);
@@ -558,7 +686,11 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     private void onNodeSent(Node node) {
-        callListenersAsync(listener -> {
+        if (!hasSubscribers(ListenerEvent.NODE_SENT)) {
+            return;
+        }
+
+        callListenersAsync(ListenerEvent.NODE_SENT, listener -> {
             listener.onNodeSent(whatsapp, node);
             listener.onNodeSent(node);
         });
@@ -700,21 +832,32 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     public CompletableFuture<ChatMetadata> queryGroupMetadata(JidProvider group) {
-        var metadata = chatMetadataCache.get(group.toJid());
-        if(metadata != null) {
-            return CompletableFuture.completedFuture(metadata);
-        }
+        return groupMetadataCache.get(group.toJid(), jid -> {
+            var body = Node.of("query", Map.of("request", "interactive"));
+            return sendQuery(jid, "get", "w:g2", body)
+                    .thenComposeAsync(this::parseGroupMetadataResponse);
+        });
+    }
 
-        var body = Node.of("query", Map.of("request", "interactive"));
-        return sendQuery(group.toJid(), "get", "w:g2", body)
-                .thenComposeAsync(this::handleGroupMetadata)
-                .thenApply(result -> {
-                    chatMetadataCache.put(group.toJid(), result);
-                    return result;
-                });
+    // Called when a notification reports a change to the devices of a user, so that the next message to them queries the devices again
+    protected void invalidateDevices(Jid user) {
+        messageHandler.invalidateDevices(user);
+    }
+
+    // Called when a notification reports a change to a group, so that the next query fetches its metadata again
+    protected void invalidateGroupMetadata(Jid group) {
+        groupMetadataCache.invalidate(group);
     }
 
     public CompletableFuture<ChatMetadata> handleGroupMetadata(Node response) {
+        return parseGroupMetadataResponse(response).thenApply(metadata -> {
+            groupMetadataCache.put(metadata);
+            return metadata;
+        });
+    }
+
+    // Queries cache their result through the cache itself, which knows whether the group was invalidated while the query was in flight
+    private CompletableFuture<ChatMetadata> parseGroupMetadataResponse(Node response) {
         var metadataNode = Optional.of(response)
                 .filter(entry -> entry.hasDescription("group"))
                 .or(() -> response.findChild("group"))
@@ -903,6 +1046,11 @@ public class SocketHandler implements SocketSession.Listener {
         return sendNodeWithNoResponse(receipt);
     }
 
+    // Sent together with the other receipts for the same chat, participant and type that are queued within the receipt batch window
+    public CompletableFuture<Void> queueReceipt(Jid jid, Jid participant, String message, String type) {
+        return receiptAggregator.add(jid, participant, message, type);
+    }
+
     private List<Node> toMessagesNode(List<String> messages) {
         if (messages.size() <= 1) {
             return null;
@@ -932,21 +1080,22 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     protected void onRegistrationCode(long code) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.REGISTRATION_CODE, listener -> {
             listener.onRegistrationCode(whatsapp, code);
             listener.onRegistrationCode(code);
         });
     }
 
     protected void onMetadata(Map<String, String> properties) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.METADATA, listener -> {
             listener.onMetadata(whatsapp, properties);
             listener.onMetadata(properties);
         });
     }
 
     protected void onMessageStatus(MessageInfo<?> message) {
-        callListenersAsync(listener -> {
+        publish(messageStatusPublisher, message);
+        callListenersAsync(ListenerEvent.MESSAGE_STATUS, message, listener -> {
             listener.onMessageStatus(whatsapp, message);
             listener.onMessageStatus(message);
         });
@@ -957,60 +1106,63 @@ public class SocketHandler implements SocketSession.Listener {
         if (contact.isPresent()) {
             contact.get().setLastKnownPresence(status);
             contact.get().setLastSeen(ZonedDateTime.now());
+            store.markChanged();
         }
 
         var provider = contact.isPresent() ? contact.get() : jid;
         chat.addPresence(jid, status);
-        callListenersAsync(listener -> {
+        publish(presencePublisher, new ContactPresence(chat, provider, status));
+        callListenersAsync(ListenerEvent.CONTACT_PRESENCE, chat.jid(), listener -> {
             listener.onContactPresence(whatsapp, chat, provider);
             listener.onContactPresence(chat, provider);
         });
     }
 
     protected void onNewMessage(MessageInfo<?> info) {
-        callListenersAsync(listener -> {
+        publish(newMessagesPublisher, info);
+        callListenersAsync(ListenerEvent.NEW_MESSAGE, info, listener -> {
             listener.onNewMessage(whatsapp, info);
             listener.onNewMessage(info);
         });
     }
 
     protected void onNewStatus(ChatMessageInfo info) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.NEW_STATUS, info, listener -> {
             listener.onNewStatus(whatsapp, info);
             listener.onNewStatus(info);
         });
     }
 
     protected void onChatRecentMessages(Chat chat, boolean last) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.CHAT_MESSAGES_SYNC, chat.jid(), listener -> {
             listener.onChatMessagesSync(whatsapp, chat, last);
             listener.onChatMessagesSync(chat, last);
         });
     }
 
     protected void onFeatures(PrimaryFeature features) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.FEATURES, listener -> {
             listener.onFeatures(whatsapp, features.flags());
             listener.onFeatures(features.flags());
         });
     }
 
     protected void onSetting(Setting setting) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.SETTING, listener -> {
             listener.onSetting(whatsapp, setting);
             listener.onSetting(setting);
         });
     }
 
     protected void onMessageDeleted(MessageInfo<?> message, boolean everyone) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.MESSAGE_DELETED, message, listener -> {
             listener.onMessageDeleted(whatsapp, message, everyone);
             listener.onMessageDeleted(message, everyone);
         });
     }
 
     protected void onAction(Action action, MessageIndexInfo indexInfo) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.ACTION, listener -> {
             listener.onAction(whatsapp, action, indexInfo);
             listener.onAction(action, indexInfo);
         });
@@ -1024,26 +1176,28 @@ public class SocketHandler implements SocketSession.Listener {
         if (shutdownHook != null) {
             Runtime.getRuntime().removeShutdownHook(shutdownHook);
         }
-        callListenersSync(listener -> {
+        callListenersSync(ListenerEvent.DISCONNECTED, listener -> {
             listener.onDisconnected(whatsapp, DisconnectReason.DISCONNECTED);
             listener.onDisconnected(DisconnectReason.DISCONNECTED);
         });
     }
 
     protected void onLoggedIn() {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.LOGGED_IN, listener -> {
             listener.onLoggedIn(whatsapp);
             listener.onLoggedIn();
         });
     }
 
-    public void callListenersSync(Consumer<Listener> consumer) {
+    public void callListenersSync(ListenerEvent event, Consumer<Listener> consumer) {
         for(var listener : store.listeners()) {
-            invokeListenerSafe(consumer, listener);
+            if (listener.subscription().accepts(event)) {
+                invokeListenerSafe(consumer, listener);
+            }
         }
     }
 
-    private void invokeListenerSafe(Consumer<Listener> consumer, Listener listener) {
+    void invokeListenerSafe(Consumer<Listener> consumer, Listener listener) {
         try {
             consumer.accept(listener);
         } catch (Throwable throwable) {
@@ -1052,35 +1206,39 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     protected void onChats() {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.CHATS, "chats", listener -> {
             listener.onChats(whatsapp, store().chats());
             listener.onChats(store().chats());
         });
     }
 
     protected void onNewsletters() {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.NEWSLETTERS, "newsletters", listener -> {
             listener.onNewsletters(whatsapp, store().newsletters());
             listener.onNewsletters(store().newsletters());
         });
     }
 
     protected void onStatus() {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.STATUS, "status", listener -> {
             listener.onStatus(whatsapp, store().status());
             listener.onStatus(store().status());
         });
     }
 
     protected void onContacts() {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.CONTACTS, "contacts", listener -> {
             listener.onContacts(whatsapp, store().contacts());
             listener.onContacts(store().contacts());
         });
     }
 
+    protected void onHistorySyncChunk(HistorySync history) {
+        publish(historySyncPublisher, history);
+    }
+
     protected void onHistorySyncProgress(Integer progress, boolean recent) {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.HISTORY_SYNC_PROGRESS, recent ? "recent_history_sync" : "history_sync", listener -> {
             listener.onHistorySyncProgress(whatsapp, progress, recent);
             listener.onHistorySyncProgress(progress, recent);
         });
@@ -1092,35 +1250,35 @@ public class SocketHandler implements SocketSession.Listener {
             return;
         }
         store.resolvePendingReply(info);
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.MESSAGE_REPLY, info, listener -> {
             listener.onMessageReply(whatsapp, info, quoted);
             listener.onMessageReply(info, quoted);
         });
     }
 
     protected void onGroupPictureChanged(Chat fromChat) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.GROUP_PICTURE_CHANGED, fromChat.jid(), listener -> {
             listener.onGroupPictureChanged(whatsapp, fromChat);
             listener.onGroupPictureChanged(fromChat);
         });
     }
 
     protected void onContactPictureChanged(Contact fromContact) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.PROFILE_PICTURE_CHANGED, listener -> {
             listener.onProfilePictureChanged(whatsapp, fromContact);
             listener.onProfilePictureChanged(fromContact);
         });
     }
 
     protected void onUserAboutChanged(String newAbout, String oldAbout) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.ABOUT_CHANGED, listener -> {
             listener.onAboutChanged(whatsapp, oldAbout, newAbout);
             listener.onAboutChanged(oldAbout, newAbout);
         });
     }
 
     public void onUserPictureChanged(URI newPicture, URI oldPicture) {
-        callListenersAsync(listener -> store().jid()
+        callListenersAsync(ListenerEvent.PROFILE_PICTURE_CHANGED, listener -> store().jid()
                 .flatMap(store()::findContactByJid)
                 .ifPresent(selfJid -> {
                     listener.onProfilePictureChanged(whatsapp, selfJid);
@@ -1143,7 +1301,7 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     private void onUserNameChanged(String newName, String oldName) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.NAME_CHANGED, listener -> {
             listener.onNameChanged(whatsapp, oldName, newName);
             listener.onNameChanged(oldName, newName);
         });
@@ -1160,42 +1318,42 @@ public class SocketHandler implements SocketSession.Listener {
     }
 
     private void onUserLocaleChanged(CountryLocale newLocale, CountryLocale oldLocale) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.LOCALE_CHANGED, listener -> {
             listener.onLocaleChanged(whatsapp, oldLocale, newLocale);
             listener.onLocaleChanged(oldLocale, newLocale);
         });
     }
 
     protected void onContactBlocked(Contact contact) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.CONTACT_BLOCKED, listener -> {
             listener.onContactBlocked(whatsapp, contact);
             listener.onContactBlocked(contact);
         });
     }
 
     protected void onNewContact(Contact contact) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.NEW_CONTACT, listener -> {
             listener.onNewContact(whatsapp, contact);
             listener.onNewContact(contact);
         });
     }
 
     protected void onDevices(LinkedHashMap<Jid, Integer> devices) {
-        callListenersAsync(listener -> {
+        coalesceListenersAsync(ListenerEvent.LINKED_DEVICES, "devices", listener -> {
             listener.onLinkedDevices(whatsapp, devices.keySet());
             listener.onLinkedDevices(devices.keySet());
         });
     }
 
     public void onCall(Call call) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.CALL, listener -> {
             listener.onCall(whatsapp, call);
             listener.onCall(call);
         });
     }
 
     public void onPrivacySettingChanged(PrivacySettingEntry oldEntry, PrivacySettingEntry newEntry) {
-        callListenersAsync(listener -> {
+        callListenersAsync(ListenerEvent.PRIVACY_SETTING_CHANGED, listener -> {
             listener.onPrivacySettingChanged(whatsapp, oldEntry, newEntry);
             listener.onPrivacySettingChanged(oldEntry, newEntry);
         });
@@ -1226,6 +1384,12 @@ public class SocketHandler implements SocketSession.Listener {
                 .thenComposeAsync(values -> messageHandler.queryDevices(jid, false));
     }
 
+    // Resolves the devices of the users and the sessions of those devices, so that the messages sent to them afterwards find them in the caches
+    public CompletableFuture<Void> prefetchSessions(Collection<Jid> users) {
+        return messageHandler.queryDevices(users, false)
+                .thenComposeAsync(devices -> messageHandler.querySessions(devices, false));
+    }
+
     public void parseSessions(Node result) {
         messageHandler.parseSessions(result);
     }
@@ -1364,4 +1528,8 @@ public class SocketHandler implements SocketSession.Listener {
         return NewsletterResponse.ofJson(content.get())
                 .map(NewsletterResponse::newsletter);
     }
+
+    private record PendingWrite(SocketRequest request, boolean prologue, boolean response, int bodyLength) {
+
+    }
 }
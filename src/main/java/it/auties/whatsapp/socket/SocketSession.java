@@ -8,19 +8,30 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract sealed class SocketSession {
     private static final URI WEB_SOCKET = URI.create("wss://web.whatsapp.com/ws/chat");
     private static final InetSocketAddress MOBILE_SOCKET_ENDPOINT = new InetSocketAddress("g.whatsapp.net", 443);
     private static final int MAX_MESSAGE_LENGTH = 1048576;
+    private static final int MAX_GATHERED_WRITES = 64;
+    private static final int MAX_PENDING_MESSAGES = 64;
 
     final URI proxy;
     Listener listener;
@@ -38,20 +49,19 @@ abstract sealed class SocketSession {
 
     abstract CompletableFuture<?> sendBinary(byte[] bytes);
 
-    static SocketSession of(URI proxy, boolean webSocket) {
+    static SocketSession of(URI proxy, boolean webSocket, int selectors) {
         if (webSocket) {
             return new WebSocketSession(proxy);
         }
 
-        return new RawSocketSession(proxy);
+        return new RawSocketSession(proxy, selectors);
     }
 
     private static final class WebSocketSession extends SocketSession implements WebSocket.Listener {
         private WebSocket session;
-        private Integer messageLengthInt20;
-        private Integer messageLengthMsb;
-        private Integer messageLengthMb;
-        private Integer messageLengthLsb;
+        private int messageLength;
+        private int messageLengthBytes;
+        private ByteBuffer pendingMessage;
 
         WebSocketSession(URI proxy) {
             super(proxy);
@@ -114,53 +124,50 @@ abstract sealed class SocketSession {
 
         @Override
         public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean ignored) {
-            if(data.remaining() < 3) {
-                disconnect();
-                return null;
-            }
-
             while (data.hasRemaining()) {
-                if(messageLengthInt20 == null) {
-                    if(messageLengthMsb == null) {
-                        // Implicit hasRemaining check from while loop
-                        messageLengthMsb = (data.get() & 0xFF) << 16;
-                    }
-
-                    if(messageLengthMb == null) {
-                        if(!data.hasRemaining()) {
-                            break;
-                        }
-
-                        messageLengthMb = (data.get() & 0xFF) << 8;
+                if(pendingMessage == null) {
+                    while (messageLengthBytes < 3 && data.hasRemaining()) {
+                        messageLength = (messageLength << 8) | (data.get() & 0xFF);
+                        messageLengthBytes++;
                     }
 
-                    if(messageLengthLsb == null) {
-                        if(!data.hasRemaining()) {
-                            break;
-                        }
-
-                        messageLengthLsb = data.get() & 0xFF;
+                    if(messageLengthBytes < 3) {
+                        break;
                     }
 
-                    messageLengthInt20 = messageLengthMsb | messageLengthMb | messageLengthLsb;
-                    messageLengthMsb = messageLengthMb = messageLengthLsb = null;
-                    if (messageLengthInt20 < 0 || messageLengthInt20 > MAX_MESSAGE_LENGTH) {
+                    var length = messageLength;
+                    messageLength = messageLengthBytes = 0;
+                    if (length > MAX_MESSAGE_LENGTH) {
                         disconnect();
                         return null;
                     }
+
+                    if(length <= data.remaining()) {
+                        // The whole message is available: no need to copy it
+                        var limit = data.limit();
+                        var end = data.position() + length;
+                        data.limit(end);
+                        listener.onMessage(data);
+                        data.limit(limit)
+                                .position(end);
+                        continue;
+                    }
+
+                    pendingMessage = SocketBufferPool.HEAP.acquire(length);
                 }
 
-                var available = data.remaining();
-                if(messageLengthInt20 <= available) {
-                    var limit = data.limit();
-                    data.limit(data.position() + messageLengthInt20);
-                    listener.onMessage(data, true);
-                    data.limit(limit);
-                    messageLengthInt20 = null;
-                }else {
-                    listener.onMessage(data, false);
-                    messageLengthInt20 -= available;
-                    break;
+                var available = Math.min(data.remaining(), pendingMessage.remaining());
+                pendingMessage.put(pendingMessage.position(), data, data.position(), available);
+                pendingMessage.position(pendingMessage.position() + available);
+                data.position(data.position() + available);
+                if(!pendingMessage.hasRemaining()) {
+                    var message = pendingMessage.flip();
+                    pendingMessage = null;
+                    try {
+                        listener.onMessage(message);
+                    }finally {
+                        SocketBufferPool.HEAP.release(message);
+                    }
                 }
             }
 
@@ -169,12 +176,14 @@ abstract sealed class SocketSession {
         }
     }
 
-    // TODO: Refactor me
     private static final class RawSocketSession extends SocketSession {
+        private final int selectors;
         private SocketChannel channel;
+        private ConnectionContext context;
 
-        RawSocketSession(URI proxy) {
+        RawSocketSession(URI proxy, int selectors) {
             super(proxy);
+            this.selectors = selectors;
         }
 
         @Override
@@ -193,17 +202,21 @@ abstract sealed class SocketSession {
 
                 channel.configureBlocking(false);
 
-                var context = new ConnectionContext(this, listener, new CompletableFuture<>());
+                context = new ConnectionContext(this, listener, SelectorGroup.of(selectors).next());
 
                 if (channel.connect(MOBILE_SOCKET_ENDPOINT)) {
+                    context.loop.register(channel, SelectionKey.OP_READ, context);
                     context.connectFuture.complete(null);
-                    listener.onOpen(this);
-                    CentralSelector.INSTANCE.register(channel, SelectionKey.OP_READ, context);
+                    context.dispatch(() -> listener.onOpen(this));
                 } else {
-                    CentralSelector.INSTANCE.register(channel, SelectionKey.OP_CONNECT, context);
+                    context.loop.register(channel, SelectionKey.OP_CONNECT, context);
                 }
                 return context.connectFuture;
             } catch (IOException exception) {
+                if (context != null) {
+                    context.close();
+                }
+
                 return CompletableFuture.failedFuture(exception);
             }
         }
@@ -213,7 +226,9 @@ abstract sealed class SocketSession {
             try {
                 if (channel != null) {
                     channel.close();
-                    listener.onClose();
+                    if(context.close()) {
+                        listener.onClose();
+                    }
                 }
 
                 return CompletableFuture.completedFuture(null);
@@ -232,20 +247,55 @@ abstract sealed class SocketSession {
                 return CompletableFuture.completedFuture(null);
             }
 
-            CentralSelector.INSTANCE
-                    .addWrite(channel, ByteBuffer.wrap(bytes));
+            context.loop.addWrite(channel, ByteBuffer.wrap(bytes));
             return CompletableFuture.completedFuture(null);
         }
 
-        private static final class CentralSelector implements Runnable{
-            private static final CentralSelector INSTANCE = new CentralSelector();
+        // Each connection is assigned to the least loaded selector loop
+        // Sessions that are configured with the same number of selectors share the same group
+        private static final class SelectorGroup {
+            private static final ConcurrentMap<Integer, SelectorGroup> GROUPS = new ConcurrentHashMap<>();
+
+            private final SelectorLoop[] loops;
+            private final AtomicInteger nextLoop;
+
+            private SelectorGroup(int size) {
+                this.loops = new SelectorLoop[Math.max(size, 1)];
+                for(var i = 0; i < loops.length; i++) {
+                    loops[i] = new SelectorLoop(i);
+                }
+                this.nextLoop = new AtomicInteger();
+            }
 
+            private static SelectorGroup of(int size) {
+                return GROUPS.computeIfAbsent(size, SelectorGroup::new);
+            }
+
+            private SelectorLoop next() {
+                // Start from the next loop in round-robin order so that ties are spread evenly
+                var start = Math.floorMod(nextLoop.getAndIncrement(), loops.length);
+                var result = loops[start];
+                for(var i = 1; i < loops.length; i++) {
+                    var candidate = loops[(start + i) % loops.length];
+                    if(candidate.connections.get() < result.connections.get()) {
+                        result = candidate;
+                    }
+                }
+                return result;
+            }
+        }
+
+        private static final class SelectorLoop implements Runnable {
+            private final int index;
             private final Selector selector;
+            private final AtomicInteger connections;
             private final Object lock = new Object();
 
             private volatile Thread selectorThread;
 
-            private CentralSelector() {
+            private SelectorLoop(int index) {
+                this.index = index;
+                this.connections = new AtomicInteger();
                 try {
                     selector = Selector.open();
                 } catch (IOException e) {
@@ -256,12 +306,16 @@ abstract sealed class SocketSession {
             public void register(SocketChannel channel, int ops, ConnectionContext context) {
                 synchronized (lock) {
                     try {
-                        channel.register(selector, ops, context);
+                        context.key = channel.register(selector, ops, context);
                     } catch (ClosedChannelException e) {
-                        context.listener.onError(e);
+                        context.closeAndDispatch(() -> context.listener.onError(e));
                     }
+                    // Selection blocks the carrier thread, so a platform thread is used instead of a virtual one
                     if (selectorThread == null || !selectorThread.isAlive()) {
-                        selectorThread = Thread.startVirtualThread(this);
+                        selectorThread = Thread.ofPlatform()
+                                .name("CobaltSelector-" + index)
+                                .daemon()
+                                .start(this);
                     }
                     selector.wakeup();
                 }
@@ -275,8 +329,12 @@ abstract sealed class SocketSession {
                 }
                 var ctx = (ConnectionContext) key.attachment();
                 ctx.pendingWrites.add(buffer);
-                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                selector.wakeup();
+                try {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    selector.wakeup();
+                } catch (CancelledKeyException ignored) {
+
+                }
             }
 
             @Override
@@ -317,9 +375,9 @@ abstract sealed class SocketSession {
                 try {
                     if (key.isConnectable()) {
                         if (channel.finishConnect()) {
-                            key.interestOps(SelectionKey.OP_READ);
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_CONNECT | SelectionKey.OP_READ);
                             ctx.connectFuture.complete(null);
-                            ctx.listener.onOpen(ctx.session);
+                            ctx.dispatch(() -> ctx.listener.onOpen(ctx.session));
                         }
                     }
                     if (key.isReadable()) {
@@ -327,10 +385,10 @@ abstract sealed class SocketSession {
                         if (!ok) {
                             key.cancel();
                             channel.close();
-                            ctx.listener.onClose();
+                            ctx.closeAndDispatch(ctx.listener::onClose);
                         }
                     }
-                    if (key.isWritable()) {
+                    if (key.isValid() && key.isWritable()) {
                         processWrite(channel, key, ctx);
                     }
                 } catch (IOException e) {
@@ -340,12 +398,13 @@ abstract sealed class SocketSession {
                     } catch (IOException ignored) {
 
                     }
-                    ctx.listener.onError(e);
+                    ctx.connectFuture.completeExceptionally(e);
+                    ctx.closeAndDispatch(() -> ctx.listener.onError(e));
                 }
             }
 
             private boolean processRead(SocketChannel channel, ConnectionContext ctx) throws IOException {
-                if (ctx.lengthBuffer.hasRemaining()) {
+                if (ctx.payloadBuffer == null) {
                     var bytesRead = channel.read(ctx.lengthBuffer);
                     if (bytesRead == -1) {
                         return false;
@@ -355,59 +414,156 @@ abstract sealed class SocketSession {
                         return true;
                     }
 
-                    ctx.lengthBuffer.flip();
-                    var length = ((ctx.lengthBuffer.get() & 0xFF) << 16)
-                            | ((ctx.lengthBuffer.get() & 0xFF) << 8)
-                            | (ctx.lengthBuffer.get() & 0xFF);
-                    ctx.payloadBuffer = ByteBuffer.allocate(length);
-                }
-
-                if (ctx.payloadBuffer != null && ctx.payloadBuffer.hasRemaining()) {
-                    var bytesRead = channel.read(ctx.payloadBuffer);
-                    if (bytesRead == -1) {
+                    var length = ((ctx.lengthBuffer.get(0) & 0xFF) << 16)
+                            | ((ctx.lengthBuffer.get(1) & 0xFF) << 8)
+                            | (ctx.lengthBuffer.get(2) & 0xFF);
+                    if (length > MAX_MESSAGE_LENGTH) {
                         return false;
                     }
 
-                    if (ctx.payloadBuffer.hasRemaining()) {
-                        return true;
-                    }
-
-                    ctx.payloadBuffer.flip();
                     ctx.lengthBuffer.clear();
-                    ctx.listener.onMessage(ctx.payloadBuffer, true);
-                    ctx.payloadBuffer = null;
+                    ctx.payloadBuffer = SocketBufferPool.DIRECT.acquire(length);
                 }
+
+                var bytesRead = channel.read(ctx.payloadBuffer);
+                if (bytesRead == -1) {
+                    return false;
+                }
+
+                if (ctx.payloadBuffer.hasRemaining()) {
+                    return true;
+                }
+
+                // Decryption and decoding don't run on the selector thread: the buffer is recycled once the listener is done with it
+                // If the listener falls behind, the channel isn't read until it catches up, so the frames waiting for it are bounded
+                var message = ctx.payloadBuffer.flip();
+                ctx.payloadBuffer = null;
+                ctx.onMessageQueued();
+                ctx.dispatch(() -> {
+                    try {
+                        ctx.listener.onMessage(message);
+                    } finally {
+                        SocketBufferPool.DIRECT.release(message);
+                        ctx.onMessageHandled();
+                    }
+                });
                 return true;
             }
 
             private void processWrite(SocketChannel channel, SelectionKey key, ConnectionContext ctx) throws IOException {
                 var queue = ctx.pendingWrites;
+                var buffers = ctx.gatheredWrites;
                 while (!queue.isEmpty()) {
-                    ByteBuffer buf = queue.peek();
-                    channel.write(buf);
-                    if (buf.hasRemaining()) {
+                    // Gather every queued payload in a single write
+                    var length = 0;
+                    for (var iterator = queue.iterator(); iterator.hasNext() && length < buffers.length; ) {
+                        buffers[length++] = iterator.next();
+                    }
+
+                    channel.write(buffers, 0, length);
+                    var written = 0;
+                    while (written < length && !buffers[written].hasRemaining()) {
+                        queue.poll();
+                        written++;
+                    }
+
+                    Arrays.fill(buffers, 0, length, null);
+                    if (written < length) {
                         break;
                     }
-                    queue.poll();
                 }
 
                 if (queue.isEmpty()) {
-                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    key.interestOpsAnd(~SelectionKey.OP_WRITE);
                 }
             }
         }
 
+        // Listener callbacks run in order on a virtual thread that is owned by the connection
         private static final class ConnectionContext {
             private final RawSocketSession session;
             private final Listener listener;
+            private final SelectorLoop loop;
             private final CompletableFuture<Void> connectFuture;
+            private final ExecutorService dispatcher;
+            private final AtomicBoolean closed;
             private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+            private final ByteBuffer[] gatheredWrites = new ByteBuffer[MAX_GATHERED_WRITES];
             private final ByteBuffer lengthBuffer = ByteBuffer.allocate(3);
             private ByteBuffer payloadBuffer = null;
-            private ConnectionContext(RawSocketSession session, Listener listener, CompletableFuture<Void> connectFuture) {
+            private volatile SelectionKey key;
+            private int pendingMessages;
+
+            // The connection counts towards the load of its loop as soon as it's assigned, so that concurrent connects are spread
+            private ConnectionContext(RawSocketSession session, Listener listener, SelectorLoop loop) {
                 this.session = session;
                 this.listener = listener;
-                this.connectFuture = connectFuture;
+                this.loop = loop;
+                this.connectFuture = new CompletableFuture<>();
+                this.dispatcher = Executors.newSingleThreadExecutor(Thread.ofVirtual().factory());
+                this.closed = new AtomicBoolean();
+                loop.connections.incrementAndGet();
+            }
+
+            // Called on the selector thread
+            private synchronized void onMessageQueued() {
+                if (++pendingMessages >= MAX_PENDING_MESSAGES) {
+                    setReadInterest(false);
+                }
+            }
+
+            // Called on the dispatcher thread
+            private synchronized void onMessageHandled() {
+                if (pendingMessages-- == MAX_PENDING_MESSAGES) {
+                    setReadInterest(true);
+                }
+            }
+
+            private void setReadInterest(boolean read) {
+                var key = this.key;
+                if (key == null) {
+                    return;
+                }
+
+                try {
+                    if (read) {
+                        key.interestOpsOr(SelectionKey.OP_READ);
+                        key.selector().wakeup();
+                    } else {
+                        key.interestOpsAnd(~SelectionKey.OP_READ);
+                    }
+                } catch (CancelledKeyException ignored) {
+
+                }
+            }
+
+            private void dispatch(Runnable task) {
+                try {
+                    dispatcher.execute(task);
+                } catch (RejectedExecutionException ignored) {
+
+                }
+            }
+
+            private boolean close() {
+                if(!closed.compareAndSet(false, true)) {
+                    return false;
+                }
+
+                loop.connections.decrementAndGet();
+                dispatcher.shutdown();
+                return true;
+            }
+
+            // The callbacks that were already dispatched still run before the last one
+            private void closeAndDispatch(Runnable callback) {
+                if(!closed.compareAndSet(false, true)) {
+                    return;
+                }
+
+                loop.connections.decrementAndGet();
+                dispatch(callback);
+                dispatcher.shutdown();
             }
         }
     }
@@ -415,7 +571,8 @@ abstract sealed class SocketSession {
     interface Listener {
         void onOpen(SocketSession session);
 
-        void onMessage(ByteBuffer message, boolean last);
+        // The message is only valid until this method returns: its buffer is then recycled
+        void onMessage(ByteBuffer message);
 
         void onClose();
 
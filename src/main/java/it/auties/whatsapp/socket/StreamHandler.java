@@ -243,6 +243,7 @@ class StreamHandler {
         }else {
             message.receipt().addDeliveredJid(target);
         }
+        message.markChanged();
 
         if(chat != null && chat.jid().hasServer(JidServer.groupOrCommunity())) {
             socketHandler.queryGroupMetadata(chat.jid()).thenAcceptAsync(metadata -> {
@@ -252,6 +253,7 @@ class StreamHandler {
                         case READ -> message.receipt().setReadTimestampSeconds(Clock.nowSeconds());
                         case PLAYED -> message.receipt().setPlayedTimestampSeconds(Clock.nowSeconds());
                     }
+                    message.markChanged();
                 }
             });
         }
@@ -382,6 +384,7 @@ class StreamHandler {
                 case "w:gp2" -> handleGroupNotification(node);
                 case "server_sync" -> handleServerSyncNotification(node);
                 case "account_sync" -> handleAccountSyncNotification(node);
+                case "devices" -> socketHandler.invalidateDevices(from);
                 case "encrypt" -> handleEncryptNotification(node);
                 case "picture" -> handlePictureNotification(node);
                 case "registration" -> handleRegistrationNotification(node);
@@ -646,6 +649,9 @@ class StreamHandler {
     }
 
     private void handleGroupNotification(Node node) {
+        node.attributes()
+                .getOptionalJid("from")
+                .ifPresent(socketHandler::invalidateGroupMetadata);
         var child = node.findChild();
         if (child.isEmpty()) {
             return;
@@ -797,6 +803,7 @@ class StreamHandler {
                 .jid()
                 .orElseThrow(() -> new IllegalStateException("The session isn't connected"))
                 .toSimpleJid();
+        socketHandler.invalidateDevices(companionJid);
         var companionDevice = devices.remove(companionJid);
         devices.put(companionJid, companionDevice);
         socketHandler.store().setLinkedDevicesKeys(devices);
@@ -820,6 +827,7 @@ class StreamHandler {
                 .flatMap(socketHandler.store()::findContactByJid)
                 .ifPresent(contact -> {
                     contact.setBlocked(Objects.equals(entry.attributes().getString("action"), "block"));
+                    socketHandler.store().markChanged();
                     socketHandler.onContactBlocked(contact);
                 });
     }
@@ -1408,6 +1416,7 @@ class StreamHandler {
                 .jid()
                 .flatMap(socketHandler.store()::findContactByJid)
                 .ifPresent(entry -> entry.setLastKnownPresence(ContactStatus.AVAILABLE).setLastSeen(ZonedDateTime.now()));
+        socketHandler.store().markChanged();
     }
 
     private CompletableFuture<Void> updateUserAbout(boolean update) {
@@ -1460,6 +1469,7 @@ class StreamHandler {
             socketHandler.onNewContact(contact);
             return contact;
         }).setBlocked(true);
+        socketHandler.store().markChanged();
     }
 
     private CompletableFuture<Void> parsePrivacySettings(Node result) {
@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
@@ -82,36 +81,34 @@ public final class AppMetadata {
             return CompletableFuture.completedFuture(webVersion);
         }
 
-        try(var client = HttpClient.newHttpClient()) {
-            var request = HttpRequest.newBuilder()
-                    .uri(WEB_UPDATE_URL)
-                    .header("User-Agent", MOBILE_WEB_USER_AGENT)
-                    .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7")
-                    .header("Accept-Language", "en-US,en;q=0.9")
-                    .header("Sec-Fetch-Dest", "document")
-                    .header("Sec-Fetch-Mode", "navigate")
-                    .header("Sec-Fetch-Site", "none")
-                    .header("Sec-Fetch-User", "?1")
-                    .build();
-            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
-                if(response.statusCode() != 200) {
-                    return WEB_VERSION;
-                }
+        var request = HttpRequest.newBuilder()
+                .uri(WEB_UPDATE_URL)
+                .header("User-Agent", MOBILE_WEB_USER_AGENT)
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7")
+                .header("Accept-Language", "en-US,en;q=0.9")
+                .header("Sec-Fetch-Dest", "document")
+                .header("Sec-Fetch-Mode", "navigate")
+                .header("Sec-Fetch-Site", "none")
+                .header("Sec-Fetch-User", "?1")
+                .build();
+        return HttpClients.defaults().sendAsync(null, request, HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+            if(response.statusCode() != 200) {
+                return WEB_VERSION;
+            }
 
-                return WEB_UPDATE_PATTERN.matcher(response.body())
-                        .results()
-                        .findFirst()
-                        .map(entry -> {
-                            try {
-                                var clientVersion = Integer.parseUnsignedInt(entry.group(1));
-                                return webVersion = new Version(2, 3000, clientVersion);
-                            }catch (Throwable throwable) {
-                                return WEB_VERSION;
-                            }
-                        })
-                        .orElse(WEB_VERSION);
-            });
-        }
+            return WEB_UPDATE_PATTERN.matcher(response.body())
+                    .results()
+                    .findFirst()
+                    .map(entry -> {
+                        try {
+                            var clientVersion = Integer.parseUnsignedInt(entry.group(1));
+                            return webVersion = new Version(2, 3000, clientVersion);
+                        }catch (Throwable throwable) {
+                            return WEB_VERSION;
+                        }
+                    })
+                    .orElse(WEB_VERSION);
+        });
     }
 
     private static CompletableFuture<Version> getIosVersion(boolean business) {
@@ -123,7 +120,7 @@ public final class AppMetadata {
             return CompletableFuture.completedFuture(personalIosVersion);
         }
 
-        return Medias.downloadAsync(business ? MOBILE_BUSINESS_IOS_URL : MOBILE_IOS_URL, null, MOBILE_IOS_USER_AGENT).thenApplyAsync(response -> {
+        return Medias.downloadAsync(business ? MOBILE_BUSINESS_IOS_URL : MOBILE_IOS_URL, HttpClients.defaults(), null, MOBILE_IOS_USER_AGENT).thenApplyAsync(response -> {
             var result = IosVersionResponse.of(response);
             if(result == null) {
                 return business ? MOBILE_BUSINESS_IOS_VERSION : MOBILE_PERSONAL_IOS_VERSION;
@@ -216,7 +213,7 @@ public final class AppMetadata {
     }
 
     private static CompletableFuture<WhatsappAndroidApp> downloadAndroidData(boolean business) {
-        return Medias.downloadAsync(business ? MOBILE_BUSINESS_ANDROID_URL : MOBILE_ANDROID_URL, null, MOBILE_ANDROID_USER_AGENT).thenApplyAsync(apk -> {
+        return Medias.downloadAsync(business ? MOBILE_BUSINESS_ANDROID_URL : MOBILE_ANDROID_URL, HttpClients.defaults(), null, MOBILE_ANDROID_USER_AGENT).thenApplyAsync(apk -> {
             try (var apkFile = new ByteArrayApkFile(apk)) {
                 var version = Version.of(apkFile.getApkMeta().getVersionName());
                 var digest = MessageDigest.getInstance("MD5");
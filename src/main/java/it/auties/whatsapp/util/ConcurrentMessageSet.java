@@ -0,0 +1,239 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.info.NewsletterMessageInfo;
+import it.auties.whatsapp.model.sync.HistorySyncMessage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Messages are ordered by timestamp, then by the order in which they were added, and deduplicated by id
+// Reads never lock: iterators are weakly consistent views of the skip list
+// Writes change both maps while the id of the message is locked by a compute on the id index, so they can't get out of sync
+public final class ConcurrentMessageSet<E> extends AbstractCollection<E> implements Set<E> {
+    private final ConcurrentSkipListMap<Position, E> entries;
+    private final ConcurrentHashMap<String, Entry<E>> entriesById;
+    private final AtomicLong sequence;
+
+    public ConcurrentMessageSet() {
+        this.entries = new ConcurrentSkipListMap<>();
+        this.entriesById = new ConcurrentHashMap<>();
+        this.sequence = new AtomicLong();
+    }
+
+    @Override
+    public boolean add(E e) {
+        return add(e, true);
+    }
+
+    /**
+     * Adds a message before the ones with the same timestamp
+     * If the message has no timestamp, it's added before all the others
+     *
+     * @param e the message to add
+     * @return whether the message was added
+     */
+    public boolean addFirst(E e) {
+        return add(e, false);
+    }
+
+    private boolean add(E e, boolean last) {
+        var id = idOf(e);
+        var index = sequence.incrementAndGet();
+        var position = new Position(timestampOf(e, last), last ? index : -index);
+        var entry = new Entry<>(position, e);
+        var result = entriesById.computeIfAbsent(id, ignored -> {
+            entries.put(position, e);
+            return entry;
+        });
+        return result == entry;
+    }
+
+    // Messages without a timestamp keep the position they would have had in an insertion ordered collection
+    private long timestampOf(E e, boolean last) {
+        var timestamp = infoOf(e).timestampSeconds();
+        if (timestamp.isPresent()) {
+            return timestamp.getAsLong();
+        }
+
+        var edge = last ? entries.lastEntry() : entries.firstEntry();
+        return edge == null ? 0 : edge.getKey().timestamp();
+    }
+
+    /**
+     * Returns the message with the provided id
+     *
+     * @param id the id of the message
+     * @return a non-null optional
+     */
+    public Optional<E> findById(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        var entry = entriesById.get(id);
+        return entry == null ? Optional.empty() : Optional.of(entry.value());
+    }
+
+    /**
+     * Removes the message with the provided id
+     *
+     * @param id the id of the message
+     * @return whether the message was removed
+     */
+    public boolean removeById(String id) {
+        return id != null && remove(id, null);
+    }
+
+    // If a position is provided, the message is removed only if it's still the one at that position
+    private boolean remove(String id, Position position) {
+        var removed = new boolean[1];
+        entriesById.computeIfPresent(id, (ignored, entry) -> {
+            if (position != null && !position.equals(entry.position())) {
+                return entry;
+            }
+
+            entries.remove(entry.position());
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return isMessage(o) && removeById(idOf(o));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        var result = false;
+        for (var entry : entries.entrySet()) {
+            if (filter.test(entry.getValue()) && remove(idOf(entry.getValue()), entry.getKey())) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return isMessage(o) && entriesById.containsKey(idOf(o));
+    }
+
+    @Override
+    public int size() {
+        return entriesById.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entriesById.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        for (var id : entriesById.keySet()) {
+            remove(id, null);
+        }
+    }
+
+    /**
+     * Returns the oldest message
+     *
+     * @return the oldest message, or null if this set is empty
+     */
+    public E peekFirst() {
+        var entry = entries.firstEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Returns the newest message
+     *
+     * @return the newest message, or null if this set is empty
+     */
+    public E peekLast() {
+        var entry = entries.lastEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new MessageIterator(entries.values().iterator());
+    }
+
+    /**
+     * Returns an iterator from the newest message to the oldest
+     *
+     * @return a non-null iterator
+     */
+    public Iterator<E> descendingIterator() {
+        return new MessageIterator(entries.descendingMap().values().iterator());
+    }
+
+    private static boolean isMessage(Object o) {
+        return o instanceof HistorySyncMessage || o instanceof MessageInfo<?>;
+    }
+
+    private static MessageInfo<?> infoOf(Object o) {
+        return switch (o) {
+            case HistorySyncMessage historySyncMessage -> historySyncMessage.messageInfo();
+            case MessageInfo<?> messageInfo -> messageInfo;
+            case null, default -> throw new IllegalArgumentException("Unexpected message: " + o);
+        };
+    }
+
+    private static String idOf(Object o) {
+        var info = infoOf(o);
+        if (info.id() == null && info instanceof NewsletterMessageInfo newsletterMessageInfo) {
+            return String.valueOf(newsletterMessageInfo.serverId());
+        }
+
+        return Objects.requireNonNull(info.id(), "Missing message id");
+    }
+
+    private final class MessageIterator implements Iterator<E> {
+        private final Iterator<E> delegate;
+        private E last;
+
+        private MessageIterator(Iterator<E> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return last = delegate.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+
+            ConcurrentMessageSet.this.remove(last);
+            last = null;
+        }
+    }
+
+    private record Position(long timestamp, long index) implements Comparable<Position> {
+        @Override
+        public int compareTo(Position other) {
+            var result = Long.compare(timestamp, other.timestamp);
+            return result != 0 ? result : Long.compare(index, other.index);
+        }
+    }
+
+    private record Entry<E>(Position position, E value) {
+
+    }
+}
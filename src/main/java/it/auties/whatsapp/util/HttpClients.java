@@ -0,0 +1,250 @@
+package it.auties.whatsapp.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Clients that use the default executor are shared by proxy, so that media and metadata requests reuse the connections, and the HTTP/2 streams, to the same host
+// Shared clients are never closed: closing a client waits for all of its requests, and idle connections are released by the client itself
+// Clients that use a custom executor belong to the instance that created them, so that they are shut down with it instead of outliving their session
+// The number of concurrent requests is limited by each instance: a session uses the one configured in its store
+public final class HttpClients {
+    private static final String NO_PROXY = "";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+    private static final ConcurrentMap<String, HttpClient> sharedClients = new ConcurrentHashMap<>();
+    private static final HttpClients DEFAULT = new HttpClients(null, DEFAULT_MAX_CONCURRENT_REQUESTS);
+
+    private final Executor executor;
+    private final ConcurrentMap<String, HttpClient> ownedClients;
+    private final RequestLimiter limiter;
+
+    private HttpClients(Executor executor, int maxConcurrentRequests) {
+        this.executor = executor;
+        this.ownedClients = new ConcurrentHashMap<>();
+        this.limiter = new RequestLimiter(maxConcurrentRequests);
+    }
+
+    /**
+     * Returns the instance used by requests that don't belong to a session
+     *
+     * @return a non-null instance
+     */
+    public static HttpClients defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param executor              the executor used by the clients to handle requests and responses, or null to use the default one of each client
+     * @param maxConcurrentRequests the maximum number of requests of this instance that can be in flight at the same time
+     * @return a non-null instance
+     */
+    public static HttpClients of(Executor executor, int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent requests must be positive");
+        }
+
+        return new HttpClients(executor, maxConcurrentRequests);
+    }
+
+    /**
+     * Returns the client for a proxy
+     *
+     * @param proxy the proxy to use, can be null
+     * @return a non-null client
+     */
+    public HttpClient client(URI proxy) {
+        var key = proxy == null ? NO_PROXY : proxy.toString();
+        var clients = executor == null ? sharedClients : ownedClients;
+        return clients.computeIfAbsent(key, ignored -> createClient(proxy));
+    }
+
+    /**
+     * Shuts down the clients that use the custom executor of this instance: their requests in flight are completed, but they don't accept new ones
+     * Requests sent afterwards use new clients, so an instance can still be used after it's closed
+     * Clients shared with other instances are left open
+     */
+    public void close() {
+        for (var key : ownedClients.keySet()) {
+            var client = ownedClients.remove(key);
+            if (client != null) {
+                client.shutdown();
+            }
+        }
+    }
+
+    private HttpClient createClient(URI proxy) {
+        var builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.ALWAYS)
+                .connectTimeout(CONNECT_TIMEOUT);
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        if (proxy != null) {
+            builder.proxy(Proxies.toProxySelector(proxy));
+            builder.authenticator(Proxies.toAuthenticator(proxy));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sends a request through the shared client for a proxy
+     * If the maximum number of concurrent requests was reached, the request is sent when one of the others completes
+     * A request counts as completed when its response, including the body, was received: use {@link #sendStreamAsync(URI, HttpRequest)} to stream the body
+     *
+     * @param proxy   the proxy to use, can be null
+     * @param request the request to send
+     * @param handler the handler for the body of the response
+     * @return a future
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(URI proxy, HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        var client = client(proxy);
+        return limiter.acquire().thenCompose(permit -> {
+            try {
+                return client.sendAsync(request, handler)
+                        .whenComplete((result, error) -> permit.release());
+            } catch (Throwable throwable) {
+                permit.release();
+                return CompletableFuture.failedFuture(throwable);
+            }
+        });
+    }
+
+    /**
+     * Sends a request through the shared client for a proxy and streams the body of its response
+     * The request counts as in flight until the body is read completely or closed, so the caller is responsible for closing it
+     *
+     * @param proxy   the proxy to use, can be null
+     * @param request the request to send
+     * @return a future
+     */
+    public CompletableFuture<HttpResponse<InputStream>> sendStreamAsync(URI proxy, HttpRequest request) {
+        var client = client(proxy);
+        return limiter.acquire().thenCompose(permit -> {
+            try {
+                HttpResponse.BodyHandler<InputStream> handler = info -> HttpResponse.BodySubscribers.mapping(
+                        HttpResponse.BodySubscribers.ofInputStream(),
+                        stream -> new PermitInputStream(stream, permit)
+                );
+                return client.sendAsync(request, handler).whenComplete((result, error) -> {
+                    if (error != null) {
+                        permit.release();
+                    }
+                });
+            } catch (Throwable throwable) {
+                permit.release();
+                return CompletableFuture.failedFuture(throwable);
+            }
+        });
+    }
+
+    // Requests over the limit wait in a queue instead of blocking the caller
+    private static final class RequestLimiter {
+        private final Queue<CompletableFuture<Permit>> pending;
+        private final int maxRequests;
+        private int activeRequests;
+
+        private RequestLimiter(int maxRequests) {
+            this.pending = new ArrayDeque<>();
+            this.maxRequests = maxRequests;
+        }
+
+        private CompletableFuture<Permit> acquire() {
+            synchronized (this) {
+                if (activeRequests >= maxRequests) {
+                    var result = new CompletableFuture<Permit>();
+                    pending.add(result);
+                    return result;
+                }
+
+                activeRequests++;
+            }
+
+            return CompletableFuture.completedFuture(new Permit(this));
+        }
+
+        // The permit is handed over to the next request, if there is one
+        private void release() {
+            CompletableFuture<Permit> next;
+            synchronized (this) {
+                if ((next = pending.poll()) == null) {
+                    activeRequests--;
+                    return;
+                }
+            }
+
+            next.complete(new Permit(this));
+        }
+    }
+
+    // Releasing a permit more than once has no effect
+    private static final class Permit {
+        private final RequestLimiter limiter;
+        private final AtomicBoolean released;
+
+        private Permit(RequestLimiter limiter) {
+            this.limiter = limiter;
+            this.released = new AtomicBoolean();
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.release();
+            }
+        }
+    }
+
+    // Releases the permit of its request when the body is over or when it's closed
+    private static final class PermitInputStream extends FilterInputStream {
+        private final Permit permit;
+
+        private PermitInputStream(InputStream source, Permit permit) {
+            super(source);
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var result = super.read();
+            if (result == -1) {
+                permit.release();
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            var result = super.read(bytes, off, len);
+            if (result == -1) {
+                permit.release();
+            }
+
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+}
@@ -20,22 +20,29 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
-import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
 
 public final class Medias {
     private static final String WEB_ORIGIN = "https://web.whatsapp.com";
@@ -45,6 +52,8 @@ public final class Medias {
     private static final String DEFAULT_HOST = "mmg.whatsapp.net";
     private static final int THUMBNAIL_SIZE = 32;
     private static final int MAC_LENGTH = 10;
+    // Runs the parts of uploads and downloads that block on files or on the network
+    private static final Executor TRANSFER_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
 
     public static byte[] getProfilePic(byte[] file) {
         try {
@@ -66,12 +75,12 @@ public final class Medias {
     }
 
     @SafeVarargs
-    public static CompletableFuture<byte[]> downloadAsync(URI uri, URI proxy, Map.Entry<String, String>... headers) {
-        return downloadAsync(uri, proxy, MOBILE_ANDROID_USER_AGENT, headers);
+    public static CompletableFuture<byte[]> downloadAsync(URI uri, HttpClients httpClients, URI proxy, Map.Entry<String, String>... headers) {
+        return downloadAsync(uri, httpClients, proxy, MOBILE_ANDROID_USER_AGENT, headers);
     }
 
     @SafeVarargs
-    public static CompletableFuture<byte[]> downloadAsync(URI uri, URI proxy, String userAgent, Map.Entry<String, String>... headers) {
+    public static CompletableFuture<byte[]> downloadAsync(URI uri, HttpClients httpClients, URI proxy, String userAgent, Map.Entry<String, String>... headers) {
         if (uri == null) {
             return CompletableFuture.completedFuture(null);
         }
@@ -84,26 +93,103 @@ public final class Medias {
         for(var header : headers) {
             request.header(header.getKey(), header.getValue());
         }
-        try(var client = createHttpClient(proxy)) {
-            return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
-                    .thenApplyAsync(HttpResponse::body);
+        return httpClients.sendAsync(proxy, request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApplyAsync(HttpResponse::body);
+    }
+
+    public static CompletableFuture<MediaFile> upload(byte[] file, AttachmentType type, MediaConnection mediaConnection, HttpClients httpClients, URI proxy, String userAgent) {
+        return upload(() -> Streams.newInputStream(file), type, mediaConnection, httpClients, proxy, userAgent);
+    }
+
+    public static CompletableFuture<MediaFile> upload(Path file, AttachmentType type, MediaConnection mediaConnection, HttpClients httpClients, URI proxy, String userAgent) {
+        return upload(() -> Files.newInputStream(file), type, mediaConnection, httpClients, proxy, userAgent);
+    }
+
+    // The upload reads its source twice, so a stream that can only be read once is spooled to a temporary file first
+    public static CompletableFuture<MediaFile> upload(InputStream file, AttachmentType type, MediaConnection mediaConnection, HttpClients httpClients, URI proxy, String userAgent) {
+        return CompletableFuture.supplyAsync(() -> spoolUpload(file), TRANSFER_EXECUTOR).thenCompose(spooled -> {
+            try {
+                return upload(spooled, type, mediaConnection, httpClients, proxy, userAgent)
+                        .whenComplete((result, error) -> deleteSpooledUpload(spooled));
+            } catch (Throwable throwable) {
+                deleteSpooledUpload(spooled);
+                throw throwable;
+            }
+        });
+    }
+
+    private static Path spoolUpload(InputStream file) {
+        Path spooled;
+        try {
+            spooled = Files.createTempFile("whatsapp-upload", ".tmp");
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        try(file) {
+            Files.copy(file, spooled, StandardCopyOption.REPLACE_EXISTING);
+            return spooled;
+        } catch (IOException exception) {
+            deleteSpooledUpload(spooled);
+            throw new UncheckedIOException(exception);
         }
     }
 
-    public static CompletableFuture<MediaFile> upload(byte[] file, AttachmentType type, MediaConnection mediaConnection, URI proxy, String userAgent) {
-        var auth = URLEncoder.encode(mediaConnection.auth(), StandardCharsets.UTF_8);
-        var uploadData = compressUpload(file, type);
-        var mediaFile = prepareMediaFile(type, uploadData);
+    private static void deleteSpooledUpload(Path spooled) {
+        try {
+            Files.deleteIfExists(spooled);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    // The url of the upload contains the hash of the encrypted file, so the source is read twice:
+    // the first pass only computes the hashes and the second one encrypts the file again, with the same keys, straight into the request body
+    // Both passes are streamed, so memory usage doesn't depend on the size of the file, and the first one runs on a virtual thread, so the caller isn't blocked
+    private static CompletableFuture<MediaFile> upload(UploadSource source, AttachmentType type, MediaConnection mediaConnection, HttpClients httpClients, URI proxy, String userAgent) {
         var path = type.path()
-                .orElseThrow(() -> new UnsupportedOperationException(type + " cannot be uploaded"));
+                .orElse(null);
+        if(path == null) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException(type + " cannot be uploaded"));
+        }
+
+        var keys = type.keyName()
+                .map(MediaKeys::random)
+                .orElse(null);
+        return CompletableFuture.supplyAsync(() -> hashUpload(source, type, keys), TRANSFER_EXECUTOR)
+                .thenCompose(hashed -> upload(source, type, keys, hashed, path, mediaConnection, httpClients, proxy, userAgent));
+    }
+
+    private static AttachmentCipherInputStream hashUpload(UploadSource source, AttachmentType type, MediaKeys keys) {
+        try(var stream = new AttachmentCipherInputStream(source.open(), type, keys)) {
+            stream.transferTo(OutputStream.nullOutputStream());
+            return stream;
+        } catch (IOException | GeneralSecurityException exception) {
+            throw new IllegalArgumentException("Cannot encrypt data", exception);
+        }
+    }
+
+    private static CompletableFuture<MediaFile> upload(UploadSource source, AttachmentType type, MediaKeys keys, AttachmentCipherInputStream hashed, String path, MediaConnection mediaConnection, HttpClients httpClients, URI proxy, String userAgent) {
+        var fileSha256 = hashed.fileSha256();
+        var fileEncSha256 = hashed.fileEncSha256();
+        var fileLength = hashed.inputLength();
+        var auth = URLEncoder.encode(mediaConnection.auth(), StandardCharsets.UTF_8);
         var token = Base64.getUrlEncoder()
                 .withoutPadding()
-                .encodeToString(Objects.requireNonNullElse(mediaFile.fileEncSha256(), mediaFile.fileSha256()));
+                .encodeToString(Objects.requireNonNullElse(fileEncSha256, fileSha256));
         var uri = URI.create("https://%s/%s/%s?auth=%s&token=%s".formatted(DEFAULT_HOST, path, token, auth, token));
-        var body = Objects.requireNonNullElse(mediaFile.encryptedFile(), file);
+        var body = HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return new AttachmentCipherInputStream(source.open(), type, keys);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            } catch (GeneralSecurityException exception) {
+                throw new IllegalArgumentException("Cannot encrypt data", exception);
+            }
+        }), hashed.outputLength());
         var request = HttpRequest.newBuilder()
                 .uri(uri)
-                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> Streams.newInputStream(body)));
+                .POST(body);
         if(userAgent != null) {
             request.header("User-Agent", userAgent);
         }
@@ -111,153 +197,227 @@ public final class Medias {
                 .header("Accept", "application/json")
                 .headers("Origin", WEB_ORIGIN)
                 .build();
-        try(var client = createHttpClient(proxy)) {
-            return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApplyAsync(response -> {
-                var upload = MediaUpload.ofJson(response.body())
-                        .orElseThrow(() -> new IllegalArgumentException("Cannot parse upload response: " + new String(response.body())));
-                return new MediaFile(
-                        mediaFile.encryptedFile(),
-                        mediaFile.fileSha256(),
-                        mediaFile.fileEncSha256(),
-                        mediaFile.mediaKey(),
-                        mediaFile.fileLength(),
-                        upload.directPath(),
-                        upload.url(),
-                        upload.handle(),
-                        mediaFile.timestamp()
-                );
-            });
-        }
+        return httpClients.sendAsync(proxy, request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApplyAsync(response -> {
+            var upload = MediaUpload.ofJson(response.body())
+                    .orElseThrow(() -> new IllegalArgumentException("Cannot parse upload response: " + new String(response.body())));
+            return new MediaFile(
+                    null,
+                    fileSha256,
+                    fileEncSha256,
+                    keys == null ? null : keys.mediaKey(),
+                    fileLength,
+                    upload.directPath(),
+                    upload.url(),
+                    upload.handle(),
+                    keys == null ? null : Clock.nowSeconds()
+            );
+        });
+    }
+
+    @FunctionalInterface
+    private interface UploadSource {
+        InputStream open() throws IOException;
     }
 
-    private static byte[] compressUpload(byte[] uncompressed, AttachmentType type) {
-        if(!type.inflatable()) {
-            return uncompressed;
+    // Compresses, if the type is inflatable, and encrypts, if the type has a key name, the source as it's read
+    // The hashes and the mac are updated along the way: the mac is appended to the ciphertext when the source is over
+    private static final class AttachmentCipherInputStream extends InputStream {
+        private final InputStream source;
+        private final Cipher cipher;
+        private final Mac mac;
+        private final MessageDigest plaintextDigest;
+        private final MessageDigest ciphertextDigest;
+        private final byte[] input;
+        private final byte[] output;
+        private int offset, limit;
+        private long inputLength, outputLength;
+        private boolean finished;
+        private byte[] fileSha256, fileEncSha256;
+
+        private AttachmentCipherInputStream(InputStream source, AttachmentType type, MediaKeys keys) throws GeneralSecurityException {
+            this.source = type.inflatable() ? new DeflaterInputStream(source) : source;
+            this.plaintextDigest = MessageDigest.getInstance("SHA-256");
+            this.input = new byte[8192];
+            if(keys == null) {
+                this.cipher = null;
+                this.mac = null;
+                this.ciphertextDigest = null;
+                this.output = new byte[input.length];
+            }else {
+                this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keys.cipherKey(), "AES"), new IvParameterSpec(keys.iv()));
+                this.mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(keys.macKey(), "HmacSHA256"));
+                mac.update(keys.iv());
+                this.ciphertextDigest = MessageDigest.getInstance("SHA-256");
+                this.output = new byte[cipher.getOutputSize(input.length) + MAC_LENGTH];
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            var result = new byte[1];
+            return read(result, 0, 1) == -1 ? -1 : result[0] & 0xFF;
         }
 
-        var deflater = new Deflater();
-        deflater.setInput(uncompressed);
-        deflater.finish();
-        try(var result = Streams.newByteArrayOutputStream()) {
-            var buffer = new byte[8192];
-            while (!deflater.finished()) {
-                var count = deflater.deflate(buffer);
-                result.write(buffer, 0, count);
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, bytes.length);
+            if(len == 0) {
+                return 0;
             }
-            deflater.end();
-            return result.toByteArray();
-        }catch (IOException exception) {
-            throw new UncheckedIOException(exception);
+
+            while (offset >= limit) {
+                if(!fill()) {
+                    return -1;
+                }
+            }
+
+            var readable = Math.min(len, limit - offset);
+            System.arraycopy(output, offset, bytes, off, readable);
+            offset += readable;
+            return readable;
         }
-    }
 
-    private static MediaFile prepareMediaFile(AttachmentType type, byte[] uploadData) {
-        try {
-            var digest = MessageDigest.getInstance("SHA-256");
-            digest.update(uploadData);
-            var fileSha256 = digest.digest();
-
-            var keyName = type.keyName()
-                    .orElse(null);
-            if(keyName == null) {
-                return new MediaFile(null, fileSha256, null, null, uploadData.length, null, null, null, null);
+        private boolean fill() throws IOException {
+            if(finished) {
+                return false;
             }
 
-            var keys = MediaKeys.random(keyName);
-            var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            var keySpec = new SecretKeySpec(keys.cipherKey(), "AES");
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(keys.iv()));
+            try {
+                this.offset = 0;
+                var read = source.read(input);
+                if(read == -1) {
+                    this.finished = true;
+                    this.fileSha256 = plaintextDigest.digest();
+                    if(cipher == null) {
+                        this.limit = 0;
+                        return false;
+                    }
+
+                    var ciphertextLength = cipher.doFinal(output, 0);
+                    mac.update(output, 0, ciphertextLength);
+                    System.arraycopy(mac.doFinal(), 0, output, ciphertextLength, MAC_LENGTH);
+                    this.limit = ciphertextLength + MAC_LENGTH;
+                    ciphertextDigest.update(output, 0, limit);
+                    this.fileEncSha256 = ciphertextDigest.digest();
+                    this.outputLength += limit;
+                    return true;
+                }
+
+                this.inputLength += read;
+                plaintextDigest.update(input, 0, read);
+                if(cipher == null) {
+                    System.arraycopy(input, 0, output, 0, read);
+                    this.limit = read;
+                }else {
+                    this.limit = cipher.update(input, 0, read, output, 0);
+                    mac.update(output, 0, limit);
+                    ciphertextDigest.update(output, 0, limit);
+                }
 
-            var encryptedLength = cipher.getOutputSize(uploadData.length);
-            var encrypted = new byte[encryptedLength + MAC_LENGTH];
-            if(cipher.doFinal(uploadData, 0, uploadData.length, encrypted, 0) != encryptedLength) {
-                throw new IllegalArgumentException("Ciphertext length mismatch");
+                this.outputLength += limit;
+                return true;
+            }catch (GeneralSecurityException exception) {
+                throw new IOException("Cannot encrypt data", exception);
             }
+        }
 
-            var mac = Mac.getInstance("HmacSHA256");
-            var macKey = new SecretKeySpec(keys.macKey(), "HmacSHA256");
-            mac.init(macKey);
-            mac.update(encrypted, 0, encryptedLength);
-            var encryptedMac = mac.doFinal();
-            System.arraycopy(encryptedMac, 0, encrypted, encryptedLength, MAC_LENGTH);
+        private byte[] fileSha256() {
+            return fileSha256;
+        }
 
-            digest.update(encrypted);
-            var fileEncSha256 = digest.digest();
+        private byte[] fileEncSha256() {
+            return fileEncSha256;
+        }
 
-            return new MediaFile(encrypted, fileSha256, fileEncSha256, keys.mediaKey(), uploadData.length, null, null, null, Clock.nowSeconds());
-        } catch (GeneralSecurityException exception) {
-            throw new IllegalArgumentException("Cannot encrypt data", exception);
+        private long inputLength() {
+            return inputLength;
+        }
+
+        private long outputLength() {
+            return outputLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
         }
     }
 
-    public static CompletableFuture<byte[]> downloadAsync(MutableAttachmentProvider<?> provider, URI proxy) {
-       var url = provider.mediaUrl()
-                .or(() -> provider.mediaDirectPath().map(Medias::createMediaUrl))
-               .orElse(null);
-       if(url == null) {
-           return CompletableFuture.failedFuture(new IllegalArgumentException("Missing url or direct path from media"));
-       }
+    public static CompletableFuture<byte[]> downloadAsync(MutableAttachmentProvider<?> provider, HttpClients httpClients, URI proxy) {
+        return downloadAsync(provider, httpClients, proxy, stream -> {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+    }
 
-        var request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .build();
-        try(var client = createHttpClient(proxy)) {
-            return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenComposeAsync(response -> {
-                var payloadLength = (int) response.headers()
-                        .firstValueAsLong("Content-Length")
-                        .orElseThrow(() -> new IllegalArgumentException("Unknown content length"));
-                try(var payload = response.body()) {
-                    var ciphertext = payload.readNBytes(payloadLength - MAC_LENGTH);
-                    if(provider.mediaEncryptedSha256().isEmpty()) {
-                        var expectedCiphertextSha256 = provider.mediaEncryptedSha256().get();
-                        var sha256Digest = MessageDigest.getInstance("SHA-256");
-                        var actualCiphertextSha256 = sha256Digest.digest(ciphertext);
-                        if(!Arrays.equals(expectedCiphertextSha256, actualCiphertextSha256)) {
-                            throw new HmacValidationException("media_decryption");
-                        }
-                    }
+    // The stream is read while the media is downloaded, so the decoder blocks: it runs on a virtual thread instead of the common pool
+    public static <T> CompletableFuture<T> downloadAsync(MutableAttachmentProvider<?> provider, HttpClients httpClients, URI proxy, Function<InputStream, T> decoder) {
+        return downloadStreamAsync(provider, httpClients, proxy).thenApplyAsync(stream -> {
+            try(stream) {
+                return decoder.apply(stream);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, TRANSFER_EXECUTOR);
+    }
 
-                    var keyName = provider.attachmentType().keyName();
-                    if (keyName.isEmpty()) {
-                        return CompletableFuture.completedFuture(ciphertext);
-                    }
+    public static CompletableFuture<Long> downloadAsync(MutableAttachmentProvider<?> provider, HttpClients httpClients, URI proxy, WritableByteChannel channel) {
+        return downloadAsync(provider, httpClients, proxy, stream -> {
+            try {
+                return transferTo(stream, channel);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+    }
 
-                    var mediaKey = provider.mediaKey();
-                    if (mediaKey.isEmpty()) {
-                        return CompletableFuture.completedFuture(ciphertext);
-                    }
+    // A file that wasn't downloaded completely is deleted, so that it can't be mistaken for a valid media
+    public static CompletableFuture<Long> downloadAsync(MutableAttachmentProvider<?> provider, HttpClients httpClients, URI proxy, Path file) {
+        return downloadAsync(provider, httpClients, proxy, stream -> {
+            try(var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                return transferTo(stream, channel);
+            } catch (IOException exception) {
+                deletePartialDownload(file, exception);
+                throw new UncheckedIOException(exception);
+            } catch (RuntimeException exception) {
+                deletePartialDownload(file, exception);
+                throw exception;
+            }
+        });
+    }
 
-                    var keys = MediaKeys.of(mediaKey.get(), keyName.get());
-                    var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-                    var keySpec = new SecretKeySpec(keys.cipherKey(), "AES");
-                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(keys.iv()));
-                    if(cipher.doFinal(ciphertext, 0, ciphertext.length, ciphertext, 0) != ciphertext.length) {
-                        throw new IllegalStateException("Unexpected plaintext length");
-                    }
+    private static void deletePartialDownload(Path file, Exception cause) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException exception) {
+            cause.addSuppressed(exception);
+        }
+    }
 
-                    try {
-                        var expectedCiphertextMac = payload.readNBytes(MAC_LENGTH);
-                        var localMac = Mac.getInstance("HmacSHA256");
-                        localMac.init(new SecretKeySpec(keys.macKey(), "HmacSHA256"));
-                        localMac.update(keys.iv());
-                        localMac.update(ciphertext);
-                        var actualCiphertextMac = localMac.doFinal();
-                        if(!Arrays.equals(expectedCiphertextMac, 0, MAC_LENGTH, actualCiphertextMac, 0, MAC_LENGTH)) {
-                            throw new HmacValidationException("media_decryption");
-                        }
-                    } catch (GeneralSecurityException exception) {
-                        throw new IllegalArgumentException("Cannot calculate hmac", exception);
-                    }
+    private static long transferTo(InputStream stream, WritableByteChannel channel) throws IOException {
+        var buffer = new byte[8192];
+        var result = 0L;
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            var wrapped = ByteBuffer.wrap(buffer, 0, read);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
 
-                    return CompletableFuture.completedFuture(ciphertext);
-                } catch (Throwable throwable) {
-                    return CompletableFuture.failedFuture(throwable);
-                }
-            });
+            result += read;
         }
+
+        return result;
     }
 
-    public static <T> CompletableFuture<T> downloadAsync(MutableAttachmentProvider<?> provider, URI proxy, Function<InputStream, T> decoder) {
+    // The returned stream decrypts the media as it's read: the hashes and the mac are checked when the end of the stream is reached
+    // The caller is responsible for closing the stream
+    public static CompletableFuture<InputStream> downloadStreamAsync(MutableAttachmentProvider<?> provider, HttpClients httpClients, URI proxy) {
         var url = provider.mediaUrl()
                 .or(() -> provider.mediaDirectPath().map(Medias::createMediaUrl))
                 .orElse(null);
@@ -265,77 +425,175 @@ public final class Medias {
             return CompletableFuture.failedFuture(new IllegalArgumentException("Missing url or direct path from media"));
         }
 
+        var keyName = provider.attachmentType()
+                .keyName()
+                .orElse(null);
+        var mediaKey = provider.mediaKey()
+                .orElse(null);
+        var keys = keyName == null || mediaKey == null ? null : MediaKeys.of(mediaKey, keyName);
         var request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .build();
+        return httpClients.sendStreamAsync(proxy, request).thenApply(response -> {
+            try {
+                return new AttachmentDecipherInputStream(
+                        response.body(),
+                        keys,
+                        provider.mediaEncryptedSha256().orElse(null),
+                        provider.mediaSha256().orElse(null)
+                );
+            } catch (GeneralSecurityException exception) {
+                closeResponseBody(response.body(), exception);
+                throw new IllegalArgumentException("Cannot decipher media", exception);
+            }
+        });
+    }
+
+    // Closing the body releases the request, so that it doesn't count towards the maximum number of concurrent requests
+    private static void closeResponseBody(InputStream body, Exception cause) {
+        try {
+            body.close();
+        } catch (IOException exception) {
+            cause.addSuppressed(exception);
+        }
+    }
+
+    // The mac is the last part of the payload, but the length of the payload isn't always known:
+    // the last MAC_LENGTH bytes that were read are held back until either more data arrives or the stream is over
+    // If the media isn't encrypted, the payload is returned as it is
+    private static final class AttachmentDecipherInputStream extends InputStream {
+        private final InputStream source;
+        private final Cipher cipher;
+        private final Mac mac;
+        private final MessageDigest ciphertextDigest;
+        private final byte[] expectedCiphertextSha256;
+        private final MessageDigest plaintextDigest;
+        private final byte[] expectedPlaintextSha256;
+        private final byte[] input;
+        private final byte[] output;
+        private int pending;
+        private int offset, limit;
+        private boolean finished;
+
+        private AttachmentDecipherInputStream(InputStream source, MediaKeys keys, byte[] expectedCiphertextSha256, byte[] expectedPlaintextSha256) throws GeneralSecurityException {
+            this.source = source;
+            this.input = new byte[8192 + MAC_LENGTH];
+            if(keys == null) {
+                this.cipher = null;
+                this.mac = null;
+                this.ciphertextDigest = null;
+                this.expectedCiphertextSha256 = null;
+                this.output = new byte[input.length];
+            }else {
+                this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keys.cipherKey(), "AES"), new IvParameterSpec(keys.iv()));
+                this.mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(keys.macKey(), "HmacSHA256"));
+                mac.update(keys.iv());
+                this.ciphertextDigest = expectedCiphertextSha256 == null ? null : MessageDigest.getInstance("SHA-256");
+                this.expectedCiphertextSha256 = expectedCiphertextSha256;
+                this.output = new byte[cipher.getOutputSize(input.length)];
+            }
+            this.plaintextDigest = expectedPlaintextSha256 == null ? null : MessageDigest.getInstance("SHA-256");
+            this.expectedPlaintextSha256 = expectedPlaintextSha256;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var result = new byte[1];
+            return read(result, 0, 1) == -1 ? -1 : result[0] & 0xFF;
+        }
 
-        try(var client = createHttpClient(proxy)) {
-            return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApplyAsync(response -> {
-                var length = (int) response.headers()
-                        .firstValueAsLong("Content-Length")
-                        .orElseThrow(() -> new IllegalArgumentException("Unknown content length"));
-                try(var inputStream = response.body()) {
-                    var keyName = provider.attachmentType()
-                            .keyName()
-                            .orElseThrow(() -> new IllegalArgumentException("Missing key name for media"));
-                    var mediaKey = provider.mediaKey()
-                            .orElseThrow(() -> new IllegalArgumentException("Missing media key for media"));
-                    var keys = MediaKeys.of(mediaKey, keyName);
-                    var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-                    var keySpec = new SecretKeySpec(keys.cipherKey(), "AES");
-                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(keys.iv()));
-
-                    // Marvel of optimization
-                    final class AttachmentDecipherInputStream extends InputStream {
-                        private final byte[] buffer;
-                        private int offset, limit;
-                        private long remaining;
-
-                        private AttachmentDecipherInputStream() {
-                            this.buffer = new byte[8192];
-                            this.remaining = length - MAC_LENGTH;
-                        }
-
-                        @Override
-                        public int read() throws IOException {
-                            if(ensureDataAvailable()) {
-                                return -1;
-                            }
-
-                            return buffer[offset++] & 0xFF;
-                        }
-
-                        private boolean ensureDataAvailable() throws IOException {
-                            try {
-                                while (offset >= limit) {
-                                    if(remaining == -1) {
-                                        return true;
-                                    }else {
-                                        this.offset = 0;
-                                        if (remaining == 0) {
-                                            this.limit = cipher.doFinal(buffer, 0);
-                                            this.remaining = -1;
-                                        } else {
-                                            var readable = (int) Math.min(this.remaining, buffer.length);
-                                            this.limit = inputStream.readNBytes(buffer, 0, readable);
-                                            this.remaining -= limit;
-                                            this.limit = cipher.update(buffer, 0, limit, buffer, 0);
-                                        }
-                                    }
-                                }
-
-                                return false;
-                            }catch (GeneralSecurityException exception) {
-                                throw new IOException("Cannot decipher data", exception);
-                            }
-                        }
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, bytes.length);
+            if(len == 0) {
+                return 0;
+            }
+
+            while (offset >= limit) {
+                if(!fill()) {
+                    return -1;
+                }
+            }
+
+            var readable = Math.min(len, limit - offset);
+            System.arraycopy(output, offset, bytes, off, readable);
+            offset += readable;
+            return readable;
+        }
+
+        private boolean fill() throws IOException {
+            if(finished) {
+                return false;
+            }
+
+            try {
+                this.offset = 0;
+                var read = source.read(input, pending, input.length - pending);
+                if(read == -1) {
+                    this.finished = true;
+                    this.limit = cipher == null ? 0 : finish();
+                    updatePlaintextDigest();
+                    if(plaintextDigest != null && !MessageDigest.isEqual(expectedPlaintextSha256, plaintextDigest.digest())) {
+                        throw new HmacValidationException("media_decryption");
                     }
 
-                    return decoder.apply(new AttachmentDecipherInputStream());
-                } catch (Throwable exception) {
-                    throw new IllegalArgumentException("Cannot decipher media", exception);
+                    return limit != 0;
+                }
+
+                if(cipher == null) {
+                    System.arraycopy(input, 0, output, 0, read);
+                    this.limit = read;
+                    updatePlaintextDigest();
+                    return true;
+                }
+
+                var available = pending + read;
+                var ciphertextLength = Math.max(available - MAC_LENGTH, 0);
+                if(ciphertextDigest != null) {
+                    ciphertextDigest.update(input, 0, ciphertextLength);
                 }
-            });
+                mac.update(input, 0, ciphertextLength);
+                this.limit = cipher.update(input, 0, ciphertextLength, output, 0);
+                this.pending = available - ciphertextLength;
+                System.arraycopy(input, ciphertextLength, input, 0, pending);
+                updatePlaintextDigest();
+                return true;
+            }catch (GeneralSecurityException exception) {
+                throw new IOException("Cannot decipher data", exception);
+            }
+        }
+
+        private int finish() throws GeneralSecurityException {
+            if(pending != MAC_LENGTH) {
+                throw new HmacValidationException("media_decryption");
+            }
+
+            if(ciphertextDigest != null) {
+                ciphertextDigest.update(input, 0, MAC_LENGTH);
+                if(!MessageDigest.isEqual(expectedCiphertextSha256, ciphertextDigest.digest())) {
+                    throw new HmacValidationException("media_decryption");
+                }
+            }
+
+            var actualCiphertextMac = mac.doFinal();
+            if(!Arrays.equals(input, 0, MAC_LENGTH, actualCiphertextMac, 0, MAC_LENGTH)) {
+                throw new HmacValidationException("media_decryption");
+            }
+
+            return cipher.doFinal(output, 0);
+        }
+
+        private void updatePlaintextDigest() {
+            if(plaintextDigest != null) {
+                plaintextDigest.update(output, 0, limit);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
         }
     }
 
@@ -485,14 +743,4 @@ public final class Medias {
     public static byte[] getAudioWaveForm(byte[] audioData) {
         return null;
     }
-
-    private static HttpClient createHttpClient(URI proxy) {
-        var builder = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.ALWAYS);
-        if (proxy != null) {
-            builder.proxy(Proxies.toProxySelector(proxy));
-            builder.authenticator(Proxies.toAuthenticator(proxy));
-        }
-        return builder.build();
-    }
 }
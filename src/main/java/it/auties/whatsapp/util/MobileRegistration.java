@@ -15,7 +15,6 @@ import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -28,7 +27,6 @@ public final class MobileRegistration {
     public static final String MOBILE_REGISTRATION_ENDPOINT = "https://v.whatsapp.net/v2";
     private static final byte[] REGISTRATION_PUBLIC_KEY = HexFormat.of().parseHex("8e8c0f74c3ebc5d7a6865c6c3c843856b06121cce8ea774d22fb6f122512302d");
 
-    private final HttpClient httpClient;
     private final Store store;
     private final Keys keys;
     private final AsyncVerificationCodeSupplier codeHandler;
@@ -39,45 +37,20 @@ public final class MobileRegistration {
         this.keys = keys;
         this.codeHandler = codeHandler;
         this.method = method;
-        this.httpClient = HttpClient.newHttpClient();
     }
 
     public CompletableFuture<RegistrationResponse> registerPhoneNumber() {
-        return requestVerificationCode(false)
-                .thenCompose(ignored -> sendVerificationCode())
-                .thenApply(result -> {
-                    dispose();
-                    return result;
-                })
-                .exceptionallyCompose(throwable -> {
-                    dispose();
-                    return CompletableFuture.failedFuture(throwable);
-                });
+        return requestVerificationCode()
+                .thenCompose(ignored -> sendVerificationCode());
     }
 
     public CompletableFuture<RegistrationResponse> requestVerificationCode() {
-        return requestVerificationCode(true);
-    }
-
-    private CompletableFuture<RegistrationResponse> requestVerificationCode(boolean closeResources) {
         if(method == VerificationCodeMethod.NONE) {
             return CompletableFuture.completedFuture(null);
         }
 
         return exists(null)
-                .thenComposeAsync(response -> requestVerificationCode(response, null))
-                .thenApply(result -> {
-                    if(closeResources) {
-                        dispose();
-                    }
-                    return result;
-                })
-                .exceptionallyCompose(throwable -> {
-                    if(closeResources) {
-                        dispose();
-                    }
-                    return CompletableFuture.failedFuture(throwable);
-                });
+                .thenComposeAsync(response -> requestVerificationCode(response, null));
     }
 
     private CompletableFuture<RegistrationResponse> exists(VerificationCodeError lastError) {
@@ -243,7 +216,7 @@ public final class MobileRegistration {
                         .header("request_token", UUID.randomUUID().toString())
                         .header("Content-Type", "application/x-www-form-urlencoded");
             }
-            return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+            return store.httpClients().sendAsync(null, request.build(), HttpResponse.BodyHandlers.ofString())
                     .thenApply(HttpResponse::body);
         } catch (GeneralSecurityException exception) {
             throw new RuntimeException("Cannot encrypt request", exception);
@@ -324,8 +297,4 @@ public final class MobileRegistration {
         }
         return result.toString();
     }
-
-    private void dispose() {
-        httpClient.close();
-    }
 }
\ No newline at end of file